@@ -0,0 +1,81 @@
+#!/usr/bin/env bash
+#
+# Compares startup time across packaging modes: the plain jar, the extracted jar with a CDS
+# archive, the same with Spring AOT, and the native executable if one was built with -Pnative.
+# Each mode is started RUNS times; the time is the "process running for" figure Spring Boot
+# logs once the application has started.
+#
+#   scripts/startup-benchmark.sh [runs]        (from whatsapp-backend, default 5 runs)
+#   SKIP_BUILD=1 scripts/startup-benchmark.sh  reuses target/*.jar from an earlier -Pprod build
+#
+set -euo pipefail
+
+RUNS=${1:-5}
+cd "$(dirname "$0")/.."
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAR=target/whatsapp-backend-0.0.1-SNAPSHOT.jar
+NATIVE=target/whatsapp-backend
+WORK=target/startup-benchmark
+
+if [[ -z "${SKIP_BUILD:-}" ]]; then
+    mvn -B -q -Pprod -DskipTests package
+fi
+rm -rf "$WORK"
+mkdir -p "$WORK"
+"$JAVA" -Djarmode=tools -jar "$JAR" extract --destination "$WORK/app" > /dev/null
+APP="$WORK/app/$(basename "$JAR")"
+# Any free port, and nothing written to the working directory's data/
+ARGS=(--server.port=0 --whatsapp.outbox.path="$WORK/outbox" --whatsapp.store.local.path="$WORK/messages")
+
+# Starts the context once and writes the classes it loaded to the archive
+train() {
+    local archive=$1
+    shift
+    "$JAVA" -XX:ArchiveClassesAtExit="$archive" -Dspring.context.exit=onRefresh "$@" -jar "$APP" "${ARGS[@]}" \
+        > "$WORK/$(basename "$archive").log" 2>&1
+}
+
+# Prints the seconds until the application reported that it started, or fails after two minutes
+start_once() {
+    local log="$WORK/run.log"
+    "$@" > "$log" 2>&1 &
+    local pid=$!
+    local deadline=$((SECONDS + 120))
+    until grep -q "Started WhatsappBackendApplication" "$log"; do
+        if ! kill -0 "$pid" 2> /dev/null || ((SECONDS > deadline)); then
+            kill "$pid" 2> /dev/null || true
+            echo "Did not start: $*" >&2
+            tail -20 "$log" >&2
+            return 1
+        fi
+        sleep 0.1
+    done
+    kill "$pid"
+    wait "$pid" 2> /dev/null || true
+    sed -n 's/.*process running for \([0-9.]*\).*/\1/p' "$log"
+}
+
+measure() {
+    local mode=$1
+    shift
+    local times=()
+    for ((i = 0; i < RUNS; i++)); do
+        times+=("$(start_once "$@")")
+    done
+    printf '%s\n' "${times[@]}" | sort -n | awk -v mode="$mode" '
+        { t[NR] = $1; sum += $1 }
+        END { printf "%-10s min %6.2fs  median %6.2fs  mean %6.2fs\n", mode, t[1], t[int((NR + 1) / 2)], sum / NR }'
+}
+
+train "$WORK/app.jsa"
+train "$WORK/aot.jsa" -Dspring.aot.enabled=true
+
+echo "Startup time over $RUNS runs"
+measure jar "$JAVA" -jar "$JAR" "${ARGS[@]}"
+measure cds "$JAVA" -XX:SharedArchiveFile="$WORK/app.jsa" -jar "$APP" "${ARGS[@]}"
+measure aot+cds "$JAVA" -XX:SharedArchiveFile="$WORK/aot.jsa" -Dspring.aot.enabled=true -jar "$APP" "${ARGS[@]}"
+if [[ -x "$NATIVE" ]]; then
+    measure native "$NATIVE" "${ARGS[@]}"
+else
+    echo "native     skipped, build it with: mvn -Pnative -DskipTests native:compile"
+fi
@@ -3,10 +3,15 @@ package com.jaruratcare.whatsapp.config;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.info.Info;
 import io.swagger.v3.oas.models.info.License;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+/**
+ * Only compiled into dev builds, which are the ones that include springdoc.
+ */
 @Configuration
+@ConditionalOnClass(OpenAPI.class)
 public class OpenApiConfig {
 
     @Bean
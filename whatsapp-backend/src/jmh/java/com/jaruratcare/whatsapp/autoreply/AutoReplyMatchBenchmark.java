@@ -0,0 +1,107 @@
+package com.jaruratcare.whatsapp.autoreply;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Match latency against the number of rules, for an intake message that no rule matches (every
+ * rule has to be ruled out):
+ * <ul>
+ *     <li>{@code compiled}: {@link RuleSet}, with the keyword rules in one Aho-Corasick automaton</li>
+ *     <li>{@code linearScan}: each rule checked in turn, keywords as {@code \bword\b} patterns,
+ *     the way a list of rules is usually evaluated without compiling them together</li>
+ * </ul>
+ * Besides {@code ruleCount} keyword rules, every set has one exact and {@code regexCount} regex
+ * rules. {@code compiled} tries the regex rules one by one too, so its latency grows with
+ * {@code regexCount}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutoReplyMatchBenchmark {
+
+	@Param({"10", "100", "1000", "10000"})
+	public int ruleCount;
+
+	@Param({"2", "20", "200"})
+	public int regexCount;
+
+	private final String text = "Hello, my mother has had a fever and a mild cough since Monday. "
+			+ "Can someone call me back this evening?";
+	private RuleSet ruleSet;
+	private List<Pattern> scan;
+
+	@Setup
+	public void compileRules() {
+		List<AutoReplyRule> rules = new ArrayList<>();
+		rules.add(new AutoReplyRule("welcome", AutoReplyRule.MatchType.EXACT, List.of("hey"), "Hi welcome to JaruratCare.",
+				null, null));
+		rules.add(new AutoReplyRule("emergency", AutoReplyRule.MatchType.REGEX, List.of("chest\\s+pain"),
+				"Please call 108 now.", null, null));
+		for (int i = 0; i < ruleCount; i++) {
+			rules.add(new AutoReplyRule("keyword-" + i, AutoReplyRule.MatchType.KEYWORD, List.of(keyword(i)),
+					"Reply for " + keyword(i), null, null));
+		}
+		rules.add(new AutoReplyRule("report", AutoReplyRule.MatchType.REGEX, List.of("report\\s+#?\\d{4,}"),
+				"We are looking up your report.", null, null));
+		for (int i = 2; i < regexCount; i++) {
+			rules.add(new AutoReplyRule("case-" + i, AutoReplyRule.MatchType.REGEX, List.of("case\\s+#?" + i + "\\d{3,}"),
+					"We are looking up case " + i + ".", null, null));
+		}
+		ruleSet = new RuleSet(rules);
+
+		scan = new ArrayList<>();
+		for (AutoReplyRule rule : rules) {
+			String pattern = rule.getPatterns().get(0);
+			scan.add(switch (rule.getMatch()) {
+				case EXACT -> Pattern.compile(Pattern.quote(pattern), Pattern.CASE_INSENSITIVE);
+				case KEYWORD -> Pattern.compile("\\b" + Pattern.quote(pattern) + "\\b", Pattern.CASE_INSENSITIVE);
+				default -> Pattern.compile(pattern, Pattern.CASE_INSENSITIVE);
+			});
+		}
+	}
+
+	@Benchmark
+	public AutoReplyRule compiled() {
+		return ruleSet.match(text, null);
+	}
+
+	@Benchmark
+	public int linearScan() {
+		String normalized = RuleSet.normalize(text);
+		for (int i = 0; i < scan.size(); i++) {
+			boolean exact = i == 0;
+			if (exact ? scan.get(i).matcher(normalized).matches() : scan.get(i).matcher(normalized).find()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Distinct word-like keywords that share prefixes, as symptom and department names do
+	private static String keyword(int i) {
+		StringBuilder keyword = new StringBuilder("c");
+		do {
+			keyword.append((char) ('a' + i % 26));
+			i /= 26;
+		} while (i > 0);
+		return keyword.append("ology").toString();
+	}
+}
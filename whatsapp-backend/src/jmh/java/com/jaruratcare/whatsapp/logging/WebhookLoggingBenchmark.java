@@ -0,0 +1,145 @@
+package com.jaruratcare.whatsapp.logging;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import net.logstash.logback.encoder.LogstashEncoder;
+import net.logstash.logback.mask.MaskingJsonGeneratorDecorator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log output per inbound text message, written to a discarding stream so the numbers show the
+ * cost inside the application rather than the disk:
+ * <ul>
+ *     <li>{@code legacy}: the statements the webhook path used to make (payload dump, structure
+ *     walk and banners at INFO, token-free) through a synchronous pattern appender with the
+ *     application package at DEBUG</li>
+ *     <li>{@code structured}: the current statements at INFO, JSON encoded with redaction behind
+ *     the async appender, with {@code sampleRate} applied by {@link SamplingTurboFilter}</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebhookLoggingBenchmark {
+
+	@Param({"1", "10"})
+	public int sampleRate;
+
+	private LoggerContext legacyContext;
+	private LoggerContext structuredContext;
+	private Logger legacyLogger;
+	private Logger structuredLogger;
+	private String payload;
+	private final String from = "919876543210";
+	private final String messageId = "wamid.HBgMOTE5ODc2NTQzMjEwFQIAEhggQTE";
+	private final String text = "I need an appointment";
+
+	@Setup
+	public void configureLogging() throws IOException {
+		try (InputStream in = WebhookLoggingBenchmark.class.getResourceAsStream("/webhooks/single-message.json")) {
+			payload = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+
+		legacyContext = new LoggerContext();
+		PatternLayoutEncoder patternEncoder = new PatternLayoutEncoder();
+		patternEncoder.setContext(legacyContext);
+		patternEncoder.setPattern("%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p [%15.15t] %-40.40logger{39} : %m%n");
+		patternEncoder.start();
+		legacyLogger = legacyContext.getLogger("com.jaruratcare.whatsapp.controller.WhatsAppController");
+		legacyLogger.setLevel(Level.DEBUG);
+		legacyLogger.addAppender(discardingAppender(legacyContext, patternEncoder));
+
+		structuredContext = new LoggerContext();
+		SamplingTurboFilter sampling = new SamplingTurboFilter();
+		sampling.setRate(sampleRate);
+		sampling.start();
+		structuredContext.addTurboFilter(sampling);
+		LogstashEncoder jsonEncoder = new LogstashEncoder();
+		jsonEncoder.setContext(structuredContext);
+		MaskingJsonGeneratorDecorator masking = new MaskingJsonGeneratorDecorator();
+		masking.addValueMasker(new RedactingValueMasker());
+		jsonEncoder.setJsonGeneratorDecorator(masking);
+		jsonEncoder.start();
+		AsyncAppender async = new AsyncAppender();
+		async.setContext(structuredContext);
+		async.setQueueSize(8192);
+		// Block instead of dropping, so throughput is bounded by what actually gets written
+		async.setDiscardingThreshold(0);
+		async.addAppender(discardingAppender(structuredContext, jsonEncoder));
+		async.start();
+		structuredLogger = structuredContext.getLogger("com.jaruratcare.whatsapp.service.WebhookProcessor");
+		structuredLogger.setLevel(Level.INFO);
+		structuredLogger.addAppender(async);
+	}
+
+	@TearDown
+	public void stopLogging() {
+		legacyContext.stop();
+		structuredContext.stop();
+	}
+
+	@Benchmark
+	public void legacy() {
+		Logger logger = legacyLogger;
+		logger.info("=== WEBHOOK RECEIVED ===");
+		logger.info("Received webhook payload: {}", payload);
+		logger.info("=== PAYLOAD STRUCTURE ===");
+		logger.info("Root object: {}", "OBJECT");
+		logger.info("Object type: {}", "whatsapp_business_account");
+		logger.info("Entry array size: {}", 1);
+		logger.info("First entry ID: {}", "102290129340398");
+		logger.info("Changes array size: {}", 1);
+		logger.info("First change field: {}", "messages");
+		logger.info("=========================");
+		logger.info("=== INCOMING MESSAGE ===");
+		logger.info("From: {}", from);
+		logger.info("Text: {}", text);
+		logger.info("========================");
+		logger.info("No response sent - message was not 'hey'");
+		logger.info("Message saved to Firestore at: {}", "2024-06-10T06:13:21.123456000Z");
+	}
+
+	@Benchmark
+	public void structured() {
+		Logger logger = structuredLogger;
+		logger.trace("Webhook payload: {}", payload);
+		logger.info(LogMarkers.SAMPLED, "Incoming message {} from {}", messageId, from);
+		logger.debug("Message {} text: {}", messageId, text);
+		logger.info(LogMarkers.SAMPLED, "Processed {} events from webhook payload", 1);
+	}
+
+	private static OutputStreamAppender<ILoggingEvent> discardingAppender(LoggerContext context,
+			ch.qos.logback.core.encoder.Encoder<ILoggingEvent> encoder) {
+		OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+		appender.setContext(context);
+		appender.setEncoder(encoder);
+		appender.setOutputStream(OutputStream.nullOutputStream());
+		appender.start();
+		return appender;
+	}
+}
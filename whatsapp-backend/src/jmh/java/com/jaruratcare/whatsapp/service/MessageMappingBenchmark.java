@@ -0,0 +1,50 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Message} to and from the fields of a Firestore document with {@link MessageDocuments},
+ * the mapping {@link FirestoreService} runs on every batch write and query result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageMappingBenchmark {
+
+	private Message message;
+	private Map<String, Object> document;
+
+	@Setup
+	public void createMessage() {
+		message = Message.sent("919876543210", "I need an appointment for tomorrow morning",
+				"wamid.HBgLOTE5ODc2NTQzMjEwFQIAERgSQjQ1RkE2RUE3QjZFQzU2NUE2AA==");
+		message.setId("Vx0B3kqP9sLm2TzQa8Rc");
+		document = MessageDocuments.toFields(message);
+	}
+
+	@Benchmark
+	public Map<String, Object> toFirestore() {
+		return MessageDocuments.toFields(message);
+	}
+
+	@Benchmark
+	public Message fromFirestore() {
+		return MessageDocuments.fromFields("Vx0B3kqP9sLm2TzQa8Rc", document);
+	}
+}
@@ -0,0 +1,67 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound text message body: the nested {@code HashMap} that {@code WhatsAppService.sendMessage}
+ * handed to RestTemplate's Jackson converter, against {@link GraphApiClient#textBody}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBodyBenchmark {
+
+	@Param({"welcome", "long"})
+	public String text;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private String to;
+	private String body;
+
+	@Setup
+	public void createText() {
+		to = "919876543210";
+		if ("welcome".equals(text)) {
+			body = "Hi welcome to JaruratCare.";
+		} else {
+			// Appointment reminder with quotes, newlines and non-ASCII text that need escaping
+			body = ("Reminder: your appointment with Dr. \"Sharma\" is confirmed.\n"
+					+ "नमस्ते! Please arrive 15 minutes early and bring your reports.\n").repeat(8);
+		}
+	}
+
+	@Benchmark
+	public byte[] hashMapJackson() throws JsonProcessingException {
+		Map<String, Object> request = new HashMap<>();
+		request.put("messaging_product", "whatsapp");
+		request.put("to", to);
+		Map<String, String> textMap = new HashMap<>();
+		textMap.put("body", body);
+		request.put("text", textMap);
+		return objectMapper.writeValueAsBytes(request);
+	}
+
+	@Benchmark
+	public byte[] preEncoded() {
+		return GraphApiClient.textBody(to, body);
+	}
+}
@@ -0,0 +1,185 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.jaruratcare.whatsapp.model.event.InboundMessageEvent;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Webhook payload parsing, using the fixtures from {@code src/test/resources/webhooks}:
+ * <ul>
+ *     <li>{@code treeModelFirstEvent}: the original controller path, {@code readTree} and
+ *     {@code JsonNode.at()} for the first message or status only</li>
+ *     <li>{@code treeModelAllEvents}: the tree model walking every event, to compare like for
+ *     like on batched payloads</li>
+ *     <li>{@code dataBinding}: binding to typed classes with {@code ObjectReader}</li>
+ *     <li>{@code streamingDecoder}: {@link WebhookDecoder}, which the service uses today</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebhookParsingBenchmark {
+
+	@Param({"single-message", "batch"})
+	public String fixture;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final ObjectReader payloadReader = objectMapper.readerFor(Payload.class);
+	private final WebhookDecoder webhookDecoder = new WebhookDecoder();
+	private String payload;
+
+	@Setup
+	public void loadFixture() throws IOException {
+		try (InputStream in = WebhookParsingBenchmark.class.getResourceAsStream("/webhooks/" + fixture + ".json")) {
+			payload = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Benchmark
+	public void treeModelFirstEvent(Blackhole blackhole) throws IOException {
+		JsonNode root = objectMapper.readTree(payload);
+		JsonNode message = root.at("/entry/0/changes/0/value/messages/0");
+		if (!message.isMissingNode()) {
+			blackhole.consume(message.get("from").asText());
+			blackhole.consume(message.get("text").get("body").asText());
+			return;
+		}
+		JsonNode status = root.at("/entry/0/changes/0/value/statuses/0");
+		if (!status.isMissingNode()) {
+			blackhole.consume(status.get("status").asText());
+			blackhole.consume(status.get("id").asText());
+			blackhole.consume(status.get("recipient_id").asText());
+		}
+	}
+
+	@Benchmark
+	public void treeModelAllEvents(Blackhole blackhole) throws IOException {
+		JsonNode root = objectMapper.readTree(payload);
+		for (JsonNode entry : root.path("entry")) {
+			for (JsonNode change : entry.path("changes")) {
+				JsonNode value = change.path("value");
+				blackhole.consume(value.at("/metadata/phone_number_id").asText());
+				for (JsonNode message : value.path("messages")) {
+					blackhole.consume(message.path("id").asText());
+					blackhole.consume(message.path("from").asText());
+					blackhole.consume(message.at("/text/body").asText(null));
+				}
+				for (JsonNode status : value.path("statuses")) {
+					blackhole.consume(status.path("id").asText());
+					blackhole.consume(status.path("status").asText());
+					blackhole.consume(status.path("recipient_id").asText());
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void dataBinding(Blackhole blackhole) throws IOException {
+		Payload parsed = payloadReader.readValue(payload);
+		for (Entry entry : parsed.entry) {
+			for (Change change : entry.changes) {
+				Value value = change.value;
+				if (value == null) {
+					continue;
+				}
+				if (value.messages != null) {
+					value.messages.forEach(blackhole::consume);
+				}
+				if (value.statuses != null) {
+					value.statuses.forEach(blackhole::consume);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public int streamingDecoder(Blackhole blackhole) throws IOException {
+		return webhookDecoder.decode(payload, new WebhookEventHandler() {
+			@Override
+			public void onMessage(InboundMessageEvent event) {
+				blackhole.consume(event);
+			}
+
+			@Override
+			public void onStatus(StatusEvent event) {
+				blackhole.consume(event);
+			}
+		});
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Payload {
+		public List<Entry> entry = List.of();
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Entry {
+		public List<Change> changes = List.of();
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Change {
+		public Value value;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Value {
+		public Metadata metadata;
+		public List<MessageItem> messages;
+		public List<StatusItem> statuses;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Metadata {
+		@JsonProperty("phone_number_id")
+		public String phoneNumberId;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class MessageItem {
+		public String id;
+		public String from;
+		public String type;
+		public String timestamp;
+		public Text text;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Text {
+		public String body;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class StatusItem {
+		public String id;
+		public String status;
+		public String timestamp;
+		@JsonProperty("recipient_id")
+		public String recipientId;
+	}
+}
@@ -0,0 +1,200 @@
+package com.jaruratcare.whatsapp.autoreply;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the automatic reply to an inbound message from the rules in
+ * {@code whatsapp.auto-reply.rules} (see {@code auto-reply-rules.yml} for the format).
+ * <p>
+ * Rules are compiled into a {@link RuleSet} and swapped atomically. When the rules are a file on
+ * disk, it is checked every {@code reload-interval} and reloaded when it changes; a file that
+ * fails to load is reported and the previous rules stay in effect. Menus are built from rules
+ * that move a conversation into a state, which expires after {@code state-ttl} without a reply.
+ */
+@Service
+public class AutoReplyEngine {
+    private static final Logger logger = LoggerFactory.getLogger(AutoReplyEngine.class);
+    // Strict, unlike the application mapper, so a misspelt key in the rules file is reported
+    private static final ObjectMapper RULES_MAPPER = new ObjectMapper();
+
+    private final Resource rules;
+    private final long stateTtlNanos;
+    private final int maxConversations;
+    private final Map<String, ConversationState> states = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reloader;
+    private final Timer matchLatency;
+    private final Counter replied;
+    private final Counter unmatched;
+    private final Counter reloadFailures;
+    private volatile RuleSet ruleSet = RuleSet.EMPTY;
+    private volatile long loadedVersion;
+
+    public AutoReplyEngine(ResourceLoader resourceLoader,
+                           MeterRegistry meterRegistry,
+                           @Value("${whatsapp.auto-reply.rules:classpath:auto-reply-rules.yml}") String rulesLocation,
+                           @Value("${whatsapp.auto-reply.reload-interval:5s}") Duration reloadInterval,
+                           @Value("${whatsapp.auto-reply.state-ttl:30m}") Duration stateTtl,
+                           @Value("${whatsapp.auto-reply.max-conversations:100000}") int maxConversations) {
+        this.rules = resourceLoader.getResource(rulesLocation);
+        this.stateTtlNanos = stateTtl.toNanos();
+        this.maxConversations = maxConversations;
+        this.matchLatency = Timer.builder("whatsapp.autoreply.match")
+                .description("Time to find the auto-reply rule for an inbound message")
+                .register(meterRegistry);
+        this.replied = meterRegistry.counter("whatsapp.autoreply.messages", "result", "replied");
+        this.unmatched = meterRegistry.counter("whatsapp.autoreply.messages", "result", "unmatched");
+        this.reloadFailures = Counter.builder("whatsapp.autoreply.reload.failures")
+                .description("Rules file changes that could not be loaded")
+                .register(meterRegistry);
+        meterRegistry.gauge("whatsapp.autoreply.rules", this, engine -> engine.ruleSet.size());
+        meterRegistry.gauge("whatsapp.autoreply.conversations", states, Map::size);
+
+        try {
+            loadedVersion = version();
+            ruleSet = load();
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Could not load auto-reply rules from " + rulesLocation, e);
+        }
+        logger.info("Loaded {} auto-reply rules from {}", ruleSet.size(), rulesLocation);
+
+        if (rules.isFile() && !reloadInterval.isZero()) {
+            this.reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "auto-reply-reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long millis = reloadInterval.toMillis();
+            reloader.scheduleWithFixedDelay(this::reloadIfChanged, millis, millis, TimeUnit.MILLISECONDS);
+        } else {
+            this.reloader = null;
+        }
+    }
+
+    /**
+     * Finds the rule that answers {@code text} and moves the conversation to the rule's next
+     * state. A message no rule matches leaves the state unchanged.
+     *
+     * @return the matching rule, whose reply should be sent to {@code phoneNumber}
+     */
+    public Optional<AutoReplyRule> reply(String phoneNumber, String text) {
+        long start = System.nanoTime();
+        AutoReplyRule rule = ruleSet.match(text, currentState(phoneNumber, start));
+        matchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (rule == null) {
+            unmatched.increment();
+            return Optional.empty();
+        }
+        replied.increment();
+        moveTo(phoneNumber, rule.getNextState(), start);
+        return Optional.of(rule);
+    }
+
+    /**
+     * Reloads the rules if the file changed since it was last read. A file that does not load
+     * is reported once and skipped until it changes again.
+     */
+    void reloadIfChanged() {
+        try {
+            long version = version();
+            if (version == loadedVersion) {
+                return;
+            }
+            loadedVersion = version;
+            RuleSet reloaded = load();
+            ruleSet = reloaded;
+            logger.info("Reloaded {} auto-reply rules from {}", reloaded.size(), rules.getDescription());
+        } catch (IOException | RuntimeException e) {
+            reloadFailures.increment();
+            logger.error("Could not reload auto-reply rules from {}, keeping the {} rules in effect",
+                    rules.getDescription(), ruleSet.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    private RuleSet load() throws IOException {
+        Object document;
+        try (InputStream in = rules.getInputStream()) {
+            document = new Yaml(new SafeConstructor(new LoaderOptions())).load(in);
+        }
+        if (!(document instanceof Map<?, ?> root) || !(root.get("rules") instanceof List<?> entries)) {
+            throw new IllegalArgumentException("Expected a top-level 'rules' list");
+        }
+        return new RuleSet(RULES_MAPPER.convertValue(entries, new TypeReference<List<AutoReplyRule>>() {
+        }));
+    }
+
+    private long version() throws IOException {
+        return rules.isFile() ? rules.lastModified() : 0L;
+    }
+
+    private String currentState(String phoneNumber, long now) {
+        ConversationState state = states.get(phoneNumber);
+        if (state == null) {
+            return null;
+        }
+        if (state.expiresAt - now <= 0) {
+            states.remove(phoneNumber, state);
+            return null;
+        }
+        return state.name;
+    }
+
+    private void moveTo(String phoneNumber, String nextState, long now) {
+        if (nextState == null) {
+            states.remove(phoneNumber);
+            return;
+        }
+        if (states.size() >= maxConversations && !states.containsKey(phoneNumber)) {
+            removeExpired(now);
+            if (states.size() >= maxConversations) {
+                logger.warn("{} conversations are in an auto-reply menu, not tracking {}", states.size(), phoneNumber);
+                return;
+            }
+        }
+        states.put(phoneNumber, new ConversationState(nextState, now + stateTtlNanos));
+    }
+
+    private void removeExpired(long now) {
+        Iterator<ConversationState> iterator = states.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt - now <= 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private record ConversationState(String name, long expiresAt) {
+    }
+}
@@ -0,0 +1,32 @@
+package com.jaruratcare.whatsapp.autoreply;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One entry of the auto-reply rules file. Rules are checked in file order and the first one
+ * that matches replies.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AutoReplyRule {
+    private String id;
+    private MatchType match;
+    private List<String> patterns;
+    private String reply;
+    private String state; // Only applies while the conversation is in this state; null for any state
+    @JsonProperty("next-state")
+    private String nextState; // State after replying; null ends the conversation's current menu
+
+    public enum MatchType {
+        @JsonProperty("exact") EXACT, // The whole message, ignoring case and surrounding whitespace
+        @JsonProperty("keyword") KEYWORD, // Any pattern occurring as a whole word
+        @JsonProperty("regex") REGEX, // Any pattern found in the message, case-insensitive
+        @JsonProperty("any") ANY // Every message, e.g. as the last rule of a menu
+    }
+}
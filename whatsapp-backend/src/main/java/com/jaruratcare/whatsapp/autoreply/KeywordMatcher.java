@@ -0,0 +1,136 @@
+package com.jaruratcare.whatsapp.autoreply;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over all keywords of a rule set. One pass over the message finds
+ * every keyword occurring as a whole word, so matching cost depends on the message length and
+ * not on how many keywords there are. Keywords and messages are expected in lower case.
+ */
+final class KeywordMatcher {
+    private static final int[] NONE = new int[0];
+
+    // Per node: sorted edge labels and their target nodes, failure link and the keywords ending here
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] failure;
+    private final int[][] outputRules;
+    private final int[][] outputLengths;
+
+    /**
+     * @param keywords keyword per entry
+     * @param rules    index of the rule each keyword belongs to; lower indexes take precedence
+     */
+    KeywordMatcher(List<String> keywords, List<Integer> rules) {
+        List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        List<int[]> ends = new ArrayList<>();
+        edges.add(new TreeMap<>());
+        ends.add(NONE);
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            int node = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                Integer next = edges.get(node).get(keyword.charAt(i));
+                if (next == null) {
+                    next = edges.size();
+                    edges.add(new TreeMap<>());
+                    ends.add(NONE);
+                    edges.get(node).put(keyword.charAt(i), next);
+                }
+                node = next;
+            }
+            int[] existing = ends.get(node);
+            int[] updated = Arrays.copyOf(existing, existing.length + 1);
+            updated[existing.length] = rules.get(k);
+            ends.set(node, updated);
+        }
+
+        int size = edges.size();
+        labels = new char[size][];
+        targets = new int[size][];
+        failure = new int[size];
+        outputRules = new int[size][];
+        outputLengths = new int[size][];
+        int[] depth = new int[size];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> nodeEdges = edges.get(node);
+            labels[node] = new char[nodeEdges.size()];
+            targets[node] = new int[nodeEdges.size()];
+            int e = 0;
+            for (var edge : nodeEdges.entrySet()) {
+                labels[node][e] = edge.getKey();
+                targets[node][e++] = edge.getValue();
+            }
+        }
+
+        // Breadth first, so a node's failure target already has its complete output list
+        outputRules[0] = NONE;
+        outputLengths[0] = NONE;
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int e = 0; e < labels[node].length; e++) {
+                int child = targets[node][e];
+                depth[child] = depth[node] + 1;
+                failure[child] = node == 0 ? 0 : step(failure[node], labels[node][e]);
+
+                int[] own = ends.get(child);
+                int[] inherited = outputRules[failure[child]];
+                int[] childRules = new int[own.length + inherited.length];
+                int[] childLengths = new int[childRules.length];
+                for (int i = 0; i < own.length; i++) {
+                    childRules[i] = own[i];
+                    childLengths[i] = depth[child];
+                }
+                System.arraycopy(inherited, 0, childRules, own.length, inherited.length);
+                System.arraycopy(outputLengths[failure[child]], 0, childLengths, own.length, inherited.length);
+                outputRules[child] = childRules;
+                outputLengths[child] = childLengths;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return the lowest rule index with a keyword occurring as a whole word in {@code text},
+     * or {@code -1}
+     */
+    int firstMatch(String text) {
+        int best = -1;
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = step(node, text.charAt(i));
+            int[] rules = outputRules[node];
+            for (int o = 0; o < rules.length; o++) {
+                if ((best < 0 || rules[o] < best) && isWord(text, i - outputLengths[node][o] + 1, i + 1)) {
+                    best = rules[o];
+                }
+            }
+        }
+        return best;
+    }
+
+    private int step(int node, char c) {
+        while (true) {
+            int e = Arrays.binarySearch(labels[node], c);
+            if (e >= 0) {
+                return targets[node][e];
+            }
+            if (node == 0) {
+                return 0;
+            }
+            node = failure[node];
+        }
+    }
+
+    private static boolean isWord(String text, int start, int end) {
+        return (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+                && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)));
+    }
+}
@@ -0,0 +1,177 @@
+package com.jaruratcare.whatsapp.autoreply;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Immutable, compiled form of the auto-reply rules. Rules are grouped by the state they apply
+ * in, and each group is compiled into a hash lookup for exact rules, one {@link KeywordMatcher}
+ * for all keyword rules and the regex rules in order, so adding exact or keyword rules does not
+ * slow matching down.
+ * <p>
+ * Regex rules are not compiled together. Each one that could still win is tried in turn, so a
+ * message that no rule matches costs one search per regex pattern. Prefer keyword rules, and
+ * keep regex rules to the few that need one. {@code AutoReplyMatchBenchmark} measures the cost
+ * per regex rule count.
+ */
+final class RuleSet {
+    static final RuleSet EMPTY = new RuleSet(List.of());
+
+    private final List<AutoReplyRule> rules;
+    private final StateRules anyState;
+    private final Map<String, StateRules> byState;
+
+    /**
+     * @throws IllegalArgumentException if a rule is incomplete or a pattern does not compile
+     */
+    RuleSet(List<AutoReplyRule> rules) {
+        this.rules = List.copyOf(rules);
+        Map<String, List<Integer>> grouped = new LinkedHashMap<>();
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < rules.size(); i++) {
+            AutoReplyRule rule = rules.get(i);
+            validate(rule, i);
+            if (!ids.add(rule.getId())) {
+                throw new IllegalArgumentException("Duplicate auto-reply rule id " + rule.getId());
+            }
+            grouped.computeIfAbsent(rule.getState(), state -> new ArrayList<>()).add(i);
+        }
+        this.anyState = new StateRules(this.rules, grouped.getOrDefault(null, List.of()));
+        this.byState = new HashMap<>();
+        grouped.forEach((state, indexes) -> {
+            if (state != null) {
+                byState.put(state, new StateRules(this.rules, indexes));
+            }
+        });
+    }
+
+    int size() {
+        return rules.size();
+    }
+
+    /**
+     * Finds the reply for a message. In a state, that state's rules are checked before the
+     * rules that apply in any state.
+     *
+     * @param state the conversation's current state, may be {@code null}
+     * @return the first matching rule, or {@code null}
+     */
+    AutoReplyRule match(String text, String state) {
+        String normalized = normalize(text);
+        StateRules stateRules = state != null ? byState.get(state) : null;
+        if (stateRules != null) {
+            int index = stateRules.firstMatch(normalized);
+            if (index >= 0) {
+                return rules.get(index);
+            }
+        }
+        int index = anyState.firstMatch(normalized);
+        return index >= 0 ? rules.get(index) : null;
+    }
+
+    /**
+     * Lower case, trimmed, with runs of whitespace collapsed to one space.
+     */
+    static String normalize(String text) {
+        String lower = text.strip().toLowerCase(Locale.ROOT);
+        StringBuilder normalized = new StringBuilder(lower.length());
+        boolean previousSpace = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            boolean space = Character.isWhitespace(c);
+            if (!space) {
+                normalized.append(c);
+            } else if (!previousSpace) {
+                normalized.append(' ');
+            }
+            previousSpace = space;
+        }
+        return normalized.toString();
+    }
+
+    private static void validate(AutoReplyRule rule, int index) {
+        String name = rule.getId() != null ? rule.getId() : "#" + (index + 1);
+        if (rule.getId() == null || rule.getId().isBlank()) {
+            throw new IllegalArgumentException("Auto-reply rule " + name + " has no id");
+        }
+        if (rule.getMatch() == null) {
+            throw new IllegalArgumentException("Auto-reply rule " + name + " has no match type");
+        }
+        if (rule.getReply() == null || rule.getReply().isBlank()) {
+            throw new IllegalArgumentException("Auto-reply rule " + name + " has no reply");
+        }
+        if (rule.getMatch() != AutoReplyRule.MatchType.ANY
+                && (rule.getPatterns() == null || rule.getPatterns().isEmpty()
+                || rule.getPatterns().stream().anyMatch(pattern -> pattern == null || pattern.isBlank()))) {
+            throw new IllegalArgumentException("Auto-reply rule " + name + " needs non-empty patterns");
+        }
+    }
+
+    /**
+     * The rules that apply in one state, compiled. Rule indexes refer to the whole rule list,
+     * so the lowest matching index is the rule that comes first in the file.
+     */
+    private static final class StateRules {
+        private final Map<String, Integer> exact = new HashMap<>();
+        private final KeywordMatcher keywords;
+        private final List<Pattern> regexes = new ArrayList<>();
+        private final List<Integer> regexRules = new ArrayList<>();
+        private int anyRule = -1;
+
+        StateRules(List<AutoReplyRule> rules, List<Integer> indexes) {
+            List<String> keywordPatterns = new ArrayList<>();
+            List<Integer> keywordRules = new ArrayList<>();
+            for (int index : indexes) {
+                AutoReplyRule rule = rules.get(index);
+                switch (rule.getMatch()) {
+                    case EXACT -> rule.getPatterns().forEach(pattern -> exact.putIfAbsent(normalize(pattern), index));
+                    case KEYWORD -> rule.getPatterns().forEach(pattern -> {
+                        keywordPatterns.add(normalize(pattern));
+                        keywordRules.add(index);
+                    });
+                    case REGEX -> rule.getPatterns().forEach(pattern -> {
+                        try {
+                            regexes.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+                        } catch (PatternSyntaxException e) {
+                            throw new IllegalArgumentException("Auto-reply rule " + rule.getId() + " has an invalid regex", e);
+                        }
+                        regexRules.add(index);
+                    });
+                    case ANY -> {
+                        if (anyRule < 0) {
+                            anyRule = index;
+                        }
+                    }
+                }
+            }
+            this.keywords = new KeywordMatcher(keywordPatterns, keywordRules);
+        }
+
+        int firstMatch(String text) {
+            int best = anyRule;
+            Integer exactRule = exact.get(text);
+            if (exactRule != null && (best < 0 || exactRule < best)) {
+                best = exactRule;
+            }
+            int keywordRule = keywords.firstMatch(text);
+            if (keywordRule >= 0 && (best < 0 || keywordRule < best)) {
+                best = keywordRule;
+            }
+            // One search per pattern, in rule order, so we can stop at the first that could not win anymore
+            for (int i = 0; i < regexes.size() && (best < 0 || regexRules.get(i) < best); i++) {
+                if (regexes.get(i).matcher(text).find()) {
+                    best = regexRules.get(i);
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.dto.ForwardedMessage;
+import com.jaruratcare.whatsapp.model.event.InboundMessageEvent;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Calls the owning node of a conversation over the internal cluster endpoints. Requests carry
+ * the shared {@code whatsapp.cluster.secret} and are marked as forwarded, so the receiving
+ * node always handles them itself and never forwards them again.
+ */
+@Component
+public class ClusterClient {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterClient.class);
+
+    public static final String TOKEN_HEADER = "X-Cluster-Token";
+    public static final String FORWARDED_HEADER = "X-Cluster-Forwarded";
+    public static final String INBOUND_PATH = "/internal/cluster/webhook/messages";
+    public static final String STATUS_PATH = "/internal/cluster/webhook/statuses";
+    public static final String MESSAGES_PATH = "/internal/cluster/messages";
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final byte[] secret;
+    private final String self;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+
+    public ClusterClient(ObjectMapper objectMapper,
+                         MeterRegistry meterRegistry,
+                         @Value("${whatsapp.cluster.mode:none}") String mode,
+                         @Value("${whatsapp.cluster.secret:}") String secret,
+                         @Value("${whatsapp.cluster.self:}") String self,
+                         @Value("${whatsapp.cluster.forward-timeout-ms:2000}") long timeoutMillis,
+                         @Value("${whatsapp.dedup.firestore.enabled:false}") boolean storeDedup,
+                         @Value("${whatsapp.store.type:firestore}") String storeType) {
+        if (!"none".equals(mode) && secret.isBlank()) {
+            throw new IllegalStateException("whatsapp.cluster.secret must be set when whatsapp.cluster.mode is " + mode);
+        }
+        // A forward that timed out may still have been handled by the owner, and the event is then
+        // handled here too; only a deduplication claim both nodes see keeps that from replying twice
+        if (!"none".equals(mode) && !storeDedup) {
+            throw new IllegalStateException("whatsapp.dedup.firestore.enabled must be true when whatsapp.cluster.mode is " + mode);
+        }
+        if (!"none".equals(mode) && !"firestore".equals(storeType)) {
+            logger.warn("Deduplication claims in the {} store are not shared between nodes, so events handled again "
+                    + "after a timed-out forward may be processed twice", storeType);
+        }
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.self = self;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        // Peers are plain HTTP inside the cluster, where HTTP/2 upgrade attempts only add latency
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    /**
+     * @return whether {@code token} is the cluster secret; always {@code false} without one
+     */
+    public boolean isAuthorized(String token) {
+        return secret.length > 0 && token != null
+                && MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hands an inbound message to its owner. The returned future completes with {@code false}
+     * if the owner could not be reached or refused it, and never completes exceptionally.
+     */
+    public CompletableFuture<Boolean> forwardInbound(String owner, InboundMessageEvent event) {
+        return post(owner, INBOUND_PATH, event, "inbound");
+    }
+
+    public CompletableFuture<Boolean> forwardStatus(String owner, StatusEvent event) {
+        return post(owner, STATUS_PATH, event, "status");
+    }
+
+    /**
+     * Hands a message recorded on this node, such as a reply sent through it, to its owner.
+     * The returned future never completes exceptionally.
+     */
+    public CompletableFuture<Boolean> forwardMessage(String owner, Message message) {
+        return post(owner, MESSAGES_PATH, ForwardedMessage.of(message), "message");
+    }
+
+    /**
+     * Repeats a read on the owner. The body is handed to {@code bodyHandler} as it arrives, so
+     * long exports are never buffered and event streams stay open without a thread waiting on
+     * them; the timeout only covers the wait for response headers.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> proxyGet(String owner, String pathAndQuery, Map<String, String> headers,
+                                                           HttpResponse.BodyHandler<T> bodyHandler) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(owner + pathAndQuery))
+                .timeout(timeout)
+                .header(TOKEN_HEADER, new String(secret, StandardCharsets.UTF_8))
+                .header(FORWARDED_HEADER, self)
+                .GET();
+        headers.forEach(builder::header);
+        AtomicBoolean responded = new AtomicBoolean();
+        return httpClient.sendAsync(builder.build(), responseInfo -> {
+            responded.set(true);
+            count("read", "success");
+            return bodyHandler.apply(responseInfo);
+        }).whenComplete((response, error) -> {
+            if (error != null && !responded.get()) {
+                count("read", "failure");
+            }
+        });
+    }
+
+    private CompletableFuture<Boolean> post(String owner, String path, Object body, String kind) {
+        HttpRequest request;
+        try {
+            request = postRequest(owner, path, body);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.completedFuture(outcome(owner, kind, null, e));
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> outcome(owner, kind, response, error));
+    }
+
+    private HttpRequest postRequest(String owner, String path, Object body) throws JsonProcessingException {
+        return HttpRequest.newBuilder(URI.create(owner + path))
+                .timeout(timeout)
+                .header(TOKEN_HEADER, new String(secret, StandardCharsets.UTF_8))
+                .header(FORWARDED_HEADER, self)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                .build();
+    }
+
+    private boolean outcome(String owner, String kind, HttpResponse<?> response, Throwable error) {
+        boolean success = error == null && response.statusCode() / 100 == 2;
+        count(kind, success ? "success" : "failure");
+        if (error != null) {
+            logger.warn("Could not forward {} to {}: {}", kind, owner, error.toString());
+        } else if (!success) {
+            logger.warn("Forwarding {} to {} failed with HTTP {}", kind, owner, response.statusCode());
+        }
+        return success;
+    }
+
+    private void count(String kind, String outcome) {
+        meterRegistry.counter("whatsapp.cluster.forwards", "kind", kind, "outcome", outcome).increment();
+    }
+}
@@ -0,0 +1,20 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import java.util.List;
+
+/**
+ * The set of nodes sharing conversations, each identified by the base URL peers reach it at.
+ */
+public interface ClusterMembership {
+
+    /**
+     * @return this node's base URL, as it appears in {@link #members()}
+     */
+    String self();
+
+    /**
+     * @return the live members, sorted; the same list instance is returned until membership
+     *         changes, so callers can cache anything derived from it by identity
+     */
+    List<String> members();
+}
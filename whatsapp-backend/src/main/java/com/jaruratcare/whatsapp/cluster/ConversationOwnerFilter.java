@@ -0,0 +1,175 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import com.jaruratcare.whatsapp.controller.WhatsAppController;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves conversation reads from the node that owns the conversation, since only the owner
+ * has its unflushed messages and (with the local store) its history. Reads arriving at any
+ * other node are proxied to the owner and the response is streamed back as it arrives, without
+ * holding a servlet thread for the life of the response.
+ * <p>
+ * If the owner can't be reached the read is served locally, which may miss that node's
+ * latest messages but keeps history available while membership catches up.
+ */
+@Component
+public class ConversationOwnerFilter extends OncePerRequestFilter {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationOwnerFilter.class);
+    private static final Pattern CONVERSATION_PATH = Pattern.compile("^/messages/([^/]+)(?:/export|/stream)?$");
+    private static final List<String> PROXIED_HEADERS = List.of(
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_DISPOSITION, WhatsAppController.NEXT_CURSOR_HEADER);
+    private static final List<String> FORWARDED_REQUEST_HEADERS = List.of(
+            HttpHeaders.ACCEPT, WhatsAppController.LAST_EVENT_ID_HEADER);
+
+    private final ConversationRouter router;
+    private final ClusterClient clusterClient;
+
+    public ConversationOwnerFilter(ConversationRouter router, ClusterClient clusterClient) {
+        this.router = router;
+        this.clusterClient = clusterClient;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !router.isClustered() || !"GET".equals(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Matcher matcher = CONVERSATION_PATH.matcher(request.getRequestURI().substring(request.getContextPath().length()));
+        if (!matcher.matches()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (request.getHeader(ClusterClient.FORWARDED_HEADER) != null) {
+            // Already routed by a peer, so this node is the owner as far as the cluster knows
+            if (!clusterClient.isAuthorized(request.getHeader(ClusterClient.TOKEN_HEADER))) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String owner = router.remoteOwnerOf(UriUtils.decode(matcher.group(1), StandardCharsets.UTF_8));
+        if (owner == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String pathAndQuery = request.getRequestURI().substring(request.getContextPath().length())
+                + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        Map<String, String> headers = new HashMap<>();
+        for (String name : FORWARDED_REQUEST_HEADERS) {
+            if (request.getHeader(name) != null) {
+                headers.put(name, request.getHeader(name));
+            }
+        }
+
+        // The servlet thread is released here; the body is written from the HTTP client's threads
+        AsyncContext async = request.startAsync();
+        // An event stream stays open for as long as the client is connected
+        async.setTimeout(0);
+        AtomicBoolean responded = new AtomicBoolean();
+        clusterClient.proxyGet(owner, pathAndQuery, headers, responseInfo -> {
+            responded.set(true);
+            response.setStatus(responseInfo.statusCode());
+            for (String name : PROXIED_HEADERS) {
+                responseInfo.headers().firstValue(name).ifPresent(value -> response.setHeader(name, value));
+            }
+            return new ServletBodySubscriber(async);
+        }).whenComplete((proxied, error) -> {
+            if (error == null || responded.get()) {
+                if (error != null) {
+                    // The client went away or the owner ended the stream early; nothing is left to send
+                    logger.debug("Proxied response ended early: {}", error.toString());
+                }
+                async.complete();
+            } else {
+                logger.warn("Owner {} unreachable, serving {} locally: {}", owner, request.getRequestURI(), error.toString());
+                // Async dispatches skip this filter, so the read is handled by this node
+                async.dispatch();
+            }
+        });
+    }
+
+    /**
+     * Writes the owner's response body to the client as it arrives, asking for the next chunk
+     * only once the previous one has been written, so a slow client slows the owner down
+     * instead of piling up in memory.
+     */
+    private static final class ServletBodySubscriber implements HttpResponse.BodySubscriber<Void> {
+        private final AsyncContext async;
+        private final CompletableFuture<Void> body = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+
+        private ServletBodySubscriber(AsyncContext async) {
+            this.async = async;
+        }
+
+        @Override
+        public CompletionStage<Void> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            try {
+                OutputStream out = async.getResponse().getOutputStream();
+                for (ByteBuffer buffer : buffers) {
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    out.write(bytes);
+                }
+                // Flushed per chunk, so exports and event streams reach the client as the owner writes them
+                out.flush();
+                subscription.request(1);
+            } catch (IOException | IllegalStateException e) {
+                // Cancelling closes the connection to the owner, which ends its stream too
+                subscription.cancel();
+                body.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            body.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            body.complete(null);
+        }
+    }
+}
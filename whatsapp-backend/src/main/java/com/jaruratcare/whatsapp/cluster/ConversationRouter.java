@@ -0,0 +1,62 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Decides which node owns a conversation. Conversations are consistently hashed by phone
+ * number onto the {@link ClusterMembership} members, so every node agrees on the owner and
+ * only the owner records, caches and auto-replies to a conversation.
+ * <p>
+ * Without a membership ({@code whatsapp.cluster.mode=none}) every conversation is local.
+ */
+@Component
+public class ConversationRouter {
+
+    private final ClusterMembership membership;
+    private final int virtualNodes;
+    private volatile Ring ring;
+
+    public ConversationRouter(Optional<ClusterMembership> membership,
+                              MeterRegistry meterRegistry,
+                              @Value("${whatsapp.cluster.virtual-nodes:128}") int virtualNodes) {
+        this.membership = membership.orElse(null);
+        this.virtualNodes = virtualNodes;
+        if (this.membership != null) {
+            meterRegistry.gauge("whatsapp.cluster.members", this.membership, m -> m.members().size());
+        }
+    }
+
+    public boolean isClustered() {
+        return membership != null;
+    }
+
+    /**
+     * @return the base URL of the node owning {@code phoneNumber}, or {@code null} if it is
+     *         this node
+     */
+    public String remoteOwnerOf(String phoneNumber) {
+        if (membership == null || phoneNumber == null) {
+            return null;
+        }
+        String owner = ring().ring.ownerOf(phoneNumber);
+        return owner == null || owner.equals(membership.self()) ? null : owner;
+    }
+
+    private Ring ring() {
+        List<String> members = membership.members();
+        Ring current = ring;
+        if (current == null || current.members != members) {
+            current = new Ring(members, new HashRing(members, virtualNodes));
+            ring = current;
+        }
+        return current;
+    }
+
+    private record Ring(List<String> members, HashRing ring) {
+    }
+}
@@ -0,0 +1,121 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.jaruratcare.whatsapp.config.FirestoreProvider;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Membership from leases in the Firestore {@code cluster_members} collection. Each node renews
+ * its own lease every third of {@code whatsapp.cluster.lease.ttl} and reads the unexpired ones,
+ * so nodes join by starting and leave by stopping or missing renewals.
+ * <p>
+ * Until the first renewal succeeds the node sees only itself and handles every conversation;
+ * when Firestore is unreachable the last known members are kept.
+ */
+@Component
+@ConditionalOnProperty(name = "whatsapp.cluster.mode", havingValue = "firestore")
+public class FirestoreLeaseMembership implements ClusterMembership {
+    private static final Logger logger = LoggerFactory.getLogger(FirestoreLeaseMembership.class);
+    private static final String COLLECTION_NAME = "cluster_members";
+
+    private final FirestoreProvider firestoreProvider;
+    private final String self;
+    private final String documentId;
+    private final Duration ttl;
+    private final ScheduledExecutorService heartbeat;
+    private volatile List<String> members;
+
+    public FirestoreLeaseMembership(FirestoreProvider firestoreProvider,
+                                    @Value("${whatsapp.cluster.self}") String self,
+                                    @Value("${whatsapp.cluster.lease.ttl:15s}") Duration ttl) {
+        this.firestoreProvider = firestoreProvider;
+        this.self = StaticClusterMembership.normalize(self);
+        // Document ids may not contain '/'
+        this.documentId = this.self.replace('/', '_');
+        this.ttl = ttl;
+        this.members = List.of(this.self);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, ttl.toMillis() / 3);
+        heartbeat.scheduleWithFixedDelay(this::renew, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String self() {
+        return self;
+    }
+
+    @Override
+    public List<String> members() {
+        return members;
+    }
+
+    void renew() {
+        try {
+            Instant now = Instant.now();
+            CollectionReference collection = collection();
+            collection.document(documentId).set(Map.of(
+                    "url", self,
+                    "expiresAt", timestamp(now.plus(ttl)))).get();
+
+            TreeSet<String> live = new TreeSet<>();
+            live.add(self);
+            for (QueryDocumentSnapshot document : collection.whereGreaterThan("expiresAt", timestamp(now)).get().get().getDocuments()) {
+                String url = document.getString("url");
+                if (url != null) {
+                    live.add(url);
+                }
+            }
+            if (!live.equals(new TreeSet<>(members))) {
+                logger.info("Cluster membership changed: {}", live);
+                members = List.copyOf(live);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Could not renew cluster lease, keeping {} known members: {}", members.size(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        try {
+            // Peers take over this node's conversations right away instead of when the lease expires
+            collection().document(documentId).delete().get(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Could not release cluster lease: {}", e.getMessage());
+        }
+    }
+
+    private CollectionReference collection() {
+        Firestore db = firestoreProvider.get();
+        return db.collection(COLLECTION_NAME);
+    }
+
+    private static Timestamp timestamp(Instant instant) {
+        return Timestamp.ofTimeSecondsAndNanos(instant.getEpochSecond(), instant.getNano());
+    }
+}
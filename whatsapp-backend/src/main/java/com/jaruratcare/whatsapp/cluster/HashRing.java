@@ -0,0 +1,67 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hash ring over the cluster members. Each member is placed at
+ * {@code virtualNodes} points so load stays even, and adding or removing a member only moves
+ * the keys next to its points. Immutable; a new ring is built when membership changes.
+ */
+final class HashRing {
+
+    private final long[] points;
+    private final String[] owners;
+
+    HashRing(List<String> members, int virtualNodes) {
+        long[][] entries = new long[members.size() * virtualNodes][];
+        int n = 0;
+        for (int m = 0; m < members.size(); m++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                entries[n++] = new long[] {hash(members.get(m) + "#" + v), m};
+            }
+        }
+        // Ties (vanishingly rare) are broken by member order, so every node builds the same ring
+        Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[n];
+        this.owners = new String[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = entries[i][0];
+            owners[i] = members.get((int) entries[i][1]);
+        }
+    }
+
+    /**
+     * @return the member owning {@code key}, or {@code null} if the ring is empty
+     */
+    String ownerOf(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes with a MurmurHash3 finalizer, so short keys that
+     * differ only in their last digits still spread across the ring. Stable across JVMs,
+     * unlike {@link String#hashCode()} mixing.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
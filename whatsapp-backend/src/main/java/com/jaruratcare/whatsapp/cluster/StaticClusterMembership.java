@@ -0,0 +1,53 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Membership from the fixed {@code whatsapp.cluster.peers} list, which must be identical on
+ * every node and include this node's own {@code whatsapp.cluster.self} URL.
+ */
+@Component
+@ConditionalOnProperty(name = "whatsapp.cluster.mode", havingValue = "static")
+public class StaticClusterMembership implements ClusterMembership {
+    private static final Logger logger = LoggerFactory.getLogger(StaticClusterMembership.class);
+
+    private final String self;
+    private final List<String> members;
+
+    public StaticClusterMembership(@Value("${whatsapp.cluster.self}") String self,
+                                   @Value("${whatsapp.cluster.peers}") String peers) {
+        this.self = normalize(self);
+        this.members = Arrays.stream(peers.split(","))
+                .map(StaticClusterMembership::normalize)
+                .filter(peer -> !peer.isEmpty())
+                .distinct()
+                .sorted()
+                .toList();
+        if (!members.contains(this.self)) {
+            throw new IllegalStateException("whatsapp.cluster.peers " + members + " does not include this node " + this.self);
+        }
+        logger.info("Cluster membership is static: {} nodes, this node is {}", members.size(), this.self);
+    }
+
+    @Override
+    public String self() {
+        return self;
+    }
+
+    @Override
+    public List<String> members() {
+        return members;
+    }
+
+    static String normalize(String url) {
+        String trimmed = url.strip();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
@@ -0,0 +1,110 @@
+package com.jaruratcare.whatsapp.config;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.cloud.FirestoreClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Initializes Firebase and the Firestore client on first use instead of during startup, so an
+ * instance takes traffic before the credentials are loaded and the gRPC channel is set up.
+ * <p>
+ * Once the application is ready a background thread warms the client up, so the first request
+ * normally doesn't pay for it. A failed initialization is thrown to the caller rather than
+ * logged and ignored, and later calls within {@code retryInterval} fail with the same error
+ * without trying again.
+ */
+public class FirestoreProvider {
+    private static final Logger logger = LoggerFactory.getLogger(FirestoreProvider.class);
+
+    private final String configPath;
+    private final String configJson;
+    private final boolean warmUp;
+    private final long retryIntervalNanos;
+    private volatile Firestore firestore;
+    private IllegalStateException failure;
+    private long failedAt;
+
+    public FirestoreProvider(String configPath, String configJson, boolean warmUp, Duration retryInterval) {
+        this.configPath = configPath;
+        this.configJson = configJson;
+        this.warmUp = warmUp;
+        this.retryIntervalNanos = retryInterval.toNanos();
+    }
+
+    /**
+     * @throws IllegalStateException when Firebase could not be initialized
+     */
+    public Firestore get() {
+        Firestore current = firestore;
+        return current != null ? current : initialize();
+    }
+
+    public boolean isInitialized() {
+        return firestore != null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!warmUp || isInitialized()) {
+            return;
+        }
+        Thread.ofPlatform().name("firestore-warm-up").daemon(true).start(() -> {
+            long start = System.nanoTime();
+            try {
+                get();
+                logger.info("Firestore client ready after {} ms", (System.nanoTime() - start) / 1_000_000);
+            } catch (IllegalStateException e) {
+                logger.warn("Firestore warm-up failed, requests that need it will fail until it is available: {}",
+                        e.getMessage());
+            }
+        });
+    }
+
+    private synchronized Firestore initialize() {
+        if (firestore != null) {
+            return firestore;
+        }
+        if (failure != null && System.nanoTime() - failedAt < retryIntervalNanos) {
+            throw failure;
+        }
+        try {
+            if (FirebaseApp.getApps().isEmpty()) {
+                FirebaseOptions options = FirebaseOptions.builder()
+                        .setCredentials(GoogleCredentials.fromStream(credentials()))
+                        .build();
+                FirebaseApp.initializeApp(options);
+                logger.info("Firebase initialized successfully.");
+            }
+            firestore = FirestoreClient.getFirestore();
+            failure = null;
+            return firestore;
+        } catch (IOException | RuntimeException e) {
+            failure = new IllegalStateException("Firebase is not available. Make sure the service account file "
+                    + "or FIREBASE_CONFIG_JSON is set: " + e.getMessage(), e);
+            failedAt = System.nanoTime();
+            throw failure;
+        }
+    }
+
+    private InputStream credentials() throws IOException {
+        if (configJson != null && !configJson.isEmpty()) {
+            logger.info("Initializing Firebase from FIREBASE_CONFIG_JSON environment variable.");
+            return new ByteArrayInputStream(configJson.getBytes(StandardCharsets.UTF_8));
+        }
+        logger.info("Initializing Firebase from file: {}", configPath);
+        return new ClassPathResource(configPath).getInputStream();
+    }
+}
@@ -1,5 +1,6 @@
 package com.jaruratcare.whatsapp.config;
 
+import com.jaruratcare.whatsapp.controller.WhatsAppController;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
@@ -16,7 +17,8 @@ public class WebConfig {
                 registry.addMapping("/**")
                         .allowedOrigins("*") // In production, you should restrict this to your frontend's domain
                         .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
-                        .allowedHeaders("*");
+                        .allowedHeaders("*")
+                        .exposedHeaders(WhatsAppController.NEXT_CURSOR_HEADER);
             }
         };
     }
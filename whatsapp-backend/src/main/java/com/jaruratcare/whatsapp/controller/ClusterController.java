@@ -0,0 +1,71 @@
+package com.jaruratcare.whatsapp.controller;
+
+import com.jaruratcare.whatsapp.cluster.ClusterClient;
+import com.jaruratcare.whatsapp.cluster.ConversationRouter;
+import com.jaruratcare.whatsapp.model.dto.ForwardedMessage;
+import com.jaruratcare.whatsapp.model.event.InboundMessageEvent;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import com.jaruratcare.whatsapp.service.ConversationService;
+import com.jaruratcare.whatsapp.service.WebhookProcessor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Endpoints peers use to hand events to the node that owns their conversation. Only reachable
+ * with the cluster secret; they don't exist when clustering is off.
+ */
+@RestController
+public class ClusterController {
+
+    private final ConversationRouter router;
+    private final ClusterClient clusterClient;
+    private final WebhookProcessor webhookProcessor;
+    private final ConversationService conversationService;
+
+    public ClusterController(ConversationRouter router, ClusterClient clusterClient,
+                             WebhookProcessor webhookProcessor, ConversationService conversationService) {
+        this.router = router;
+        this.clusterClient = clusterClient;
+        this.webhookProcessor = webhookProcessor;
+        this.conversationService = conversationService;
+    }
+
+    @PostMapping(ClusterClient.INBOUND_PATH)
+    public ResponseEntity<Void> acceptMessage(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) String token,
+                                              @RequestBody InboundMessageEvent event) {
+        authorize(token);
+        // Queued behind earlier events for the conversation; the peer only waits for this
+        webhookProcessor.acceptForwarded(event);
+        return ResponseEntity.accepted().build();
+    }
+
+    @PostMapping(ClusterClient.STATUS_PATH)
+    public ResponseEntity<Void> acceptStatus(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) String token,
+                                             @RequestBody StatusEvent event) {
+        authorize(token);
+        webhookProcessor.acceptForwarded(event);
+        return ResponseEntity.accepted().build();
+    }
+
+    @PostMapping(ClusterClient.MESSAGES_PATH)
+    public ResponseEntity<Void> acceptRecordedMessage(@RequestHeader(value = ClusterClient.TOKEN_HEADER, required = false) String token,
+                                                      @RequestBody ForwardedMessage message) {
+        authorize(token);
+        conversationService.recordLocally(message.toMessage());
+        return ResponseEntity.accepted().build();
+    }
+
+    private void authorize(String token) {
+        if (!router.isClustered()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        if (!clusterClient.isAuthorized(token)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        }
+    }
+}
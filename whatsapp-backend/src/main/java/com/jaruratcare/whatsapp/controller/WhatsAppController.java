@@ -1,36 +1,92 @@
 package com.jaruratcare.whatsapp.controller;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.cloud.Timestamp;
 import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import com.jaruratcare.whatsapp.model.dto.BulkSendJobStatus;
+import com.jaruratcare.whatsapp.model.dto.BulkSendRequest;
 import com.jaruratcare.whatsapp.model.dto.SendMessageRequest;
-import com.jaruratcare.whatsapp.service.FirestoreService;
+import com.jaruratcare.whatsapp.service.BulkSendService;
+import com.jaruratcare.whatsapp.service.ConversationService;
+import com.jaruratcare.whatsapp.service.ConversationStreamService;
+import com.jaruratcare.whatsapp.service.DeliveryStatusTracker;
+import com.jaruratcare.whatsapp.service.OutboundOutbox;
+import com.jaruratcare.whatsapp.service.OutboundScheduler;
+import com.jaruratcare.whatsapp.service.WebhookIngestionService;
 import com.jaruratcare.whatsapp.service.WhatsAppService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.CompositeHealth;
+import org.springframework.boot.actuate.health.HealthComponent;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.DisconnectedClientHelper;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping
 public class WhatsAppController {
 
     private static final Logger logger = LoggerFactory.getLogger(WhatsAppController.class);
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
 
     private final WhatsAppService whatsappService;
-    private final FirestoreService firestoreService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ConversationService conversationService;
+    private final ConversationStreamService conversationStreamService;
+    private final DeliveryStatusTracker deliveryTracker;
+    private final OutboundOutbox outbox;
+    private final WebhookIngestionService webhookIngestionService;
+    private final BulkSendService bulkSendService;
+    private final ObjectMapper objectMapper;
+    private final HealthEndpoint healthEndpoint;
 
-    public WhatsAppController(WhatsAppService whatsappService, FirestoreService firestoreService) {
+    @Value("${whatsapp.messages.default-page-size:50}")
+    private int defaultPageSize;
+
+    @Value("${whatsapp.messages.max-page-size:500}")
+    private int maxPageSize;
+
+    @Value("${whatsapp.bulk.max-messages-per-job:10000}")
+    private int maxBulkMessages;
+
+    public WhatsAppController(WhatsAppService whatsappService, ConversationService conversationService,
+                              ConversationStreamService conversationStreamService,
+                              DeliveryStatusTracker deliveryTracker, OutboundOutbox outbox,
+                              WebhookIngestionService webhookIngestionService, BulkSendService bulkSendService,
+                              ObjectMapper objectMapper, HealthEndpoint healthEndpoint) {
         this.whatsappService = whatsappService;
-        this.firestoreService = firestoreService;
+        this.conversationService = conversationService;
+        this.conversationStreamService = conversationStreamService;
+        this.deliveryTracker = deliveryTracker;
+        this.outbox = outbox;
+        this.webhookIngestionService = webhookIngestionService;
+        this.bulkSendService = bulkSendService;
+        this.objectMapper = objectMapper;
+        this.healthEndpoint = healthEndpoint;
     }
 
     @GetMapping("/")
@@ -42,8 +98,13 @@ public class WhatsAppController {
         info.put("timestamp", new java.util.Date());
         info.put("endpoints", Map.of(
             "health", "/health",
+            "metrics", "/actuator/prometheus",
             "webhook", "/webhook",
             "send_message", "/send",
+            "send_bulk", "/send/bulk",
+            "messages", "/messages/{phoneNumber}",
+            "export_messages", "/messages/{phoneNumber}/export",
+            "stream_messages", "/messages/{phoneNumber}/stream",
             "swagger_ui", "/swagger-ui.html",
             "api_docs", "/api-docs"
         ));
@@ -52,21 +113,20 @@ public class WhatsAppController {
 
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> healthCheck() {
+        // Liveness only: Firestore and Graph API outages are ridden out by the webhook queue and the
+        // outbox, so they must not take the instance out of rotation (see /actuator/health/dependencies)
+        HealthComponent result = healthEndpoint.healthForPath("liveness");
         Map<String, Object> health = new HashMap<>();
-        health.put("status", "UP");
+        health.put("status", result.getStatus().getCode());
         health.put("timestamp", new java.util.Date());
         health.put("service", "WhatsApp Business API");
         health.put("version", "1.0.0");
-        
-        // Check if WhatsApp service is configured
-        try {
-            health.put("whatsapp_configured", whatsappService != null);
-        } catch (Exception e) {
-            health.put("whatsapp_configured", false);
-            health.put("whatsapp_error", e.getMessage());
+        if (result instanceof CompositeHealth composite) {
+            health.put("components", composite.getComponents());
         }
-        
-        return ResponseEntity.ok(health);
+
+        HttpStatus httpStatus = Status.UP.equals(result.getStatus()) ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(httpStatus).body(health);
     }
 
     @GetMapping("/debug/webhook-status")
@@ -104,7 +164,7 @@ public class WhatsAppController {
             @RequestParam("hub.verify_token") String token,
             @RequestParam("hub.challenge") String challenge) {
         
-        logger.info("Webhook verification request received: mode={}, token={}", mode, token);
+        logger.info("Webhook verification request received: mode={}", mode);
         if (whatsappService.verifyWebhook(mode, token, challenge)) {
             logger.info("Webhook verification successful.");
             return ResponseEntity.ok(challenge);
@@ -115,120 +175,208 @@ public class WhatsAppController {
     }
 
     @PostMapping("/webhook")
-    public ResponseEntity<Void> handleWebhookNotification(@RequestBody String payload) {
-        logger.info("=== WEBHOOK RECEIVED ===");
-        logger.info("Received webhook payload: {}", payload);
-        
-        try {
-            JsonNode root = objectMapper.readTree(payload);
-            
-            // Log the structure of the payload
-            logger.info("=== PAYLOAD STRUCTURE ===");
-            logger.info("Root object: {}", root.getNodeType());
-            if (root.has("object")) {
-                logger.info("Object type: {}", root.get("object").asText());
-            }
-            if (root.has("entry")) {
-                JsonNode entry = root.get("entry");
-                logger.info("Entry array size: {}", entry.size());
-                if (entry.size() > 0) {
-                    JsonNode firstEntry = entry.get(0);
-                    logger.info("First entry ID: {}", firstEntry.has("id") ? firstEntry.get("id").asText() : "No ID");
-                    if (firstEntry.has("changes")) {
-                        JsonNode changes = firstEntry.get("changes");
-                        logger.info("Changes array size: {}", changes.size());
-                        if (changes.size() > 0) {
-                            JsonNode firstChange = changes.get(0);
-                            logger.info("First change field: {}", firstChange.has("field") ? firstChange.get("field").asText() : "No field");
-                            if (firstChange.has("value")) {
-                                JsonNode value = firstChange.get("value");
-                                logger.info("Value fields: {}", value.fieldNames());
-                            }
-                        }
-                    }
-                }
-            }
-            logger.info("=========================");
-            
-            // Check for incoming messages
-            Optional<JsonNode> messageNode = findMessageNode(root);
-            if (messageNode.isPresent()) {
-                String from = messageNode.get().get("from").asText();
-                String text = messageNode.get().get("text").get("body").asText();
-
-                logger.info("=== INCOMING MESSAGE ===");
-                logger.info("From: {}", from);
-                logger.info("Text: {}", text);
-                logger.info("========================");
-
-                // Save incoming message to Firebase
-                Message inboundMessage = new Message(null, from, text, Timestamp.now(), Message.MessageDirection.INBOUND);
-                firestoreService.saveMessage(inboundMessage);
-                
-                // Only respond to "hey" message
-                if (text.toLowerCase().trim().equals("hey")) {
-                    logger.info("Sending welcome response to: {}", from);
-                    whatsappService.sendMessage(from, "Hi welcome to JaruratCare.");
-                } else {
-                    logger.info("No response sent - message was not 'hey'");
-                }
-            } else {
-                // Check for status updates
-                Optional<JsonNode> statusNode = findStatusNode(root);
-                if (statusNode.isPresent()) {
-                    String status = statusNode.get().get("status").asText();
-                    String messageId = statusNode.get().get("id").asText();
-                    String recipientId = statusNode.get().get("recipient_id").asText();
-                    
-                    logger.info("=== MESSAGE STATUS UPDATE ===");
-                    logger.info("Message ID: {}", messageId);
-                    logger.info("Status: {}", status);
-                    logger.info("Recipient: {}", recipientId);
-                    logger.info("=============================");
-                } else {
-                    logger.info("No message or status found in webhook payload");
-                    logger.info("Available fields: {}", root.fieldNames());
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error processing webhook payload", e);
+    public ResponseEntity<Void> handleWebhookNotification(@RequestBody(required = false) String payload) {
+        // Only a cheap sanity check here; parsing happens on the ingestion workers
+        if (payload == null || payload.isBlank() || payload.stripLeading().charAt(0) != '{') {
+            logger.warn("Rejecting webhook notification with a malformed payload");
+            return ResponseEntity.badRequest().build();
+        }
+        if (!webhookIngestionService.submit(payload)) {
+            // Meta redelivers on non-2xx responses, so shed load instead of blocking
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         }
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Sends a message, answering once the first attempt completed: 200 when WhatsApp accepted
+     * it, 202 when it failed transiently and stays queued in the outbox for another attempt.
+     */
     @PostMapping("/send")
-    public ResponseEntity<String> sendMessage(@RequestBody SendMessageRequest request) {
-        try {
-            boolean success = whatsappService.sendMessage(request.getTo(), request.getText());
-            if (success) {
-                // Save message to Firebase
-                Message outboundMessage = new Message(null, request.getTo(), request.getText(), Timestamp.now(), Message.MessageDirection.OUTBOUND);
-                firestoreService.saveMessage(outboundMessage);
-                return ResponseEntity.ok("Message sent successfully.");
-            } else {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to send message to WhatsApp API.");
+    public CompletableFuture<ResponseEntity<String>> sendMessage(@RequestBody SendMessageRequest request) {
+        // Completed asynchronously, so no servlet thread waits on the Graph API
+        OutboundOutbox.Delivery delivery = outbox.submit(request.getTo(), request.getText(), OutboundScheduler.Priority.INTERACTIVE);
+        return delivery.firstAttempt()
+                .thenApply(result -> {
+                    if (result.isSuccess()) {
+                        return ResponseEntity.ok("Message sent successfully.");
+                    } else if (delivery.isRetrying()) {
+                        return ResponseEntity.status(HttpStatus.ACCEPTED).body("Message queued for retry: " + delivery.id());
+                    } else {
+                        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to send message to WhatsApp API.");
+                    }
+                })
+                .exceptionally(e -> {
+                    logger.error("Error sending message via API", e);
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to send message: " + e.getMessage());
+                });
+    }
+
+    @PostMapping("/send/bulk")
+    public ResponseEntity<Map<String, Object>> sendBulk(@RequestBody BulkSendRequest request) {
+        List<SendMessageRequest> messages = new ArrayList<>();
+        if (request.getMessages() != null) {
+            messages.addAll(request.getMessages());
+        }
+        if (request.getTemplate() != null && request.getRecipients() != null) {
+            for (String recipient : request.getRecipients()) {
+                SendMessageRequest message = new SendMessageRequest();
+                message.setTo(recipient);
+                message.setText(request.getTemplate());
+                messages.add(message);
             }
-        } catch (Exception e) {
-            logger.error("Error sending message via API", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to send message: " + e.getMessage());
         }
+        if (messages.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Provide messages, or a template and recipients");
+        }
+        if (messages.size() > maxBulkMessages) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A bulk job may contain at most " + maxBulkMessages + " messages");
+        }
+
+        String jobId = bulkSendService.submit(messages);
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobId", jobId);
+        response.put("total", messages.size());
+        response.put("statusUrl", "/send/bulk/" + jobId);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+    }
+
+    @GetMapping("/send/bulk/{jobId}")
+    public ResponseEntity<BulkSendJobStatus> getBulkSendStatus(@PathVariable String jobId) {
+        BulkSendJobStatus status = bulkSendService.getStatus(jobId);
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status);
     }
 
     @GetMapping("/messages/{phoneNumber}")
-    public ResponseEntity<List<Message>> getMessages(@PathVariable String phoneNumber) {
-        List<Message> messages = firestoreService.getMessagesByPhoneNumber(phoneNumber);
-        return ResponseEntity.ok(messages);
+    public ResponseEntity<List<Message>> getMessages(
+            @PathVariable String phoneNumber,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String startAfter,
+            @RequestParam(required = false) String since) {
+        if (limit == null && startAfter == null && since == null) {
+            List<Message> messages = conversationService.getMessages(phoneNumber);
+            return ResponseEntity.ok(messages);
+        }
+
+        int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+        MessagePage page;
+        try {
+            page = conversationService.getMessagesPage(phoneNumber, parseSince(since),
+                    startAfter != null ? MessageCursor.decode(startAfter) : null, pageSize);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            logger.error("Error retrieving page of messages for {}", phoneNumber, e);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Messages are temporarily unavailable");
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getMessages());
+    }
+
+    @GetMapping(value = "/messages/{phoneNumber}/export", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportMessages(@PathVariable String phoneNumber) {
+        // Each page is written and flushed to the socket as soon as it is read
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                conversationService.exportMessages(phoneNumber, maxPageSize, page -> {
+                    try {
+                        for (Message message : page) {
+                            writer.writeValue(generator, message);
+                        }
+                        generator.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Pushes new messages and delivery statuses of a conversation as Server-Sent Events. A
+     * reconnecting client resumes after its {@code Last-Event-ID}; {@code since} replays
+     * messages newer than a timestamp on the first connect.
+     */
+    @GetMapping(value = "/messages/{phoneNumber}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamMessages(
+            @PathVariable String phoneNumber,
+            @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId,
+            @RequestParam(required = false) String since) {
+        MessageCursor startAfter;
+        Timestamp sinceTimestamp;
+        try {
+            startAfter = lastEventId != null && !lastEventId.isBlank() ? MessageCursor.decode(lastEventId) : null;
+            sinceTimestamp = startAfter == null ? parseSince(since) : null;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        SseEmitter emitter = conversationStreamService.open(phoneNumber, startAfter, sinceTimestamp);
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many open streams");
+        }
+        return emitter;
+    }
+
+    /**
+     * Lists outbound messages in the given delivery statuses, by default those not delivered
+     * yet or failed, oldest first. {@code olderThan} (e.g. {@code 10m}) leaves out messages sent
+     * more recently.
+     */
+    @GetMapping("/deliveries/undelivered")
+    public ResponseEntity<List<Message>> getUndelivered(
+            @RequestParam(required = false) List<Message.DeliveryStatus> status,
+            @RequestParam(required = false) Duration olderThan,
+            @RequestParam(required = false) Integer limit) {
+        List<Message.DeliveryStatus> statuses = status != null && !status.isEmpty()
+                ? status
+                : List.of(Message.DeliveryStatus.ACCEPTED, Message.DeliveryStatus.SENT, Message.DeliveryStatus.FAILED);
+        int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+        Instant sentBefore = olderThan != null ? Instant.now().minus(olderThan) : null;
+        try {
+            return ResponseEntity.ok(deliveryTracker.find(statuses, sentBefore, pageSize));
+        } catch (IllegalStateException e) {
+            logger.error("Error retrieving undelivered messages", e);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Messages are temporarily unavailable");
+        }
     }
 
-    private Optional<JsonNode> findMessageNode(JsonNode root) {
-        return Optional.ofNullable(root)
-                .map(r -> r.at("/entry/0/changes/0/value/messages/0"))
-                .filter(node -> !node.isMissingNode());
+    /**
+     * Streams and exports write after the handler returned, so a client that goes away surfaces
+     * here; there is nobody left to respond to.
+     */
+    @ExceptionHandler(IOException.class)
+    public void handleDisconnectedClient(IOException e) throws IOException {
+        if (!DisconnectedClientHelper.isClientDisconnectedException(e)) {
+            throw e;
+        }
+        logger.debug("Client disconnected: {}", e.getMessage());
     }
 
-    private Optional<JsonNode> findStatusNode(JsonNode root) {
-        return Optional.ofNullable(root)
-                .map(r -> r.at("/entry/0/changes/0/value/statuses/0"))
-                .filter(node -> !node.isMissingNode());
+    /**
+     * Accepts epoch milliseconds or an ISO-8601 instant.
+     */
+    private static Timestamp parseSince(String since) {
+        if (since == null || since.isBlank()) {
+            return null;
+        }
+        try {
+            Instant instant = since.chars().allMatch(Character::isDigit)
+                    ? Instant.ofEpochMilli(Long.parseLong(since))
+                    : Instant.parse(since);
+            return Timestamp.ofTimeSecondsAndNanos(instant.getEpochSecond(), instant.getNano());
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid since timestamp: " + since, e);
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package com.jaruratcare.whatsapp.health;
+
+import com.jaruratcare.whatsapp.service.FirestoreService;
+import com.jaruratcare.whatsapp.service.MessageWriteBehindService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reports Firestore as down when a one-document read fails or exceeds
+ * {@code whatsapp.health.timeout-ms}, for example when the service account is missing or
+ * rejected.
+ */
+@Component
+@ConditionalOnProperty(name = "whatsapp.store.type", havingValue = "firestore", matchIfMissing = true)
+public class FirestoreHealthIndicator implements HealthIndicator {
+
+    private final FirestoreService firestoreService;
+    private final MessageWriteBehindService writeBehindService;
+    private final long timeoutMillis;
+
+    public FirestoreHealthIndicator(FirestoreService firestoreService,
+                                    MessageWriteBehindService writeBehindService,
+                                    @Value("${whatsapp.health.timeout-ms:3000}") long timeoutMillis) {
+        this.firestoreService = firestoreService;
+        this.writeBehindService = writeBehindService;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Health health() {
+        long start = System.nanoTime();
+        Health.Builder builder;
+        try {
+            firestoreService.ping(timeoutMillis);
+            builder = Health.up();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            builder = Health.down(e);
+        } catch (TimeoutException e) {
+            builder = Health.down().withDetail("error", "No response within " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            builder = Health.down(e.getCause() instanceof Exception cause ? cause : e);
+        } catch (RuntimeException e) {
+            builder = Health.down(e);
+        }
+        return builder
+                .withDetail("latencyMs", (System.nanoTime() - start) / 1_000_000)
+                .withDetail("pendingWrites", writeBehindService.getPendingCount())
+                .build();
+    }
+}
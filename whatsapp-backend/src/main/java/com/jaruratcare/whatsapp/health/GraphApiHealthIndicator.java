@@ -0,0 +1,60 @@
+package com.jaruratcare.whatsapp.health;
+
+import com.jaruratcare.whatsapp.service.GraphApiClient;
+import com.jaruratcare.whatsapp.service.OutboundScheduler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Probes the WhatsApp Cloud API with a read of our phone number, so an expired access token or
+ * a network problem shows up before the next send fails. Also reports the outbound queue depth.
+ */
+@Component
+public class GraphApiHealthIndicator implements HealthIndicator {
+
+    private final GraphApiClient graphApiClient;
+    private final OutboundScheduler outboundScheduler;
+    private final long timeoutMillis;
+
+    public GraphApiHealthIndicator(GraphApiClient graphApiClient,
+                                   OutboundScheduler outboundScheduler,
+                                   @Value("${whatsapp.health.timeout-ms:3000}") long timeoutMillis) {
+        this.graphApiClient = graphApiClient;
+        this.outboundScheduler = outboundScheduler;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Health health() {
+        long start = System.nanoTime();
+        Health.Builder builder;
+        try {
+            int status = graphApiClient.probe().get(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (status >= 200 && status < 300) {
+                builder = Health.up();
+            } else if (status == 401 || status == 403) {
+                builder = Health.down().withDetail("error", "Access token rejected");
+            } else {
+                builder = Health.down();
+            }
+            builder.withDetail("status", status);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            builder = Health.down(e);
+        } catch (TimeoutException e) {
+            builder = Health.down().withDetail("error", "No response within " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            builder = Health.down(e.getCause() instanceof Exception cause ? cause : e);
+        }
+        return builder
+                .withDetail("latencyMs", (System.nanoTime() - start) / 1_000_000)
+                .withDetail("queueDepth", outboundScheduler.getQueueDepth())
+                .build();
+    }
+}
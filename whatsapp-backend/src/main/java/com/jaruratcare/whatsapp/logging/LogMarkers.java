@@ -0,0 +1,16 @@
+package com.jaruratcare.whatsapp.logging;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+public final class LogMarkers {
+
+    /**
+     * Marks high-volume INFO/DEBUG statements that {@link SamplingTurboFilter} may thin out to
+     * one in {@code whatsapp.logging.sample-rate} per call site.
+     */
+    public static final Marker SAMPLED = MarkerFactory.getMarker("SAMPLED");
+
+    private LogMarkers() {
+    }
+}
@@ -0,0 +1,97 @@
+package com.jaruratcare.whatsapp.logging;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Masks phone numbers and access tokens in log output.
+ * <p>
+ * Phone numbers are standalone runs of 10 to 15 digits, as WhatsApp ids and E.164 numbers are;
+ * all but the last four digits are replaced. Bearer tokens, {@code token=...}/{@code "token":...}
+ * values and Meta access tokens ({@code EAA...}) are replaced entirely. Text without anything to
+ * mask is returned as is, without copying.
+ */
+public final class LogRedactor {
+    private static final int MIN_PHONE_DIGITS = 10;
+    private static final int MAX_PHONE_DIGITS = 15;
+    private static final int VISIBLE_PHONE_DIGITS = 4;
+    private static final String REDACTED = "[REDACTED]";
+    private static final Pattern TOKEN = Pattern.compile(
+            "(?i)(bearer\\s+|token[\"']?\\s*[=:]\\s*[\"']?)[^\\s\"'&,;]+|\\bEAA[A-Za-z0-9]{20,}");
+
+    private LogRedactor() {
+    }
+
+    public static String redact(String text) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        String masked = maskPhoneNumbers(text);
+        return mayContainToken(masked) ? maskTokens(masked) : masked;
+    }
+
+    static String maskPhoneNumbers(String text) {
+        StringBuilder out = null;
+        int copied = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!isDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+            }
+            int digits = i - start;
+            // Digits inside identifiers such as wamid.HBgM... are left alone
+            boolean standalone = (start == 0 || !Character.isLetter(text.charAt(start - 1)))
+                    && (i == length || !Character.isLetter(text.charAt(i)));
+            if (standalone && digits >= MIN_PHONE_DIGITS && digits <= MAX_PHONE_DIGITS) {
+                if (out == null) {
+                    out = new StringBuilder(length);
+                }
+                out.append(text, copied, start);
+                for (int d = VISIBLE_PHONE_DIGITS; d < digits; d++) {
+                    out.append('*');
+                }
+                out.append(text, i - VISIBLE_PHONE_DIGITS, i);
+                copied = i;
+            }
+        }
+        return out == null ? text : out.append(text, copied, length).toString();
+    }
+
+    private static String maskTokens(String text) {
+        Matcher matcher = TOKEN.matcher(text);
+        if (!matcher.find()) {
+            return text;
+        }
+        StringBuilder out = new StringBuilder(text.length());
+        do {
+            String prefix = matcher.group(1);
+            matcher.appendReplacement(out, "");
+            out.append(prefix != null ? prefix : "").append(REDACTED);
+        } while (matcher.find());
+        matcher.appendTail(out);
+        return out.toString();
+    }
+
+    private static boolean mayContainToken(String text) {
+        return text.contains("EAA") || containsIgnoreCase(text, "token") || containsIgnoreCase(text, "bearer");
+    }
+
+    private static boolean containsIgnoreCase(String text, String word) {
+        for (int i = 0, last = text.length() - word.length(); i <= last; i++) {
+            if (text.regionMatches(true, i, word, 0, word.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,16 @@
+package com.jaruratcare.whatsapp.logging;
+
+import ch.qos.logback.classic.pattern.MessageConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * {@code %redactedMessage} for the text log pattern: the formatted message passed through
+ * {@link LogRedactor}.
+ */
+public class RedactingMessageConverter extends MessageConverter {
+
+    @Override
+    public String convert(ILoggingEvent event) {
+        return LogRedactor.redact(event.getFormattedMessage());
+    }
+}
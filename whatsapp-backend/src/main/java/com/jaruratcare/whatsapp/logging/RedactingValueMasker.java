@@ -0,0 +1,21 @@
+package com.jaruratcare.whatsapp.logging;
+
+import com.fasterxml.jackson.core.JsonStreamContext;
+import net.logstash.logback.mask.ValueMasker;
+
+/**
+ * Applies {@link LogRedactor} to every string value the JSON encoder writes, including the
+ * message and stack trace fields.
+ */
+public class RedactingValueMasker implements ValueMasker {
+
+    @Override
+    public Object mask(JsonStreamContext context, Object value) {
+        if (value instanceof String text) {
+            String redacted = LogRedactor.redact(text);
+            // null leaves the value unchanged
+            return redacted != text ? redacted : null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,40 @@
+package com.jaruratcare.whatsapp.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs one in {@code rate} events marked {@link LogMarkers#SAMPLED}, counted separately for each
+ * message format so every kind of event stays visible. Runs before the event is created, so
+ * sampled-out calls cost a map lookup and no formatting. WARN and above are never sampled.
+ */
+public class SamplingTurboFilter extends TurboFilter {
+
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private volatile int rate = 1;
+
+    public void setRate(int rate) {
+        this.rate = Math.max(1, rate);
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        int sampleRate = rate;
+        if (sampleRate == 1 || format == null || marker == null || level.isGreaterOrEqual(Level.WARN)
+                || !(marker == LogMarkers.SAMPLED || marker.contains(LogMarkers.SAMPLED))) {
+            return FilterReply.NEUTRAL;
+        }
+        AtomicLong counter = counters.computeIfAbsent(format, key -> new AtomicLong());
+        return counter.getAndIncrement() % sampleRate == 0 ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+}
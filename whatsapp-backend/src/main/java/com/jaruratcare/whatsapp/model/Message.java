@@ -14,8 +14,59 @@ public class Message {
     private String content;
     private Timestamp timestamp;
     private MessageDirection direction; // INBOUND or OUTBOUND
+    private String waMessageId; // wamid the Graph API returned for an outbound message
+    private DeliveryStatus deliveryStatus; // Only set for outbound messages
+    private Timestamp statusUpdatedAt; // When WhatsApp reported the current delivery status
+    private String deliveryError; // Why delivery failed, if it did
+
+    public Message(String id, String phoneNumber, String content, Timestamp timestamp, MessageDirection direction) {
+        this(id, phoneNumber, content, timestamp, direction, null, null, null, null);
+    }
+
+    /**
+     * An outbound message the Graph API just accepted, awaiting delivery status webhooks.
+     */
+    public static Message sent(String phoneNumber, String content, String waMessageId) {
+        return new Message(null, phoneNumber, content, Timestamp.now(), MessageDirection.OUTBOUND,
+                waMessageId, DeliveryStatus.ACCEPTED, null, null);
+    }
 
     public enum MessageDirection {
         INBOUND, OUTBOUND
     }
-} 
\ No newline at end of file
+
+    /**
+     * Declared in delivery order. A message only ever moves to a later status, so webhooks
+     * that arrive out of order can't move it back.
+     */
+    public enum DeliveryStatus {
+        ACCEPTED, SENT, DELIVERED, READ, FAILED;
+
+        /**
+         * @return the status for a webhook {@code status} value, or {@code null} if unknown
+         */
+        public static DeliveryStatus fromWebhook(String status) {
+            if (status == null) {
+                return null;
+            }
+            return switch (status) {
+                case "sent" -> SENT;
+                case "delivered" -> DELIVERED;
+                case "read" -> READ;
+                case "failed" -> FAILED;
+                default -> null;
+            };
+        }
+
+        public boolean isAfter(DeliveryStatus other) {
+            return other == null || ordinal() > other.ordinal();
+        }
+
+        /**
+         * @return whether the message has not reached the recipient's device yet
+         */
+        public boolean isPending() {
+            return this == ACCEPTED || this == SENT;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.jaruratcare.whatsapp.model;
+
+import com.google.cloud.Timestamp;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * Position in a conversation ordered by timestamp, then message id. Clients only ever see
+ * the opaque {@link #encode() encoded} form returned with a page of messages.
+ */
+@Data
+@AllArgsConstructor
+public class MessageCursor {
+    public static final Comparator<Message> ORDER = Comparator
+            .comparing(Message::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(Message::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private Timestamp timestamp;
+    private String messageId;
+
+    public static MessageCursor of(Message message) {
+        return new MessageCursor(message.getTimestamp(), message.getId());
+    }
+
+    public String encode() {
+        String raw = timestamp.getSeconds() + ":" + timestamp.getNanos() + ":" + messageId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value was not produced by {@link #encode()}
+     */
+    public static MessageCursor decode(String value) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 3);
+            if (parts.length != 3 || parts[2].isEmpty()) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            return new MessageCursor(
+                    Timestamp.ofTimeSecondsAndNanos(Long.parseLong(parts[0]), Integer.parseInt(parts[1])), parts[2]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + value, e);
+        }
+    }
+
+    /**
+     * @return whether the message sorts strictly after this cursor
+     */
+    public boolean isBefore(Message message) {
+        return ORDER.compare(message, new Message(messageId, null, null, timestamp, null)) > 0;
+    }
+}
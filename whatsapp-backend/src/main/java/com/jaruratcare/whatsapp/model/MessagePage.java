@@ -0,0 +1,13 @@
+package com.jaruratcare.whatsapp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class MessagePage {
+    private List<Message> messages;
+    private String nextCursor; // null when there are no further messages
+}
@@ -0,0 +1,32 @@
+package com.jaruratcare.whatsapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkSendJobStatus {
+    private String jobId;
+    private String state; // RUNNING or COMPLETED
+    private int total;
+    private int sent;
+    private int failed;
+    private int pending;
+    private Instant startedAt;
+    private Instant completedAt;
+    private double messagesPerSecond;
+    private List<Failure> failures; // First failures only, see whatsapp.bulk.max-reported-failures
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Failure {
+        private String to;
+        private String error;
+    }
+}
@@ -0,0 +1,16 @@
+package com.jaruratcare.whatsapp.model.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Either an explicit list of {@link #messages}, or one {@link #template} text sent to every
+ * number in {@link #recipients}.
+ */
+@Data
+public class BulkSendRequest {
+    private List<SendMessageRequest> messages;
+    private String template;
+    private List<String> recipients;
+}
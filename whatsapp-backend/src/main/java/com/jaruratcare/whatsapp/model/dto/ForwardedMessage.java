@@ -0,0 +1,37 @@
+package com.jaruratcare.whatsapp.model.dto;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A {@link Message} handed to the node that owns its conversation. The timestamp is split
+ * into seconds and nanos because {@link Timestamp} can't be read back by Jackson.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ForwardedMessage {
+    private String id;
+    private String phoneNumber;
+    private String content;
+    private long seconds;
+    private int nanos;
+    private Message.MessageDirection direction;
+    private String waMessageId;
+    private Message.DeliveryStatus deliveryStatus;
+
+    public static ForwardedMessage of(Message message) {
+        Timestamp timestamp = message.getTimestamp() != null ? message.getTimestamp() : Timestamp.now();
+        return new ForwardedMessage(message.getId(), message.getPhoneNumber(), message.getContent(),
+                timestamp.getSeconds(), timestamp.getNanos(), message.getDirection(),
+                message.getWaMessageId(), message.getDeliveryStatus());
+    }
+
+    public Message toMessage() {
+        return new Message(id, phoneNumber, content, Timestamp.ofTimeSecondsAndNanos(seconds, nanos), direction,
+                waMessageId, deliveryStatus, null, null);
+    }
+}
@@ -0,0 +1,29 @@
+package com.jaruratcare.whatsapp.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of one call to the WhatsApp Cloud API messages endpoint.
+ */
+@Data
+@AllArgsConstructor
+public class SendResult {
+    private boolean success;
+    private int statusCode; // HTTP status, 0 if no response was received
+    private String messageId; // wamid returned by the Graph API on success
+    private String error;
+    private Integer errorCode; // Graph API error.code from the response body, if there was one
+
+    public static SendResult sent(int statusCode, String messageId) {
+        return new SendResult(true, statusCode, messageId, null, null);
+    }
+
+    public static SendResult failed(int statusCode, String error) {
+        return failed(statusCode, null, error);
+    }
+
+    public static SendResult failed(int statusCode, Integer errorCode, String error) {
+        return new SendResult(false, statusCode, null, error, errorCode);
+    }
+}
@@ -0,0 +1,17 @@
+package com.jaruratcare.whatsapp.model.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InboundMessageEvent {
+    private String messageId; // WhatsApp message id (wamid)
+    private String phoneNumberId; // Our business phone number that received the message
+    private String from; // The end-user's phone number
+    private String type; // text, image, interactive, ...
+    private String text; // Only set for text messages
+    private long timestamp; // Epoch seconds as reported by WhatsApp
+}
@@ -0,0 +1,18 @@
+package com.jaruratcare.whatsapp.model.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatusEvent {
+    private String messageId; // wamid of the outbound message this status refers to
+    private String phoneNumberId;
+    private String recipientId;
+    private String status; // sent, delivered, read or failed
+    private long timestamp; // Epoch seconds as reported by WhatsApp
+    private Integer errorCode; // Only set for failed deliveries
+    private String errorTitle;
+}
@@ -0,0 +1,163 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.model.dto.BulkSendJobStatus;
+import com.jaruratcare.whatsapp.model.dto.SendMessageRequest;
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs broadcast jobs in the background. Each job fans its sends out through the
+ * {@link OutboundOutbox} at {@link OutboundScheduler.Priority#BULK} priority, with at most
+ * {@code whatsapp.bulk.max-concurrency} first attempts in flight across all jobs. A send
+ * counts as sent or failed once the outbox has sent or dead-lettered it, so sends retried by
+ * the outbox keep their job pending meanwhile.
+ */
+@Service
+public class BulkSendService {
+    private static final Logger logger = LoggerFactory.getLogger(BulkSendService.class);
+
+    private final OutboundOutbox outbox;
+    private final Semaphore inFlight;
+    private final int maxReportedFailures;
+    private final ExecutorService coordinators;
+    private final Map<String, BulkSendJob> jobs;
+
+    public BulkSendService(OutboundOutbox outbox,
+                           @Value("${whatsapp.bulk.max-concurrency:50}") int maxConcurrency,
+                           @Value("${whatsapp.bulk.max-reported-failures:100}") int maxReportedFailures,
+                           @Value("${whatsapp.bulk.retained-jobs:100}") int retainedJobs,
+                           @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.outbox = outbox;
+        this.inFlight = new Semaphore(maxConcurrency);
+        this.maxReportedFailures = maxReportedFailures;
+        ThreadFactory threads = ExecutionThreads.factory("bulk-send-", virtualThreads);
+        this.coordinators = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(threads)
+                : Executors.newCachedThreadPool(threads);
+        // Status of the most recent jobs only
+        this.jobs = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BulkSendJob> eldest) {
+                return size() > retainedJobs;
+            }
+        });
+    }
+
+    /**
+     * Starts a job and returns immediately.
+     *
+     * @return the job id to poll with {@link #getStatus(String)}
+     */
+    public String submit(List<SendMessageRequest> messages) {
+        BulkSendJob job = new BulkSendJob(UUID.randomUUID().toString(), List.copyOf(messages));
+        jobs.put(job.id, job);
+        coordinators.execute(() -> run(job));
+        logger.info("Started bulk send job {} with {} messages", job.id, messages.size());
+        return job.id;
+    }
+
+    /**
+     * @return the job status, or {@code null} for unknown or expired jobs
+     */
+    public BulkSendJobStatus getStatus(String jobId) {
+        BulkSendJob job = jobs.get(jobId);
+        return job != null ? job.toStatus() : null;
+    }
+
+    private void run(BulkSendJob job) {
+        for (SendMessageRequest message : job.messages) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                job.fail(message.getTo(), "Job interrupted");
+                job.completeIfDone();
+                continue;
+            }
+            OutboundOutbox.Delivery delivery = outbox.submit(message.getTo(), message.getText(), OutboundScheduler.Priority.BULK);
+            delivery.firstAttempt().whenComplete((result, error) -> inFlight.release());
+            delivery.result().whenComplete((result, error) -> onSent(job, message, result, error));
+        }
+    }
+
+    private void onSent(BulkSendJob job, SendMessageRequest message, SendResult result, Throwable error) {
+        if (result != null && result.isSuccess()) {
+            job.sent.incrementAndGet();
+        } else {
+            job.fail(message.getTo(), result != null ? result.getError() : String.valueOf(error));
+        }
+        job.completeIfDone();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinators.shutdownNow();
+        try {
+            coordinators.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class BulkSendJob {
+        private final String id;
+        private final List<SendMessageRequest> messages;
+        private final Instant startedAt = Instant.now();
+        private final AtomicInteger sent = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final List<BulkSendJobStatus.Failure> failures = Collections.synchronizedList(new ArrayList<>());
+        private volatile Instant completedAt;
+
+        private BulkSendJob(String id, List<SendMessageRequest> messages) {
+            this.id = id;
+            this.messages = messages;
+        }
+
+        private void fail(String to, String error) {
+            if (failed.incrementAndGet() <= maxReportedFailures) {
+                failures.add(new BulkSendJobStatus.Failure(to, error));
+            }
+        }
+
+        private synchronized void completeIfDone() {
+            if (sent.get() + failed.get() == messages.size() && completedAt == null) {
+                completedAt = Instant.now();
+                logger.info("Bulk send job {} completed: {} sent, {} failed", id, sent.get(), failed.get());
+            }
+        }
+
+        private BulkSendJobStatus toStatus() {
+            int sentCount = sent.get();
+            int failedCount = failed.get();
+            Instant completed = completedAt;
+            Duration elapsed = Duration.between(startedAt, completed != null ? completed : Instant.now());
+            double seconds = Math.max(elapsed.toMillis(), 1) / 1000d;
+            List<BulkSendJobStatus.Failure> reported;
+            synchronized (failures) {
+                reported = new ArrayList<>(failures);
+            }
+            return new BulkSendJobStatus(id, completed != null ? "COMPLETED" : "RUNNING", messages.size(),
+                    sentCount, failedCount, messages.size() - sentCount - failedCount, startedAt, completed,
+                    (sentCount + failedCount) / seconds, reported);
+        }
+    }
+}
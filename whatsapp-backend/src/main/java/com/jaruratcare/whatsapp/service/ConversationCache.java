@@ -0,0 +1,278 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded, per-phone-number cache of complete conversations, evicted least recently used
+ * first once the estimated size exceeds {@code whatsapp.cache.max-bytes}.
+ * <p>
+ * A conversation is only served from the cache once it has been fully loaded from Firestore.
+ * Messages appended while a load is in flight are kept and merged into the loaded history, so
+ * the cached copy never misses a write.
+ */
+@Component
+public class ConversationCache {
+    // Rough per-message overhead of the Message, Timestamp and list slot, on top of the strings
+    private static final int MESSAGE_OVERHEAD_BYTES = 128;
+    // Cursor order, so a page can be located by binary search
+    private static final Comparator<Message> ORDER = MessageCursor.ORDER;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Conversation> conversations = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public ConversationCache(MeterRegistry meterRegistry,
+                             @Value("${whatsapp.cache.max-bytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.hits = Counter.builder("whatsapp.cache.conversations.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("whatsapp.cache.conversations.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("whatsapp.cache.conversations.evictions").register(meterRegistry);
+        Gauge.builder("whatsapp.cache.conversations.size", this, ConversationCache::size).register(meterRegistry);
+        Gauge.builder("whatsapp.cache.conversations.bytes", this, ConversationCache::estimatedBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return a copy of the cached conversation, or {@code null} if it is not (yet) cached
+     */
+    public synchronized List<Message> get(String phoneNumber) {
+        Conversation conversation = conversations.get(phoneNumber);
+        if (conversation == null || conversation.loading) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new ArrayList<>(conversation.messages);
+    }
+
+    /**
+     * Returns up to {@code limit} cached messages newer than {@code since} and after
+     * {@code startAfter}, copying only that page rather than the whole conversation.
+     *
+     * @return the page, or {@code null} if the conversation is not (yet) cached
+     */
+    public synchronized MessagePage page(String phoneNumber, Timestamp since, MessageCursor startAfter, int limit) {
+        Conversation conversation = conversations.get(phoneNumber);
+        if (conversation == null || conversation.loading) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        List<Message> messages = conversation.messages;
+        int from = 0;
+        if (since != null) {
+            // Exclusive bound on the timestamp alone, whatever the id
+            from = firstAfter(messages, new Message(null, null, null, since, null), (message, bound) ->
+                    message.getTimestamp() == null ? -1 : message.getTimestamp().compareTo(bound.getTimestamp()));
+        }
+        if (startAfter != null) {
+            Message bound = new Message(startAfter.getMessageId(), null, null, startAfter.getTimestamp(), null);
+            from = Math.max(from, firstAfter(messages, bound, ORDER));
+        }
+        int to = (int) Math.min(messages.size(), (long) from + limit);
+        List<Message> page = new ArrayList<>(messages.subList(from, to));
+        String nextCursor = to < messages.size() && !page.isEmpty()
+                ? MessageCursor.of(page.get(page.size() - 1)).encode()
+                : null;
+        return new MessagePage(page, nextCursor);
+    }
+
+    /**
+     * Marks a conversation as loading so that concurrent {@link #append} calls are retained.
+     *
+     * @return {@code false} if the conversation is already cached or another load is in flight
+     */
+    public synchronized boolean beginLoad(String phoneNumber) {
+        if (conversations.containsKey(phoneNumber)) {
+            return false;
+        }
+        Conversation placeholder = new Conversation();
+        placeholder.loading = true;
+        conversations.put(phoneNumber, placeholder);
+        return true;
+    }
+
+    /**
+     * Publishes a loaded history, merged with anything appended or replaced since
+     * {@link #beginLoad}. Those copies are newer than the loaded ones and win.
+     *
+     * @return the conversation as cached
+     */
+    public synchronized List<Message> completeLoad(String phoneNumber, Collection<Message> loaded) {
+        Conversation conversation = conversations.get(phoneNumber);
+        if (conversation == null || !conversation.loading) {
+            // Evicted or invalidated while loading; hand back what we have without caching it
+            return mergeById(List.of(), loaded);
+        }
+        List<Message> merged = mergeById(conversation.messages, loaded);
+        currentBytes -= conversation.bytes;
+        conversation.messages = merged;
+        conversation.bytes = estimate(merged);
+        conversation.loading = false;
+        currentBytes += conversation.bytes;
+        evictIfNeeded();
+        return new ArrayList<>(merged);
+    }
+
+    public synchronized void abortLoad(String phoneNumber) {
+        Conversation conversation = conversations.get(phoneNumber);
+        if (conversation != null && conversation.loading) {
+            conversations.remove(phoneNumber);
+            currentBytes -= conversation.bytes;
+        }
+    }
+
+    /**
+     * Adds a newly written message to its conversation if that conversation is cached or loading.
+     */
+    public synchronized void append(Message message) {
+        Conversation conversation = conversations.get(message.getPhoneNumber());
+        if (conversation == null) {
+            return;
+        }
+        List<Message> messages = conversation.messages;
+        // Messages nearly always arrive in order; fall back to an insertion point otherwise
+        int index = messages.size();
+        while (index > 0 && ORDER.compare(messages.get(index - 1), message) > 0) {
+            index--;
+        }
+        messages.add(index, message);
+        long size = estimate(message);
+        conversation.bytes += size;
+        currentBytes += size;
+        evictIfNeeded();
+    }
+
+    /**
+     * Swaps in a newer copy of a message with the same id and timestamp, such as one with an
+     * updated delivery status. Does nothing if its conversation isn't cached; if it is still
+     * loading, the copy is kept for the merge.
+     */
+    public synchronized void replace(Message message) {
+        Conversation conversation = conversations.get(message.getPhoneNumber());
+        if (conversation == null) {
+            return;
+        }
+        List<Message> messages = conversation.messages;
+        // Updates are for recent messages, so search from the newest
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            Message cached = messages.get(i);
+            if (cached.getId() != null && cached.getId().equals(message.getId())) {
+                long delta = estimate(message) - estimate(cached);
+                messages.set(i, message);
+                conversation.bytes += delta;
+                currentBytes += delta;
+                return;
+            }
+        }
+        if (conversation.loading) {
+            append(message);
+        }
+    }
+
+    public synchronized void invalidate(String phoneNumber) {
+        Conversation conversation = conversations.remove(phoneNumber);
+        if (conversation != null) {
+            currentBytes -= conversation.bytes;
+        }
+    }
+
+    public synchronized int size() {
+        return conversations.size();
+    }
+
+    public synchronized long estimatedBytes() {
+        return currentBytes;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Conversation>> eldest = conversations.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            Conversation conversation = eldest.next().getValue();
+            eldest.remove();
+            currentBytes -= conversation.bytes;
+            evictions.increment();
+        }
+    }
+
+    // Keeps the first copy of each id, so the newer collection goes first
+    private static List<Message> mergeById(Collection<Message> newer, Collection<Message> older) {
+        List<Message> merged = new ArrayList<>(newer.size() + older.size());
+        Set<String> ids = new HashSet<>();
+        for (Message message : newer) {
+            if (message.getId() == null || ids.add(message.getId())) {
+                merged.add(message);
+            }
+        }
+        for (Message message : older) {
+            if (message.getId() == null || ids.add(message.getId())) {
+                merged.add(message);
+            }
+        }
+        // Stores sort ties on the timestamp differently, so always restore cursor order
+        merged.sort(ORDER);
+        return merged;
+    }
+
+    // Index of the first message that sorts strictly after the bound
+    private static int firstAfter(List<Message> messages, Message bound, Comparator<Message> order) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (order.compare(messages.get(mid), bound) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long estimate(List<Message> messages) {
+        long size = 0;
+        for (Message message : messages) {
+            size += estimate(message);
+        }
+        return size;
+    }
+
+    private static long estimate(Message message) {
+        return MESSAGE_OVERHEAD_BYTES
+                + 2L * (length(message.getId()) + length(message.getPhoneNumber()) + length(message.getContent())
+                + length(message.getWaMessageId()) + length(message.getDeliveryError()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static class Conversation {
+        private List<Message> messages = new ArrayList<>();
+        private long bytes;
+        private boolean loading;
+    }
+}
@@ -0,0 +1,276 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process fan-out of conversation events (recorded messages and delivery statuses) to
+ * live subscribers such as open dashboards.
+ * <p>
+ * Publishing never blocks and costs one map lookup when nobody is subscribed to the
+ * conversation. Each subscriber has a bounded buffer drained by a writer thread; a subscriber
+ * whose buffer fills up is dropped and closed, so one slow connection can't hold up the
+ * webhook path or other subscribers. Subscribers that were dropped reconnect and resume.
+ */
+@Component
+public class ConversationEventBus {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationEventBus.class);
+    private static final Event HEARTBEAT = new Event(EventType.HEARTBEAT, null, null);
+
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxSubscribers;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService heartbeats;
+    private final Counter published;
+    private final Counter dropped;
+
+    public ConversationEventBus(MeterRegistry meterRegistry,
+                                @Value("${whatsapp.stream.buffer-size:256}") int bufferSize,
+                                @Value("${whatsapp.stream.max-subscribers:10000}") int maxSubscribers,
+                                @Value("${whatsapp.stream.heartbeat-interval:15s}") Duration heartbeatInterval,
+                                @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        // Writers only run while a subscriber has buffered events
+        this.writers = Executors.newCachedThreadPool(ExecutionThreads.factory("stream-writer-", virtualThreads));
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(ExecutionThreads.factory("stream-heartbeat-", false));
+        long millis = heartbeatInterval.toMillis();
+        heartbeats.scheduleWithFixedDelay(this::sendHeartbeats, millis, millis, TimeUnit.MILLISECONDS);
+
+        meterRegistry.gauge("whatsapp.stream.subscribers", subscriberCount);
+        this.published = Counter.builder("whatsapp.stream.events")
+                .description("Conversation events delivered to subscriber buffers")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("whatsapp.stream.dropped")
+                .description("Subscribers disconnected because they fell too far behind")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registers a subscriber for one conversation. Events are buffered from now on, but only
+     * handed to the sink once {@link Subscription#start} is called, which lets the caller
+     * replay history first without missing anything published meanwhile.
+     *
+     * @return {@code null} if {@code whatsapp.stream.max-subscribers} are already connected
+     */
+    public Subscription subscribe(String phoneNumber, EventSink sink) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            return null;
+        }
+        Subscription subscription = new Subscription(phoneNumber, sink);
+        // Added inside compute, so it can't race with the last subscriber removing the set
+        subscriptions.compute(phoneNumber, (key, set) -> {
+            Set<Subscription> subscribers = set != null ? set : ConcurrentHashMap.newKeySet();
+            subscribers.add(subscription);
+            return subscribers;
+        });
+        return subscription;
+    }
+
+    public void publishMessage(Message message) {
+        publish(message.getPhoneNumber(), new Event(EventType.MESSAGE, MessageCursor.of(message).encode(), message));
+    }
+
+    public void publishStatus(StatusEvent status) {
+        publish(status.getRecipientId(), new Event(EventType.STATUS, null, status));
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * Ends open streams when shutdown begins, before the web server stops, so clients see a
+     * clean end and reconnect elsewhere instead of timing out.
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void closeSubscriptions() {
+        subscriptions.values().forEach(set -> set.forEach(subscription -> subscription.close("Shutting down")));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeats.shutdownNow();
+        closeSubscriptions();
+        writers.shutdownNow();
+    }
+
+    private void publish(String phoneNumber, Event event) {
+        if (phoneNumber == null) {
+            return;
+        }
+        Set<Subscription> subscribers = subscriptions.get(phoneNumber);
+        if (subscribers == null) {
+            return;
+        }
+        for (Subscription subscription : subscribers) {
+            subscription.offer(event);
+        }
+    }
+
+    private void sendHeartbeats() {
+        subscriptions.values().forEach(set -> set.forEach(subscription -> subscription.offer(HEARTBEAT)));
+    }
+
+    public enum EventType {
+        MESSAGE, STATUS, HEARTBEAT
+    }
+
+    /**
+     * @param id   resume position for {@link EventType#MESSAGE} events, {@code null} otherwise
+     * @param data a {@link Message} or {@link StatusEvent}
+     */
+    public record Event(EventType type, String id, Object data) {
+    }
+
+    /**
+     * Where a subscriber's events are written, such as an SSE connection. Called from one
+     * thread at a time.
+     */
+    public interface EventSink {
+
+        void send(Event event) throws IOException;
+
+        /**
+         * Ends the connection after the subscription was cancelled.
+         *
+         * @param reason why the bus closed it
+         */
+        void close(String reason);
+    }
+
+    public final class Subscription {
+        private final String phoneNumber;
+        private final EventSink sink;
+        private final BlockingQueue<Event> buffer;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean started;
+        // Messages at or before this position were already replayed to the subscriber
+        private MessageCursor replayedThrough;
+
+        private Subscription(String phoneNumber, EventSink sink) {
+            this.phoneNumber = phoneNumber;
+            this.sink = sink;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        /**
+         * Starts delivering buffered and future events, skipping messages the subscriber has
+         * already been sent.
+         *
+         * @param replayedThrough the last replayed message, or {@code null}
+         */
+        public void start(MessageCursor replayedThrough) {
+            this.replayedThrough = replayedThrough;
+            started = true;
+            scheduleDrain();
+        }
+
+        /**
+         * Stops delivery without writing to the sink again; for subscribers that went away.
+         */
+        public void cancel() {
+            if (closed.compareAndSet(false, true)) {
+                remove();
+            }
+        }
+
+        private void offer(Event event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                // Marked closed right away, so further events can't drop the subscriber again
+                if (closed.compareAndSet(false, true)) {
+                    dropped.increment();
+                    logger.info("Dropping stream subscriber for {}: {} events behind", phoneNumber, buffer.size());
+                    remove();
+                    buffer.clear();
+                    // Closed on a writer so the publisher never waits on the subscriber's connection
+                    writers.execute(() -> sink.close("Subscriber fell too far behind"));
+                }
+                return;
+            }
+            if (event.type() != EventType.HEARTBEAT) {
+                published.increment();
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (started && !buffer.isEmpty() && draining.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this::drain);
+                } catch (RuntimeException e) {
+                    // Shutting down
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                Event event;
+                while (!closed.get() && (event = buffer.poll()) != null) {
+                    if (event.type() == EventType.MESSAGE && replayedThrough != null
+                            && !replayedThrough.isBefore((Message) event.data())) {
+                        continue;
+                    }
+                    sink.send(event);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Stream subscriber for {} disconnected: {}", phoneNumber, e.toString());
+                cancel();
+                return;
+            } finally {
+                draining.set(false);
+            }
+            // An event may have arrived after the last poll but before draining was cleared
+            scheduleDrain();
+        }
+
+        private void close(String reason) {
+            if (closed.compareAndSet(false, true)) {
+                remove();
+                buffer.clear();
+                sink.close(reason);
+            }
+        }
+
+        private void remove() {
+            subscriberCount.decrementAndGet();
+            subscriptions.computeIfPresent(phoneNumber, (key, set) -> {
+                set.remove(this);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.jaruratcare.whatsapp.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs work for each conversation in the order it was submitted. Phone numbers are hashed onto
+ * a fixed number of lanes, each drained by a single thread, so events for one contact never
+ * overtake each other while different contacts are handled in parallel.
+ * <p>
+ * Lane queues are bounded: when one is full, {@link #execute} blocks, which pushes back on the
+ * webhook ingestion queue instead of buffering without limit.
+ */
+@Component
+public class ConversationExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationExecutor.class);
+    // Queued on shutdown to wake a lane up once it has drained
+    private static final Runnable SHUTDOWN_SIGNAL = () -> { };
+
+    private final Lane[] lanes;
+    private final Counter failures;
+    private volatile boolean running = true;
+
+    public ConversationExecutor(MeterRegistry meterRegistry,
+                                @Value("${whatsapp.webhook.conversation-lanes:16}") int laneCount,
+                                @Value("${whatsapp.webhook.lane-capacity:256}") int laneCapacity,
+                                @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.failures = Counter.builder("whatsapp.conversation.tasks.failed")
+                .description("Conversation tasks that threw an exception")
+                .register(meterRegistry);
+        ThreadFactory threads = ExecutionThreads.factory("conversation-", virtualThreads);
+        this.lanes = new Lane[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(new LinkedBlockingQueue<>(laneCapacity));
+            lanes[i].thread = threads.newThread(lanes[i]::run);
+            lanes[i].thread.start();
+        }
+        meterRegistry.gauge("whatsapp.conversation.tasks.pending", this, ConversationExecutor::getPendingCount);
+    }
+
+    /**
+     * Queues a task behind every task previously submitted for the same phone number, blocking
+     * while that lane is full.
+     *
+     * @throws IllegalStateException if the executor is shut down
+     */
+    public void execute(String phoneNumber, Runnable task) {
+        if (!running) {
+            throw new IllegalStateException("Conversation executor is shut down");
+        }
+        Lane lane = lanes[Math.floorMod(phoneNumber != null ? phoneNumber.hashCode() : 0, lanes.length)];
+        try {
+            lane.queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing conversation task", e);
+        }
+    }
+
+    public int getPendingCount() {
+        int pending = 0;
+        for (Lane lane : lanes) {
+            pending += lane.queue.size();
+        }
+        return pending;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Draining {} pending conversation tasks", getPendingCount());
+        running = false;
+        for (Lane lane : lanes) {
+            lane.queue.offer(SHUTDOWN_SIGNAL);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (lane.thread.isAlive()) {
+                logger.warn("Conversation lane {} did not drain in time, {} tasks dropped", lane.thread.getName(),
+                        lane.queue.size());
+            }
+        }
+    }
+
+    private final class Lane {
+        private final BlockingQueue<Runnable> queue;
+        private Thread thread;
+
+        private Lane(BlockingQueue<Runnable> queue) {
+            this.queue = queue;
+        }
+
+        private void run() {
+            while (running || !queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failures.increment();
+                    logger.error("Error handling conversation task", e);
+                }
+            }
+        }
+    }
+}
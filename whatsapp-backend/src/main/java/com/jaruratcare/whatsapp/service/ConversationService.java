@@ -0,0 +1,254 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.cluster.ClusterClient;
+import com.jaruratcare.whatsapp.cluster.ConversationRouter;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Single entry point for recording and reading conversations. Writes go to the write-behind
+ * queue and are appended to the {@link ConversationCache}; reads for cached conversations
+ * never reach the {@link MessageStore}.
+ * <p>
+ * In a cluster only the node owning a conversation (see {@link ConversationRouter}) records
+ * it; messages recorded elsewhere are handed to the owner.
+ */
+@Service
+public class ConversationService {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationService.class);
+    private static final String ID_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final int ID_LENGTH = 20;
+
+    private final MessageStore messageStore;
+    private final MessageWriteBehindService messageWriter;
+    private final ConversationCache conversationCache;
+    private final ConversationRouter router;
+    private final ClusterClient clusterClient;
+    private final ConversationEventBus eventBus;
+    private final DeliveryStatusTracker deliveryTracker;
+    private final SecureRandom random = new SecureRandom();
+    // Microseconds of the latest timestamp handed out, so messages recorded here never tie
+    private final AtomicLong lastTimestampMicros = new AtomicLong();
+    // Messages queued for persistence but not yet committed, so a cache load can't miss them
+    private final Map<String, Message> unflushed = new ConcurrentHashMap<>();
+
+    public ConversationService(MessageStore messageStore, MessageWriteBehindService messageWriter,
+                               ConversationCache conversationCache, ConversationRouter router,
+                               ClusterClient clusterClient, ConversationEventBus eventBus,
+                               DeliveryStatusTracker deliveryTracker) {
+        this.messageStore = messageStore;
+        this.messageWriter = messageWriter;
+        this.conversationCache = conversationCache;
+        this.router = router;
+        this.clusterClient = clusterClient;
+        this.eventBus = eventBus;
+        this.deliveryTracker = deliveryTracker;
+    }
+
+    /**
+     * Records a message: assigns its document id, appends it to the cached conversation and
+     * queues it for persistence, and publishes it to stream subscribers. A message for a
+     * conversation owned by another node is handed to that node, and recorded here only if the
+     * owner can't be reached.
+     */
+    public CompletableFuture<Void> record(Message message) {
+        if (message.getId() == null) {
+            message.setId(newMessageId());
+        }
+        String owner = router.remoteOwnerOf(message.getPhoneNumber());
+        if (owner == null) {
+            return recordLocally(message);
+        }
+        return clusterClient.forwardMessage(owner, message)
+                .thenCompose(forwarded -> forwarded ? CompletableFuture.<Void>completedFuture(null) : recordLocally(message));
+    }
+
+    /**
+     * Records a message on this node regardless of which node owns its conversation. Its
+     * timestamp is moved just past the previous message recorded here if it would otherwise
+     * tie with or precede it, so conversations read back in the order they were recorded.
+     */
+    public CompletableFuture<Void> recordLocally(Message message) {
+        if (message.getId() == null) {
+            message.setId(newMessageId());
+        }
+        message.setTimestamp(nextTimestamp(message.getTimestamp()));
+        String id = message.getId();
+        unflushed.put(id, message);
+        conversationCache.append(message);
+        deliveryTracker.track(message);
+        eventBus.publishMessage(message);
+        return messageWriter.submit(message).whenComplete((ignored, error) -> unflushed.remove(id));
+    }
+
+    public List<Message> getMessages(String phoneNumber) {
+        List<Message> cached = conversationCache.get(phoneNumber);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean loading = conversationCache.beginLoad(phoneNumber);
+        // Taken before the query: anything committed after this point is returned by the query
+        List<Message> pending = pendingFor(phoneNumber);
+        try {
+            List<Message> loaded = mergePending(messageStore.findMessagesByPhoneNumber(phoneNumber), pending);
+            if (loading) {
+                return conversationCache.completeLoad(phoneNumber, loaded);
+            }
+            return loaded;
+        } catch (InterruptedException | ExecutionException e) {
+            if (loading) {
+                conversationCache.abortLoad(phoneNumber);
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.error("Error retrieving messages from the message store for phone number: {}", phoneNumber, e);
+            return new ArrayList<>(pending);
+        }
+    }
+
+    /**
+     * Returns one page of a conversation, optionally only messages newer than {@code since}.
+     * Hot conversations are paged from the cache; others are paged by the store.
+     *
+     * @throws IllegalStateException if the messages could not be loaded
+     */
+    public MessagePage getMessagesPage(String phoneNumber, Timestamp since, MessageCursor startAfter, int limit) {
+        MessagePage cached = conversationCache.page(phoneNumber, since, startAfter, limit);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<Message> pending = filter(pendingFor(phoneNumber), since, startAfter);
+        MessagePage page;
+        try {
+            page = messageStore.findMessagesPage(phoneNumber, since, startAfter, limit);
+        } catch (InterruptedException | ExecutionException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("Failed to load messages for " + phoneNumber, e);
+        }
+        if (pending.isEmpty()) {
+            return page;
+        }
+
+        boolean hasMore = page.getNextCursor() != null;
+        List<Message> loaded = new ArrayList<>(page.getMessages());
+        Message last = loaded.isEmpty() ? null : loaded.get(loaded.size() - 1);
+        List<Message> eligible = new ArrayList<>();
+        for (Message message : pending) {
+            // Uncommitted messages beyond this page will be picked up by a later one
+            if (!hasMore || MessageCursor.ORDER.compare(message, last) <= 0) {
+                eligible.add(message);
+            }
+        }
+        return page(mergePending(loaded, eligible), limit, hasMore);
+    }
+
+    /**
+     * Walks a whole conversation page by page, handing each page to the consumer as soon as
+     * it has been read so exports are never buffered in full.
+     */
+    public void exportMessages(String phoneNumber, int pageSize, Consumer<List<Message>> pageConsumer) {
+        MessageCursor cursor = null;
+        do {
+            MessagePage page = getMessagesPage(phoneNumber, null, cursor, pageSize);
+            if (!page.getMessages().isEmpty()) {
+                pageConsumer.accept(page.getMessages());
+            }
+            cursor = page.getNextCursor() != null ? MessageCursor.decode(page.getNextCursor()) : null;
+        } while (cursor != null);
+    }
+
+    private static List<Message> filter(List<Message> messages, Timestamp since, MessageCursor startAfter) {
+        if (since == null && startAfter == null) {
+            return messages;
+        }
+        List<Message> filtered = new ArrayList<>();
+        for (Message message : messages) {
+            if (since != null && (message.getTimestamp() == null || message.getTimestamp().compareTo(since) <= 0)) {
+                continue;
+            }
+            if (startAfter != null && !startAfter.isBefore(message)) {
+                continue;
+            }
+            filtered.add(message);
+        }
+        return filtered;
+    }
+
+    private static MessagePage page(List<Message> candidates, int limit, boolean hasMore) {
+        List<Message> sorted = new ArrayList<>(candidates);
+        sorted.sort(MessageCursor.ORDER);
+        if (sorted.size() > limit) {
+            List<Message> messages = new ArrayList<>(sorted.subList(0, limit));
+            return new MessagePage(messages, MessageCursor.of(messages.get(limit - 1)).encode());
+        }
+        String nextCursor = hasMore && !sorted.isEmpty() ? MessageCursor.of(sorted.get(sorted.size() - 1)).encode() : null;
+        return new MessagePage(sorted, nextCursor);
+    }
+
+    private List<Message> pendingFor(String phoneNumber) {
+        List<Message> pending = new ArrayList<>();
+        for (Message message : unflushed.values()) {
+            if (phoneNumber.equals(message.getPhoneNumber())) {
+                pending.add(message);
+            }
+        }
+        return pending;
+    }
+
+    private static List<Message> mergePending(List<Message> loaded, List<Message> pending) {
+        if (pending.isEmpty()) {
+            return loaded;
+        }
+        Set<String> ids = new HashSet<>();
+        for (Message message : loaded) {
+            ids.add(message.getId());
+        }
+        for (Message message : pending) {
+            if (ids.add(message.getId())) {
+                loaded.add(message);
+            }
+        }
+        loaded.sort(Comparator.comparing(Message::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder())));
+        return loaded;
+    }
+
+    private Timestamp nextTimestamp(Timestamp requested) {
+        Timestamp base = requested != null ? requested : Timestamp.now();
+        long requestedMicros = TimeUnit.SECONDS.toMicros(base.getSeconds()) + base.getNanos() / 1000;
+        long micros = lastTimestampMicros.accumulateAndGet(requestedMicros, (last, next) -> Math.max(last + 1, next));
+        return micros == requestedMicros ? base : Timestamp.ofTimeMicroseconds(micros);
+    }
+
+    // Same shape as Firestore's auto-generated document ids
+    private String newMessageId() {
+        char[] id = new char[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i++) {
+            id[i] = ID_ALPHABET.charAt(random.nextInt(ID_ALPHABET.length()));
+        }
+        return new String(id);
+    }
+}
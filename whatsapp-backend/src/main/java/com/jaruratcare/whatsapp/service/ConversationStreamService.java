@@ -0,0 +1,132 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Opens Server-Sent Event streams of a conversation. A stream first replays the messages the
+ * client missed, then carries live events from the {@link ConversationEventBus}:
+ * <ul>
+ *     <li>{@code message}: a recorded {@link Message}; its event id resumes the stream after it</li>
+ *     <li>{@code status}: a delivery status update for a message sent to the contact</li>
+ *     <li>{@code reset}: more was missed than {@code whatsapp.stream.max-replay}; reload the
+ *     conversation with {@code GET /messages/{phoneNumber}}</li>
+ * </ul>
+ * Browsers' {@code EventSource} reconnects with {@code Last-Event-ID} on its own, so a dropped
+ * or timed-out stream resumes without gaps.
+ */
+@Service
+public class ConversationStreamService {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationStreamService.class);
+    private static final long RECONNECT_MILLIS = 3000;
+
+    private final ConversationEventBus eventBus;
+    private final ConversationService conversationService;
+    private final long timeoutMillis;
+    private final int maxReplay;
+    private final int pageSize;
+
+    public ConversationStreamService(ConversationEventBus eventBus, ConversationService conversationService,
+                                     @Value("${whatsapp.stream.timeout:30m}") Duration timeout,
+                                     @Value("${whatsapp.stream.max-replay:1000}") int maxReplay,
+                                     @Value("${whatsapp.messages.max-page-size:500}") int pageSize) {
+        this.eventBus = eventBus;
+        this.conversationService = conversationService;
+        this.timeoutMillis = timeout.toMillis();
+        this.maxReplay = maxReplay;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Opens a stream, replaying messages after {@code startAfter} or newer than {@code since}
+     * when either is given. Without them only new events are sent.
+     *
+     * @return {@code null} if {@code whatsapp.stream.max-subscribers} streams are already open
+     */
+    public SseEmitter open(String phoneNumber, MessageCursor startAfter, Timestamp since) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        ConversationEventBus.Subscription subscription = eventBus.subscribe(phoneNumber, new EmitterSink(emitter));
+        if (subscription == null) {
+            return null;
+        }
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(error -> subscription.cancel());
+
+        try {
+            // Sent right away, so proxies and clients see the response start before any event
+            emitter.send(SseEmitter.event().reconnectTime(RECONNECT_MILLIS).comment("connected"));
+            MessageCursor replayedThrough = startAfter != null || since != null
+                    ? replay(emitter, phoneNumber, startAfter, since)
+                    : null;
+            subscription.start(replayedThrough);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not open stream for {}: {}", phoneNumber, e.toString());
+            subscription.cancel();
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    /**
+     * @return the last message sent, or {@code null} if the client was told to reset
+     */
+    private MessageCursor replay(SseEmitter emitter, String phoneNumber, MessageCursor startAfter, Timestamp since)
+            throws IOException {
+        MessageCursor cursor = startAfter;
+        int replayed = 0;
+        do {
+            MessagePage page = conversationService.getMessagesPage(phoneNumber, since, cursor,
+                    Math.min(pageSize, maxReplay - replayed + 1));
+            if (replayed + page.getMessages().size() > maxReplay) {
+                emitter.send(SseEmitter.event().name("reset").data("More than " + maxReplay + " messages missed"));
+                return null;
+            }
+            for (Message message : page.getMessages()) {
+                send(emitter, new ConversationEventBus.Event(ConversationEventBus.EventType.MESSAGE,
+                        MessageCursor.of(message).encode(), message));
+                cursor = MessageCursor.of(message);
+            }
+            replayed += page.getMessages().size();
+            if (page.getNextCursor() == null) {
+                return cursor;
+            }
+        } while (true);
+    }
+
+    private static void send(SseEmitter emitter, ConversationEventBus.Event event) throws IOException {
+        switch (event.type()) {
+            case MESSAGE -> emitter.send(SseEmitter.event().id(event.id()).name("message")
+                    .data(event.data(), MediaType.APPLICATION_JSON));
+            case STATUS -> emitter.send(SseEmitter.event().name("status").data(event.data(), MediaType.APPLICATION_JSON));
+            case HEARTBEAT -> emitter.send(SseEmitter.event().comment("heartbeat"));
+        }
+    }
+
+    private record EmitterSink(SseEmitter emitter) implements ConversationEventBus.EventSink {
+
+        @Override
+        public void send(ConversationEventBus.Event event) throws IOException {
+            ConversationStreamService.send(emitter, event);
+        }
+
+        @Override
+        public void close(String reason) {
+            if (reason != null) {
+                logger.debug("Closing stream: {}", reason);
+            }
+            emitter.complete();
+        }
+    }
+}
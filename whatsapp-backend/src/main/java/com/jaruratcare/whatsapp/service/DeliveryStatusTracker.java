@@ -0,0 +1,345 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.Message.DeliveryStatus;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Links delivery status webhooks to the outbound {@link Message}s they refer to, by the
+ * {@code wamid} the Graph API returned when the message was sent.
+ * <p>
+ * Status changes are applied to an in-memory index right away and written back to the
+ * message once per {@code flush-interval}, so a burst of sent/delivered/read webhooks for one
+ * message costs a single write. Statuses that arrive before their message has been recorded
+ * are held for {@code unmatched-ttl} and applied once it is.
+ * <p>
+ * Queries by status are answered by the {@link MessageStore}, which indexes messages by
+ * delivery status and timestamp. The in-memory index is only a cache of messages this node
+ * recorded during the last {@code retention}. It overlays status changes that have not been
+ * written back yet.
+ */
+@Service
+public class DeliveryStatusTracker {
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryStatusTracker.class);
+
+    private final ConversationCache conversationCache;
+    private final MessageWriteBehindService messageWriter;
+    private final MessageStore messageStore;
+    private final Map<String, Tracked> byWamid = new ConcurrentHashMap<>();
+    // Tracked messages per current status, oldest first, so unflushed ones are found without a scan
+    private final Map<DeliveryStatus, ConcurrentSkipListMap<IndexKey, Tracked>> byStatus = new EnumMap<>(DeliveryStatus.class);
+    // wamids whose status changed since the last flush
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final int maxTracked;
+    private final long unmatchedTtlNanos;
+    private final Duration retention;
+    private final ScheduledExecutorService flusher;
+    private final Counter updates;
+    private final Counter writes;
+    private final Counter unmatched;
+    private final Counter overflow;
+
+    public DeliveryStatusTracker(ConversationCache conversationCache, MessageWriteBehindService messageWriter,
+                                 MessageStore messageStore, MeterRegistry meterRegistry,
+                                 @Value("${whatsapp.delivery.flush-interval:1s}") Duration flushInterval,
+                                 @Value("${whatsapp.delivery.max-tracked:100000}") int maxTracked,
+                                 @Value("${whatsapp.delivery.unmatched-ttl:5m}") Duration unmatchedTtl,
+                                 @Value("${whatsapp.delivery.retention:7d}") Duration retention) {
+        this.conversationCache = conversationCache;
+        this.messageWriter = messageWriter;
+        this.messageStore = messageStore;
+        this.maxTracked = maxTracked;
+        this.unmatchedTtlNanos = unmatchedTtl.toNanos();
+        this.retention = retention;
+        for (DeliveryStatus status : DeliveryStatus.values()) {
+            byStatus.put(status, new ConcurrentSkipListMap<>());
+        }
+
+        meterRegistry.gauge("whatsapp.delivery.tracked", byWamid, Map::size);
+        this.updates = Counter.builder("whatsapp.delivery.updates")
+                .description("Delivery status changes applied to tracked messages")
+                .register(meterRegistry);
+        this.writes = Counter.builder("whatsapp.delivery.writes")
+                .description("Messages written back with a new delivery status")
+                .register(meterRegistry);
+        this.unmatched = Counter.builder("whatsapp.delivery.unmatched")
+                .description("Statuses dropped because their message was never recorded here")
+                .register(meterRegistry);
+        this.overflow = Counter.builder("whatsapp.delivery.overflow")
+                .description("Messages or statuses not tracked because max-tracked was reached")
+                .register(meterRegistry);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(ExecutionThreads.factory("delivery-flusher-", false));
+        long flushMillis = flushInterval.toMillis();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        long sweepMillis = Math.max(flushMillis, Math.min(unmatchedTtl.toMillis(), TimeUnit.MINUTES.toMillis(1)));
+        flusher.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts tracking a recorded outbound message. Statuses already received for it are
+     * applied on the next flush. Other messages are ignored.
+     */
+    public void track(Message message) {
+        String wamid = message.getWaMessageId();
+        if (wamid == null || message.getDirection() != Message.MessageDirection.OUTBOUND) {
+            return;
+        }
+        byWamid.compute(wamid, (key, existing) -> {
+            if (existing == null) {
+                if (byWamid.size() >= maxTracked) {
+                    overflow.increment();
+                    return null;
+                }
+                DeliveryStatus status = message.getDeliveryStatus() != null ? message.getDeliveryStatus() : DeliveryStatus.ACCEPTED;
+                return index(null, new Tracked(message, status, message.getStatusUpdatedAt(), message.getDeliveryError(), System.nanoTime()));
+            }
+            if (existing.status().isAfter(message.getDeliveryStatus())) {
+                // Statuses arrived first; the message still has to be written with them
+                dirty.add(key);
+            }
+            return index(existing, existing.withMessage(message));
+        });
+    }
+
+    /**
+     * Applies a status webhook. Statuses that don't move the message forward, such as a late
+     * {@code sent} after {@code delivered}, are ignored.
+     */
+    public void apply(StatusEvent event) {
+        DeliveryStatus status = DeliveryStatus.fromWebhook(event.getStatus());
+        if (event.getMessageId() == null || status == null) {
+            return;
+        }
+        Timestamp at = event.getTimestamp() > 0 ? Timestamp.ofTimeSecondsAndNanos(event.getTimestamp(), 0) : Timestamp.now();
+        String error = event.getErrorCode() != null ? event.getErrorCode() + " " + event.getErrorTitle() : null;
+        byWamid.compute(event.getMessageId(), (key, existing) -> {
+            if (existing == null) {
+                if (byWamid.size() >= maxTracked) {
+                    overflow.increment();
+                    return null;
+                }
+                return new Tracked(null, status, at, error, System.nanoTime());
+            }
+            if (!status.isAfter(existing.status())) {
+                return existing;
+            }
+            updates.increment();
+            if (existing.message() != null) {
+                dirty.add(key);
+            }
+            return index(existing, existing.withStatus(status, at, error));
+        });
+    }
+
+    /**
+     * Finds messages in the given statuses, oldest first, for example those still not delivered
+     * a while after sending. Statuses tracked here that have not been written back yet take
+     * precedence over the stored ones.
+     *
+     * @param sentBefore only messages sent before this instant, may be {@code null}
+     * @throws IllegalStateException if the messages could not be loaded
+     */
+    public List<Message> find(Collection<DeliveryStatus> statuses, Instant sentBefore, int limit) {
+        if (statuses.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Message> stored;
+        try {
+            stored = messageStore.findMessagesByDeliveryStatus(statuses,
+                    sentBefore != null ? Timestamp.ofTimeSecondsAndNanos(sentBefore.getEpochSecond(), sentBefore.getNano()) : null,
+                    limit);
+        } catch (InterruptedException | ExecutionException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("Failed to load messages by delivery status", e);
+        }
+
+        // Keyed by wamid, so a tracked copy replaces the stored one
+        Map<String, Message> found = new HashMap<>();
+        for (Message message : stored) {
+            Tracked tracked = message.getWaMessageId() != null ? byWamid.get(message.getWaMessageId()) : null;
+            if (tracked != null && tracked.message() != null && tracked.status().isAfter(message.getDeliveryStatus())) {
+                message = tracked.current();
+            }
+            if (statuses.contains(message.getDeliveryStatus())) {
+                found.put(message.getWaMessageId() != null ? message.getWaMessageId() : message.getId(), message);
+            }
+        }
+        for (DeliveryStatus status : statuses) {
+            ConcurrentSkipListMap<IndexKey, Tracked> index = byStatus.get(status);
+            Map<IndexKey, Tracked> candidates = sentBefore != null
+                    ? index.headMap(new IndexKey(sentBefore.getEpochSecond(), sentBefore.getNano(), ""))
+                    : index;
+            int taken = 0;
+            for (Map.Entry<IndexKey, Tracked> candidate : candidates.entrySet()) {
+                if (taken++ == limit) {
+                    break;
+                }
+                Message current = candidate.getValue().current();
+                found.merge(candidate.getKey().wamid(), current,
+                        (storedCopy, trackedCopy) -> storedCopy.getDeliveryStatus().isAfter(trackedCopy.getDeliveryStatus())
+                                ? storedCopy : trackedCopy);
+            }
+        }
+        List<Message> messages = new ArrayList<>(found.values());
+        messages.sort(MessageCursor.ORDER);
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    /**
+     * Writes every message whose status changed since the last flush.
+     */
+    public void flush() {
+        List<Message> changed = new ArrayList<>();
+        for (Iterator<String> it = dirty.iterator(); it.hasNext(); ) {
+            String wamid = it.next();
+            it.remove();
+            byWamid.computeIfPresent(wamid, (key, tracked) -> {
+                if (tracked.message() == null) {
+                    return tracked;
+                }
+                Message current = tracked.current();
+                changed.add(current);
+                if (tracked.status() == DeliveryStatus.READ) {
+                    // Nothing follows read, so the entry is no longer needed
+                    index(tracked, null);
+                    return null;
+                }
+                return index(tracked, tracked.withMessage(current));
+            });
+        }
+        for (Message message : changed) {
+            // Replaced rather than updated in place: readers may be serializing the cached copy
+            conversationCache.replace(message);
+            messageWriter.submit(message).exceptionally(error -> {
+                logger.warn("Could not write delivery status of message {}: {}", message.getId(), error.toString());
+                return null;
+            });
+            writes.increment();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Runs before the write-behind queue drains, which depends on this bean
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Error flushing delivery statuses", e);
+        }
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        Instant expiry = Instant.now().minus(retention);
+        for (String wamid : byWamid.keySet()) {
+            byWamid.computeIfPresent(wamid, (key, tracked) -> {
+                if (tracked.message() == null) {
+                    if (now - tracked.createdNanos() < unmatchedTtlNanos) {
+                        return tracked;
+                    }
+                    unmatched.increment();
+                    logger.debug("No outbound message recorded for {} status of {}", tracked.status(), key);
+                    return null;
+                }
+                if (dirty.contains(key) || tracked.message().getTimestamp().toDate().toInstant().isAfter(expiry)) {
+                    return tracked;
+                }
+                index(tracked, null);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Moves a message from its previous status index to its current one. Called inside
+     * {@code byWamid.compute}, which serializes changes per message.
+     */
+    private Tracked index(Tracked previous, Tracked current) {
+        if (previous != null && previous.message() != null) {
+            byStatus.get(previous.status()).remove(IndexKey.of(previous.message()));
+        }
+        if (current != null && current.message() != null) {
+            byStatus.get(current.status()).put(IndexKey.of(current.message()), current);
+        }
+        return current;
+    }
+
+    private record Tracked(Message message, DeliveryStatus status, Timestamp statusUpdatedAt, String error,
+                           long createdNanos) {
+
+        private Tracked withMessage(Message message) {
+            return new Tracked(message, status, statusUpdatedAt, error, createdNanos);
+        }
+
+        private Tracked withStatus(DeliveryStatus status, Timestamp statusUpdatedAt, String error) {
+            return new Tracked(message, status, statusUpdatedAt, error, createdNanos);
+        }
+
+        /**
+         * @return a copy of the message carrying the tracked status
+         */
+        private Message current() {
+            if (status == message.getDeliveryStatus() && statusUpdatedAt == message.getStatusUpdatedAt()) {
+                return message;
+            }
+            return new Message(message.getId(), message.getPhoneNumber(), message.getContent(), message.getTimestamp(),
+                    message.getDirection(), message.getWaMessageId(), status, statusUpdatedAt, error);
+        }
+    }
+
+    private record IndexKey(long seconds, int nanos, String wamid) implements Comparable<IndexKey> {
+        private static final Comparator<IndexKey> ORDER = Comparator.comparingLong(IndexKey::seconds)
+                .thenComparingInt(IndexKey::nanos)
+                .thenComparing(IndexKey::wamid);
+
+        private static IndexKey of(Message message) {
+            Timestamp timestamp = message.getTimestamp();
+            return new IndexKey(timestamp.getSeconds(), timestamp.getNanos(), message.getWaMessageId());
+        }
+
+        @Override
+        public int compareTo(IndexKey other) {
+            return ORDER.compare(this, other);
+        }
+    }
+}
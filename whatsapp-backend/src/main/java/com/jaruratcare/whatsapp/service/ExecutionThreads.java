@@ -0,0 +1,19 @@
+package com.jaruratcare.whatsapp.service;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for the service executors, following {@code spring.threads.virtual.enabled}
+ * like Tomcat does. Platform threads are daemons so they never hold up shutdown.
+ */
+final class ExecutionThreads {
+
+    private ExecutionThreads() {
+    }
+
+    static ThreadFactory factory(String namePrefix, boolean virtual) {
+        return virtual
+                ? Thread.ofVirtual().name(namePrefix, 1).factory()
+                : Thread.ofPlatform().name(namePrefix, 1).daemon(true).factory();
+    }
+}
@@ -1,54 +1,264 @@
 package com.jaruratcare.whatsapp.service;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.AlreadyExistsException;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
-import com.google.firebase.cloud.FirestoreClient;
+import com.jaruratcare.whatsapp.config.FirestoreProvider;
 import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import io.grpc.Status;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * {@link MessageStore} backed by the Firestore {@code messages} and {@code webhook_events}
+ * collections. Selected unless {@code whatsapp.store.type} is set to something else.
+ */
 @Service
-public class FirestoreService {
+@ConditionalOnProperty(name = "whatsapp.store.type", havingValue = "firestore", matchIfMissing = true)
+public class FirestoreService implements MessageStore {
     private static final Logger logger = LoggerFactory.getLogger(FirestoreService.class);
     private static final String COLLECTION_NAME = "messages";
+    private static final String WEBHOOK_EVENTS_COLLECTION = "webhook_events";
 
-    public void saveMessage(Message message) {
-        Firestore db = FirestoreClient.getFirestore();
-        try {
-            ApiFuture<WriteResult> result = db.collection(COLLECTION_NAME).document().set(message);
-            logger.info("Message saved to Firestore at: {}", result.get().getUpdateTime());
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("Error saving message to Firestore", e);
-            Thread.currentThread().interrupt(); // Restore the interrupted status
+    private final FirestoreProvider firestoreProvider;
+    private final MeterRegistry meterRegistry;
+    // Registered once per operation, so a call doesn't look its timer up in the registry
+    private final Map<String, OperationTimers> timers = new ConcurrentHashMap<>();
+
+    public FirestoreService(FirestoreProvider firestoreProvider, MeterRegistry meterRegistry) {
+        this.firestoreProvider = firestoreProvider;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Writes all messages in a single {@link WriteBatch} commit and blocks until it completes.
+     * Messages without an id are assigned the generated document id. Firestore limits a batch
+     * to 500 writes.
+     */
+    @Override
+    public void saveMessages(List<Message> messages) throws InterruptedException, ExecutionException {
+        timed("save_batch", () -> commitBatch(messages));
+    }
+
+    private List<WriteResult> commitBatch(List<Message> messages) throws InterruptedException, ExecutionException {
+        Firestore db = firestoreProvider.get();
+        CollectionReference collection = db.collection(COLLECTION_NAME);
+        WriteBatch batch = db.batch();
+        for (Message message : messages) {
+            DocumentReference document = message.getId() != null ? collection.document(message.getId()) : collection.document();
+            message.setId(document.getId());
+            batch.set(document, MessageDocuments.toFields(message));
         }
+        List<WriteResult> results = batch.commit().get();
+        logger.debug("Committed batch of {} messages to Firestore", results.size());
+        return results;
     }
 
-    public List<Message> getMessagesByPhoneNumber(String phoneNumber) {
-        List<Message> messagesList = new ArrayList<>();
-        Firestore db = FirestoreClient.getFirestore();
-        try {
+    /**
+     * Reads a whole conversation. Failures are propagated, so callers can tell an empty
+     * conversation from an unavailable database.
+     */
+    @Override
+    public List<Message> findMessagesByPhoneNumber(String phoneNumber) throws InterruptedException, ExecutionException {
+        List<QueryDocumentSnapshot> documents = timed("query", () -> {
+            Firestore db = firestoreProvider.get();
             ApiFuture<QuerySnapshot> future = db.collection(COLLECTION_NAME)
                     .whereEqualTo("phoneNumber", phoneNumber)
                     .orderBy("timestamp")
+                    .orderBy(FieldPath.documentId())
                     .get();
+            return future.get().getDocuments();
+        });
+        List<Message> messagesList = new ArrayList<>(documents.size());
+        for (QueryDocumentSnapshot doc : documents) {
+            messagesList.add(toMessage(doc));
+        }
+        logger.debug("Fetched {} messages for phone number {}", messagesList.size(), phoneNumber);
+        return messagesList;
+    }
+
+    /**
+     * Fetches one page of a conversation ordered by timestamp and document id, using Firestore
+     * query cursors so only {@code limit} documents are read regardless of history length.
+     * Needs the composite index on {@code phoneNumber} and {@code timestamp} in
+     * {@code firestore.indexes.json}.
+     *
+     * @param since      only return messages newer than this timestamp, may be {@code null}
+     * @param startAfter resume after this position, may be {@code null}
+     */
+    @Override
+    public MessagePage findMessagesPage(String phoneNumber, Timestamp since, MessageCursor startAfter, int limit)
+            throws InterruptedException, ExecutionException {
+        return timed("page", () -> queryPage(phoneNumber, since, startAfter, limit));
+    }
 
-            List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-            for (QueryDocumentSnapshot doc : documents) {
-                messagesList.add(doc.toObject(Message.class));
+    private MessagePage queryPage(String phoneNumber, Timestamp since, MessageCursor startAfter, int limit)
+            throws InterruptedException, ExecutionException {
+        Firestore db = firestoreProvider.get();
+        Query query = db.collection(COLLECTION_NAME).whereEqualTo("phoneNumber", phoneNumber);
+        if (since != null) {
+            query = query.whereGreaterThan("timestamp", since);
+        }
+        query = query.orderBy("timestamp").orderBy(FieldPath.documentId());
+        if (startAfter != null) {
+            query = query.startAfter(startAfter.getTimestamp(), startAfter.getMessageId());
+        }
+
+        // One extra document tells us whether another page exists
+        List<QueryDocumentSnapshot> documents = query.limit(limit + 1).get().get().getDocuments();
+        int size = Math.min(documents.size(), limit);
+        List<Message> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(toMessage(documents.get(i)));
+        }
+        String nextCursor = documents.size() > limit ? MessageCursor.of(messages.get(size - 1)).encode() : null;
+        logger.debug("Fetched page of {} messages for phone number {}", size, phoneNumber);
+        return new MessagePage(messages, nextCursor);
+    }
+
+    /**
+     * Reads the oldest messages in the given delivery statuses with a single {@code in} query.
+     * Needs the composite index on {@code deliveryStatus} and {@code timestamp} in
+     * {@code firestore.indexes.json}.
+     */
+    @Override
+    public List<Message> findMessagesByDeliveryStatus(Collection<Message.DeliveryStatus> statuses, Timestamp sentBefore,
+                                                      int limit) throws InterruptedException, ExecutionException {
+        List<QueryDocumentSnapshot> documents = timed("delivery_status", () -> {
+            Firestore db = firestoreProvider.get();
+            Query query = db.collection(COLLECTION_NAME)
+                    .whereIn("deliveryStatus", statuses.stream().map(Enum::name).toList());
+            if (sentBefore != null) {
+                query = query.whereLessThan("timestamp", sentBefore);
             }
-            logger.info("Fetched {} messages for phone number {}", messagesList.size(), phoneNumber);
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("Error retrieving messages from Firestore for phone number: {}", phoneNumber, e);
-            Thread.currentThread().interrupt();
+            return query.orderBy("timestamp").orderBy(FieldPath.documentId()).limit(limit).get().get().getDocuments();
+        });
+        List<Message> messages = new ArrayList<>(documents.size());
+        for (QueryDocumentSnapshot doc : documents) {
+            messages.add(toMessage(doc));
         }
-        return messagesList;
+        logger.debug("Fetched {} messages in delivery statuses {}", messages.size(), statuses);
+        return messages;
+    }
+
+    /**
+     * Records a webhook event key with a create-if-absent write, so concurrent or repeated
+     * claims of the same key succeed exactly once across all instances. The claim's
+     * {@code expiresAt} field drives the TTL policy on {@code webhook_events}, which deletes it
+     * within a day or so of expiring; until then it still counts as claimed.
+     *
+     * @return {@code true} if this call created the claim, {@code false} if it already existed
+     */
+    @Override
+    public boolean claimWebhookEvent(String key, Duration ttl) throws InterruptedException, ExecutionException {
+        return timed("claim", () -> createClaim(key, ttl));
+    }
+
+    private boolean createClaim(String key, Duration ttl) throws InterruptedException, ExecutionException {
+        Firestore db = firestoreProvider.get();
+        // Document ids may not contain '/'
+        DocumentReference document = db.collection(WEBHOOK_EVENTS_COLLECTION).document(key.replace('/', '_'));
+        try {
+            Timestamp claimedAt = Timestamp.now();
+            Timestamp expiresAt = Timestamp.ofTimeSecondsAndNanos(
+                    claimedAt.getSeconds() + ttl.toSeconds(), claimedAt.getNanos());
+            document.create(Map.of("claimedAt", claimedAt, "expiresAt", expiresAt)).get();
+            return true;
+        } catch (ExecutionException e) {
+            if (isAlreadyExists(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a single document to check that Firestore is reachable and the credentials work.
+     */
+    public void ping(long timeoutMillis) throws InterruptedException, ExecutionException, TimeoutException {
+        Firestore db = firestoreProvider.get();
+        db.collection(COLLECTION_NAME).limit(1).get().get(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the call on {@code whatsapp.firestore.requests}, tagged with the operation and
+     * whether it succeeded.
+     */
+    private <T> T timed(String operation, FirestoreCall<T> call) throws InterruptedException, ExecutionException {
+        OperationTimers operationTimers = timers.computeIfAbsent(operation, this::operationTimers);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.execute();
+            success = true;
+            return result;
+        } finally {
+            (success ? operationTimers.success : operationTimers.failure)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private OperationTimers operationTimers(String operation) {
+        return new OperationTimers(requestTimer(operation, "success"), requestTimer(operation, "failure"));
+    }
+
+    private Timer requestTimer(String operation, String outcome) {
+        return Timer.builder("whatsapp.firestore.requests")
+                .description("Firestore round trips issued by the service")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private record OperationTimers(Timer success, Timer failure) {
+    }
+
+    @FunctionalInterface
+    private interface FirestoreCall<T> {
+        T execute() throws InterruptedException, ExecutionException;
+    }
+
+    private static boolean isAlreadyExists(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AlreadyExistsException) {
+                return true;
+            }
+            if (cause instanceof FirestoreException firestoreException && firestoreException.getStatus() != null
+                    && firestoreException.getStatus().getCode() == Status.Code.ALREADY_EXISTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Message toMessage(QueryDocumentSnapshot doc) {
+        return MessageDocuments.fromFields(doc.getId(), doc.getData());
     }
-} 
\ No newline at end of file
+}
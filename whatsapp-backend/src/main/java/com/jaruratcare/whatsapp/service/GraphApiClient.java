@@ -0,0 +1,183 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking client for the WhatsApp Cloud API messages endpoint.
+ * <p>
+ * Uses one shared JDK {@link HttpClient}, which keeps pooled keep-alive connections and
+ * negotiates HTTP/2 with graph.facebook.com. The request URI, authorization header and the
+ * constant parts of the JSON body are prepared once; each send only escapes and copies the
+ * recipient and text.
+ */
+@Component
+public class GraphApiClient {
+    private static final Logger logger = LoggerFactory.getLogger(GraphApiClient.class);
+
+    private static final byte[] TEXT_BODY_PREFIX = "{\"messaging_product\":\"whatsapp\",\"to\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TEXT_BODY_MIDDLE = "\",\"text\":{\"body\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TEXT_BODY_SUFFIX = "\"}}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpClient httpClient;
+    private final URI messagesUri;
+    private final URI phoneNumberUri;
+    private final String authorization;
+    private final Duration requestTimeout;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public GraphApiClient(@Value("${whatsapp.api-url}") String apiUrl,
+                          @Value("${whatsapp.token}") String token,
+                          @Value("${whatsapp.phone-number-id}") String phoneNumberId,
+                          @Value("${whatsapp.http.connect-timeout-ms:2000}") long connectTimeoutMillis,
+                          @Value("${whatsapp.http.read-timeout-ms:10000}") long readTimeoutMillis) {
+        this.messagesUri = URI.create(apiUrl + "/" + phoneNumberId + "/messages");
+        this.phoneNumberUri = URI.create(apiUrl + "/" + phoneNumberId + "?fields=id");
+        this.authorization = "Bearer " + token;
+        this.requestTimeout = Duration.ofMillis(readTimeoutMillis);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+    }
+
+    /**
+     * Sends a text message. The returned future never completes exceptionally; transport
+     * failures are reported as an unsuccessful {@link SendResult} with status code 0.
+     */
+    public CompletableFuture<SendResult> sendText(String to, String text) {
+        HttpRequest request = HttpRequest.newBuilder(messagesUri)
+                .timeout(requestTimeout)
+                .header("Authorization", authorization)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(textBody(to, text)))
+                .build();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        return SendResult.failed(0, error.getClass().getSimpleName() + ": " + error.getMessage());
+                    }
+                    int status = response.statusCode();
+                    if (status >= 200 && status < 300) {
+                        return SendResult.sent(status, readMessageId(response.body()));
+                    }
+                    return SendResult.failed(status, readErrorCode(response.body()),
+                            new String(response.body(), StandardCharsets.UTF_8));
+                });
+    }
+
+    /**
+     * Reads our phone number object, which checks connectivity and that the access token is
+     * accepted without sending anything.
+     *
+     * @return the HTTP status of the lookup; completes exceptionally on transport failures
+     */
+    public CompletableFuture<Integer> probe() {
+        HttpRequest request = HttpRequest.newBuilder(phoneNumberUri)
+                .timeout(requestTimeout)
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(HttpResponse::statusCode);
+    }
+
+    static byte[] textBody(String to, String text) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        byte[] escapedTo = encoder.quoteAsUTF8(to != null ? to : "");
+        byte[] escapedText = encoder.quoteAsUTF8(text != null ? text : "");
+
+        byte[] body = new byte[TEXT_BODY_PREFIX.length + escapedTo.length + TEXT_BODY_MIDDLE.length
+                + escapedText.length + TEXT_BODY_SUFFIX.length];
+        int offset = 0;
+        System.arraycopy(TEXT_BODY_PREFIX, 0, body, offset, TEXT_BODY_PREFIX.length);
+        offset += TEXT_BODY_PREFIX.length;
+        System.arraycopy(escapedTo, 0, body, offset, escapedTo.length);
+        offset += escapedTo.length;
+        System.arraycopy(TEXT_BODY_MIDDLE, 0, body, offset, TEXT_BODY_MIDDLE.length);
+        offset += TEXT_BODY_MIDDLE.length;
+        System.arraycopy(escapedText, 0, body, offset, escapedText.length);
+        offset += escapedText.length;
+        System.arraycopy(TEXT_BODY_SUFFIX, 0, body, offset, TEXT_BODY_SUFFIX.length);
+        return body;
+    }
+
+    /**
+     * Extracts {@code messages[0].id} from a successful send response.
+     */
+    private String readMessageId(byte[] body) {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("messages".equals(field) && token == JsonToken.START_ARRAY
+                        && parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String messageField = parser.currentName();
+                        parser.nextToken();
+                        if ("id".equals(messageField)) {
+                            return parser.getValueAsString();
+                        }
+                        parser.skipChildren();
+                    }
+                    return null;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read message id from Graph API response: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Extracts {@code error.code} from an error response.
+     */
+    private Integer readErrorCode(byte[] body) {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("error".equals(field) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String errorField = parser.currentName();
+                        JsonToken value = parser.nextToken();
+                        if ("code".equals(errorField) && value == JsonToken.VALUE_NUMBER_INT) {
+                            return parser.getIntValue();
+                        }
+                        parser.skipChildren();
+                    }
+                    return null;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            // Not JSON, e.g. an HTML error page from a proxy
+            logger.debug("Could not read error code from Graph API response: {}", e.getMessage());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,574 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded {@link MessageStore} for running without a Firebase project, e.g. on edge nodes or
+ * for load tests and benchmarks. Selected with {@code whatsapp.store.type=local}.
+ * <p>
+ * Messages and webhook claims are appended to memory-mapped segment files under
+ * {@code whatsapp.store.local.path}, each record framed as length, CRC32 and payload. A batch
+ * is forced to disk once after all of its records are written, and only then becomes visible
+ * to readers. Reads never scan the log: an in-memory index maps each phone number to the log
+ * positions of its messages in conversation order, and a second one does the same per delivery
+ * status. The indexes are rebuilt by replaying the
+ * segments on startup, which stops at the first torn or corrupt record; appends resume there.
+ * Saving a message again under the same id supersedes the earlier record. A webhook claim
+ * carries its expiry and is dropped from memory, and skipped on replay, once that has passed.
+ */
+@Service
+@ConditionalOnProperty(name = "whatsapp.store.type", havingValue = "local")
+public class LocalMessageStore implements MessageStore {
+    private static final Logger logger = LoggerFactory.getLogger(LocalMessageStore.class);
+    private static final String SEGMENT_PREFIX = "messages-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Record length and CRC32 of the payload
+    private static final int HEADER_BYTES = 8;
+    private static final byte MESSAGE_RECORD = 1;
+    private static final byte CLAIM_RECORD = 2;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+    // Indexed by segment number; a record's position is segment number << 32 | offset
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, ConcurrentSkipListMap<IndexKey, Long>> conversations = new ConcurrentHashMap<>();
+    // Same keys as the conversations, so each status lists its messages oldest first
+    private final Map<Message.DeliveryStatus, ConcurrentSkipListMap<IndexKey, Long>> deliveryStatuses =
+            new EnumMap<>(Message.DeliveryStatus.class);
+    private final Map<String, Located> messagesById = new ConcurrentHashMap<>();
+    // Claimed key to its expiry in epoch millis, plus claims in the order they expire
+    private final Map<String, Long> claims = new ConcurrentHashMap<>();
+    private final Queue<Claim> claimExpiry = new ArrayDeque<>();
+    private final AtomicLong logBytes = new AtomicLong();
+    // Not synchronized: appends force the mapping to disk and must not pin virtual threads
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private volatile boolean open = true;
+
+    public LocalMessageStore(MeterRegistry meterRegistry,
+                             @Value("${whatsapp.store.local.path:data/messages}") Path directory,
+                             @Value("${whatsapp.store.local.segment-size:64MB}") DataSize segmentSize,
+                             @Value("${whatsapp.store.local.fsync:true}") boolean fsync) {
+        if (segmentSize.toBytes() <= HEADER_BYTES || segmentSize.toBytes() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("whatsapp.store.local.segment-size must be between 9 bytes and 2GB");
+        }
+        this.directory = directory;
+        this.segmentSize = (int) segmentSize.toBytes();
+        this.fsync = fsync;
+        for (Message.DeliveryStatus status : Message.DeliveryStatus.values()) {
+            deliveryStatuses.put(status, new ConcurrentSkipListMap<>());
+        }
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open message store in " + directory.toAbsolutePath(), e);
+        }
+
+        meterRegistry.gauge("whatsapp.store.local.messages", messagesById, Map::size);
+        meterRegistry.gauge("whatsapp.store.local.bytes", logBytes, AtomicLong::get);
+        logger.info("Opened local message store in {}: {} messages in {} conversations, {} segments",
+                directory.toAbsolutePath(), messagesById.size(), conversations.size(), segments.size());
+    }
+
+    @Override
+    public void saveMessages(List<Message> messages) throws ExecutionException {
+        List<byte[]> records = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.getPhoneNumber() == null) {
+                throw new IllegalArgumentException("Message " + message.getId() + " has no phone number");
+            }
+            if (message.getId() == null) {
+                message.setId(UUID.randomUUID().toString().replace("-", ""));
+            }
+            records.add(encodeMessage(message));
+        }
+
+        appendLock.lock();
+        try {
+            long[] positions = appendDurably(records);
+            for (int i = 0; i < positions.length; i++) {
+                index(messages.get(i), positions[i]);
+            }
+        } catch (IOException e) {
+            throw new ExecutionException("Failed to append " + messages.size() + " messages", e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> findMessagesByPhoneNumber(String phoneNumber) {
+        NavigableMap<IndexKey, Long> conversation = conversations.get(phoneNumber);
+        if (conversation == null) {
+            return new ArrayList<>();
+        }
+        List<Message> messages = new ArrayList<>(conversation.size());
+        for (long position : conversation.values()) {
+            messages.add(readMessage(position));
+        }
+        return messages;
+    }
+
+    @Override
+    public MessagePage findMessagesPage(String phoneNumber, Timestamp since, MessageCursor startAfter, int limit) {
+        NavigableMap<IndexKey, Long> conversation = conversations.get(phoneNumber);
+        if (conversation == null) {
+            return new MessagePage(new ArrayList<>(), null);
+        }
+
+        // Start from whichever bound is later; nested tail maps reject keys outside their range
+        IndexKey from = null;
+        boolean inclusive = false;
+        if (since != null) {
+            from = IndexKey.after(since);
+            inclusive = true;
+        }
+        if (startAfter != null) {
+            IndexKey cursor = new IndexKey(startAfter.getTimestamp().getSeconds(), startAfter.getTimestamp().getNanos(),
+                    startAfter.getMessageId());
+            if (from == null || cursor.compareTo(from) >= 0) {
+                from = cursor;
+                inclusive = false;
+            }
+        }
+        NavigableMap<IndexKey, Long> remaining = from == null ? conversation : conversation.tailMap(from, inclusive);
+
+        List<Message> messages = new ArrayList<>(Math.min(limit, 64));
+        boolean hasMore = false;
+        for (long position : remaining.values()) {
+            if (messages.size() == limit) {
+                hasMore = true;
+                break;
+            }
+            messages.add(readMessage(position));
+        }
+        String nextCursor = hasMore ? MessageCursor.of(messages.get(limit - 1)).encode() : null;
+        return new MessagePage(messages, nextCursor);
+    }
+
+    @Override
+    public List<Message> findMessagesByDeliveryStatus(Collection<Message.DeliveryStatus> statuses, Timestamp sentBefore,
+                                                      int limit) {
+        List<Message> messages = new ArrayList<>();
+        for (Message.DeliveryStatus status : statuses) {
+            NavigableMap<IndexKey, Long> index = deliveryStatuses.get(status);
+            if (sentBefore != null) {
+                index = index.headMap(new IndexKey(sentBefore.getSeconds(), sentBefore.getNanos(), null), false);
+            }
+            int taken = 0;
+            for (long position : index.values()) {
+                if (taken++ == limit) {
+                    break;
+                }
+                messages.add(readMessage(position));
+            }
+        }
+        messages.sort(MessageCursor.ORDER);
+        return messages.size() > limit ? new ArrayList<>(messages.subList(0, limit)) : messages;
+    }
+
+    @Override
+    public boolean claimWebhookEvent(String key, Duration ttl) throws ExecutionException {
+        long now = System.currentTimeMillis();
+        if (isClaimed(key, now)) {
+            return false;
+        }
+        appendLock.lock();
+        try {
+            expireClaims(now);
+            if (isClaimed(key, now)) {
+                return false;
+            }
+            long expiresAt = now + ttl.toMillis();
+            appendDurably(List.of(encodeClaim(key, expiresAt)));
+            addClaim(key, expiresAt);
+            return true;
+        } catch (IOException e) {
+            throw new ExecutionException("Failed to record webhook event " + key, e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private boolean isClaimed(String key, long now) {
+        Long expiresAt = claims.get(key);
+        return expiresAt != null && expiresAt > now;
+    }
+
+    private void addClaim(String key, long expiresAt) {
+        claims.put(key, expiresAt);
+        claimExpiry.add(new Claim(key, expiresAt));
+    }
+
+    // Claims share one TTL, so they expire in the order they were made. Must hold the append lock
+    private void expireClaims(long now) {
+        Claim head;
+        while ((head = claimExpiry.peek()) != null && head.expiresAt <= now) {
+            claimExpiry.poll();
+            claims.remove(head.key, head.expiresAt);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        appendLock.lock();
+        try {
+            if (open && !segments.isEmpty()) {
+                segments.get(segments.size() - 1).buffer.force();
+            }
+            open = false;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends the records, rolling to a new segment when one is full, and forces every written
+     * range to disk before returning their positions. Must hold {@link #appendLock}.
+     */
+    private long[] appendDurably(List<byte[]> records) throws IOException {
+        if (!open) {
+            throw new IllegalStateException("Local message store is closed");
+        }
+        long[] positions = new long[records.size()];
+        int firstSegment = segments.size() - 1;
+        int firstOffset = segments.get(firstSegment).position;
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = append(records.get(i));
+        }
+
+        if (fsync) {
+            for (int number = firstSegment; number < segments.size(); number++) {
+                Segment segment = segments.get(number);
+                int from = number == firstSegment ? firstOffset : 0;
+                segment.buffer.force(from, segment.position - from);
+            }
+        }
+        return positions;
+    }
+
+    private long append(byte[] payload) throws IOException {
+        int length = HEADER_BYTES + payload.length;
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + length + " bytes exceeds the segment size of " + segmentSize);
+        }
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.position + length > segment.capacity) {
+            segment = createSegment(segments.size());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int offset = segment.position;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.put(offset + HEADER_BYTES, payload);
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        // Written last: a zero length marks the end of the log
+        buffer.putInt(offset, payload.length);
+        segment.position = offset + length;
+        logBytes.addAndGet(length);
+        return (long) (segments.size() - 1) << 32 | offset;
+    }
+
+    private void index(Message message, long position) {
+        IndexKey key = IndexKey.of(message);
+        Message.DeliveryStatus status = message.getDeliveryStatus();
+        conversations.computeIfAbsent(message.getPhoneNumber(), phone -> new ConcurrentSkipListMap<>()).put(key, position);
+        if (status != null) {
+            deliveryStatuses.get(status).put(key, position);
+        }
+        Located previous = messagesById.put(message.getId(), new Located(message.getPhoneNumber(), key, status));
+        if (previous == null) {
+            return;
+        }
+        if (!previous.key.equals(key) || !previous.phoneNumber.equals(message.getPhoneNumber())) {
+            conversations.get(previous.phoneNumber).remove(previous.key);
+        }
+        if (previous.deliveryStatus != null && (previous.deliveryStatus != status || !previous.key.equals(key))) {
+            deliveryStatuses.get(previous.deliveryStatus).remove(previous.key);
+        }
+    }
+
+    private Message readMessage(long position) {
+        Segment segment = segments.get((int) (position >>> 32));
+        int offset = (int) position;
+        int length = segment.buffer.getInt(offset);
+        ByteBuffer payload = segment.buffer.slice(offset + HEADER_BYTES, length);
+        payload.get(); // record type
+        return decodeMessage(payload);
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                    .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        for (Path file : files) {
+            long size = Files.size(file);
+            // A segment created just before a crash may not have been extended yet
+            Segment segment = mapSegment(file, size > 0 ? size : segmentSize);
+            segments.add(segment);
+            replay(segments.size() - 1, segment);
+        }
+        if (segments.isEmpty()) {
+            createSegment(0);
+        }
+    }
+
+    /**
+     * Indexes every intact record in the segment and leaves {@code position} after the last
+     * one. Anything after a torn or corrupt record is zeroed, so it can't be mistaken for data
+     * once new records are appended over it.
+     */
+    private void replay(int number, Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        long now = System.currentTimeMillis();
+        int offset = 0;
+        boolean corrupt = false;
+        while (offset + HEADER_BYTES <= segment.capacity) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || offset + HEADER_BYTES + length > segment.capacity) {
+                corrupt = true;
+                break;
+            }
+            ByteBuffer payload = buffer.slice(offset + HEADER_BYTES, length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                corrupt = true;
+                break;
+            }
+            byte type = payload.get();
+            if (type == MESSAGE_RECORD) {
+                index(decodeMessage(payload), (long) number << 32 | offset);
+            } else if (type == CLAIM_RECORD) {
+                String key = readString(payload);
+                // Claims written before they had an expiry are treated as expired
+                long expiresAt = payload.hasRemaining() ? payload.getLong() : 0;
+                if (expiresAt > now) {
+                    addClaim(key, expiresAt);
+                }
+            }
+            offset += HEADER_BYTES + length;
+        }
+        segment.position = offset;
+        logBytes.addAndGet(offset);
+
+        if (corrupt) {
+            logger.warn("Discarding torn or corrupt records in {} after offset {}", segment.path, offset);
+            for (int i = offset; i < segment.capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+    }
+
+    private Segment createSegment(int number) throws IOException {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).buffer.force();
+        }
+        Path file = directory.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        Segment segment = mapSegment(file, segmentSize);
+        segments.add(segment);
+        return segment;
+    }
+
+    private static Segment mapSegment(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), (int) size);
+        }
+    }
+
+    // Fields are appended in this order; new fields go at the end and are read only if present
+    private static byte[] encodeMessage(Message message) {
+        byte[] id = utf8(message.getId());
+        byte[] phoneNumber = utf8(message.getPhoneNumber());
+        byte[] content = utf8(message.getContent());
+        byte[] direction = utf8(message.getDirection() != null ? message.getDirection().name() : null);
+        byte[] waMessageId = utf8(message.getWaMessageId());
+        byte[] deliveryStatus = utf8(message.getDeliveryStatus() != null ? message.getDeliveryStatus().name() : null);
+        byte[] deliveryError = utf8(message.getDeliveryError());
+        ByteBuffer out = ByteBuffer.allocate(1 + sizeOf(id) + sizeOf(phoneNumber) + sizeOf(content) + 12 + sizeOf(direction)
+                + sizeOf(waMessageId) + sizeOf(deliveryStatus) + 12 + sizeOf(deliveryError));
+        out.put(MESSAGE_RECORD);
+        putString(out, id);
+        putString(out, phoneNumber);
+        putString(out, content);
+        putTimestamp(out, message.getTimestamp());
+        putString(out, direction);
+        putString(out, waMessageId);
+        putString(out, deliveryStatus);
+        putTimestamp(out, message.getStatusUpdatedAt());
+        putString(out, deliveryError);
+        return out.array();
+    }
+
+    private static Message decodeMessage(ByteBuffer in) {
+        Message message = new Message();
+        message.setId(readString(in));
+        message.setPhoneNumber(readString(in));
+        message.setContent(readString(in));
+        message.setTimestamp(readTimestamp(in));
+        String direction = readString(in);
+        message.setDirection(direction != null ? Message.MessageDirection.valueOf(direction) : null);
+        if (!in.hasRemaining()) {
+            // Written before delivery tracking
+            return message;
+        }
+        message.setWaMessageId(readString(in));
+        String deliveryStatus = readString(in);
+        message.setDeliveryStatus(deliveryStatus != null ? Message.DeliveryStatus.valueOf(deliveryStatus) : null);
+        message.setStatusUpdatedAt(readTimestamp(in));
+        message.setDeliveryError(readString(in));
+        return message;
+    }
+
+    private static byte[] encodeClaim(String key, long expiresAt) {
+        byte[] bytes = utf8(key);
+        ByteBuffer out = ByteBuffer.allocate(1 + sizeOf(bytes) + 8);
+        out.put(CLAIM_RECORD);
+        putString(out, bytes);
+        out.putLong(expiresAt);
+        return out.array();
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int sizeOf(byte[] value) {
+        return 4 + (value != null ? value.length : 0);
+    }
+
+    private static void putString(ByteBuffer out, byte[] value) {
+        out.putInt(value != null ? value.length : -1);
+        if (value != null) {
+            out.put(value);
+        }
+    }
+
+    private static void putTimestamp(ByteBuffer out, Timestamp timestamp) {
+        out.putLong(timestamp != null ? timestamp.getSeconds() : NO_TIMESTAMP);
+        out.putInt(timestamp != null ? timestamp.getNanos() : 0);
+    }
+
+    private static Timestamp readTimestamp(ByteBuffer in) {
+        long seconds = in.getLong();
+        int nanos = in.getInt();
+        return seconds == NO_TIMESTAMP ? null : Timestamp.ofTimeSecondsAndNanos(seconds, nanos);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        // Next free offset; only changed while holding the append lock
+        private int position;
+
+        private Segment(Path path, MappedByteBuffer buffer, int capacity) {
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * Conversation order: timestamp, then message id, matching {@link MessageCursor#ORDER}.
+     */
+    private record IndexKey(long seconds, int nanos, String id) implements Comparable<IndexKey> {
+
+        static IndexKey of(Message message) {
+            Timestamp timestamp = message.getTimestamp();
+            return timestamp != null
+                    ? new IndexKey(timestamp.getSeconds(), timestamp.getNanos(), message.getId())
+                    : new IndexKey(NO_TIMESTAMP, 0, message.getId());
+        }
+
+        /**
+         * @return a key before every message in the nanosecond after {@code timestamp}
+         */
+        static IndexKey after(Timestamp timestamp) {
+            return timestamp.getNanos() == 999_999_999
+                    ? new IndexKey(timestamp.getSeconds() + 1, 0, null)
+                    : new IndexKey(timestamp.getSeconds(), timestamp.getNanos() + 1, null);
+        }
+
+        @Override
+        public int compareTo(IndexKey other) {
+            int result = Long.compare(seconds, other.seconds);
+            if (result == 0) {
+                result = Integer.compare(nanos, other.nanos);
+            }
+            if (result == 0 && id != other.id) {
+                result = id == null ? -1 : other.id == null ? 1 : id.compareTo(other.id);
+            }
+            return result;
+        }
+    }
+
+    private record Located(String phoneNumber, IndexKey key, Message.DeliveryStatus deliveryStatus) {
+    }
+
+    private record Claim(String key, long expiresAt) {
+    }
+}
@@ -0,0 +1,55 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps {@link Message} to and from the fields of a Firestore {@code messages} document. Does by
+ * hand what the SDK's reflective bean mapping did for {@code set} and {@code toObject}, with the
+ * same field names and enums stored by name, so existing documents read back unchanged.
+ */
+final class MessageDocuments {
+
+    private MessageDocuments() {
+    }
+
+    static Map<String, Object> toFields(Message message) {
+        Map<String, Object> fields = new HashMap<>(16);
+        fields.put("id", message.getId());
+        fields.put("phoneNumber", message.getPhoneNumber());
+        fields.put("content", message.getContent());
+        fields.put("timestamp", message.getTimestamp());
+        fields.put("direction", name(message.getDirection()));
+        fields.put("waMessageId", message.getWaMessageId());
+        fields.put("deliveryStatus", name(message.getDeliveryStatus()));
+        fields.put("statusUpdatedAt", message.getStatusUpdatedAt());
+        fields.put("deliveryError", message.getDeliveryError());
+        return fields;
+    }
+
+    /**
+     * @param documentId used as the id of documents written before ids were assigned client-side
+     */
+    static Message fromFields(String documentId, Map<String, Object> fields) {
+        String id = (String) fields.get("id");
+        String direction = (String) fields.get("direction");
+        String deliveryStatus = (String) fields.get("deliveryStatus");
+        return new Message(
+                id != null ? id : documentId,
+                (String) fields.get("phoneNumber"),
+                (String) fields.get("content"),
+                (Timestamp) fields.get("timestamp"),
+                direction != null ? Message.MessageDirection.valueOf(direction) : null,
+                (String) fields.get("waMessageId"),
+                deliveryStatus != null ? Message.DeliveryStatus.valueOf(deliveryStatus) : null,
+                (Timestamp) fields.get("statusUpdatedAt"),
+                (String) fields.get("deliveryError"));
+    }
+
+    private static String name(Enum<?> value) {
+        return value != null ? value.name() : null;
+    }
+}
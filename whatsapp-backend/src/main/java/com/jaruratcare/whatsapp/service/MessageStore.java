@@ -0,0 +1,56 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Persistence for conversations and webhook event claims. The implementation is chosen with
+ * {@code whatsapp.store.type}: {@code firestore} ({@link FirestoreService}, the default) or
+ * {@code local} ({@link LocalMessageStore}, an embedded log on disk that needs no Firebase
+ * project).
+ */
+public interface MessageStore {
+
+    /**
+     * Writes all messages in one commit and blocks until it is durable. Messages without an id
+     * are assigned one; a message with an existing id replaces the stored copy.
+     */
+    void saveMessages(List<Message> messages) throws InterruptedException, ExecutionException;
+
+    /**
+     * Returns the whole conversation ordered by timestamp, then id.
+     */
+    List<Message> findMessagesByPhoneNumber(String phoneNumber) throws InterruptedException, ExecutionException;
+
+    /**
+     * Returns one page of a conversation ordered by timestamp, then id.
+     *
+     * @param since      only return messages newer than this timestamp, may be {@code null}
+     * @param startAfter resume after this position, may be {@code null}
+     */
+    MessagePage findMessagesPage(String phoneNumber, Timestamp since, MessageCursor startAfter, int limit)
+            throws InterruptedException, ExecutionException;
+
+    /**
+     * Returns messages in any of the given delivery statuses, ordered by timestamp, then id.
+     *
+     * @param sentBefore only return messages older than this timestamp, may be {@code null}
+     */
+    List<Message> findMessagesByDeliveryStatus(Collection<Message.DeliveryStatus> statuses, Timestamp sentBefore,
+                                               int limit) throws InterruptedException, ExecutionException;
+
+    /**
+     * Records a webhook event key if it has not been recorded within the last {@code ttl}.
+     *
+     * @param ttl how long the claim holds; stores drop it some time after that
+     * @return {@code true} if this call created the claim, {@code false} if it already existed
+     */
+    boolean claimWebhookEvent(String key, Duration ttl) throws InterruptedException, ExecutionException;
+}
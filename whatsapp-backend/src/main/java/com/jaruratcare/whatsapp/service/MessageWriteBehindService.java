@@ -0,0 +1,296 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.model.Message;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind persistence for {@link Message}s. Messages are queued and a single flusher
+ * thread commits them to the {@link MessageStore} in batches, either when {@code max-batch-size} messages
+ * are pending or when the oldest pending message has waited {@code flush-interval-ms}.
+ * Callers get a future that completes once their message has been committed.
+ * <p>
+ * Messages in a batch that failed are retried with exponential backoff, alone or with newer
+ * ones, so a short store outage loses nothing. After {@code max-attempts} they are given up
+ * on: logged, counted and their future failed. Messages waiting for a retry still count
+ * against {@code queue-capacity}, so a long outage rejects new messages rather than piling
+ * up retries.
+ */
+@Service
+public class MessageWriteBehindService {
+    private static final Logger logger = LoggerFactory.getLogger(MessageWriteBehindService.class);
+    // Firestore rejects batches with more than 500 writes
+    private static final int FIRESTORE_BATCH_LIMIT = 500;
+    // Queued on shutdown to wake the flusher up without interrupting an in-flight commit
+    private static final PendingWrite SHUTDOWN_SIGNAL = new PendingWrite(null, 0L);
+
+    private final MessageStore messageStore;
+    private final int maxBatchSize;
+    private final long flushIntervalNanos;
+    private final long offerTimeoutMillis;
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    // One permit per queue-capacity slot, held by a write from submit until it succeeds or is given up on
+    private final Semaphore capacity;
+    // Failed writes by when they are due for another attempt; only touched by the flusher
+    private final PriorityQueue<PendingWrite> retries =
+            new PriorityQueue<>((a, b) -> Long.signum(a.retryAt - b.retryAt));
+    // Writes that failed at least once and have not succeeded or been given up on yet
+    private final AtomicInteger retrying = new AtomicInteger();
+    private final Thread flusher;
+    private final Timer flushLatency;
+    private final DistributionSummary batchSize;
+    private final Counter flushFailures;
+    private final Counter retried;
+    private final Counter dropped;
+    private volatile boolean running = true;
+
+    public MessageWriteBehindService(MessageStore messageStore,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${whatsapp.firestore.write-behind.max-batch-size:200}") int maxBatchSize,
+                                     @Value("${whatsapp.firestore.write-behind.flush-interval-ms:100}") long flushIntervalMillis,
+                                     @Value("${whatsapp.firestore.write-behind.queue-capacity:10000}") int queueCapacity,
+                                     @Value("${whatsapp.firestore.write-behind.offer-timeout-ms:1000}") long offerTimeoutMillis,
+                                     @Value("${whatsapp.firestore.write-behind.max-attempts:8}") int maxAttempts,
+                                     @Value("${whatsapp.firestore.write-behind.initial-backoff-ms:500}") long initialBackoffMillis,
+                                     @Value("${whatsapp.firestore.write-behind.max-backoff-ms:30000}") long maxBackoffMillis) {
+        this.messageStore = messageStore;
+        this.maxBatchSize = Math.max(1, Math.min(maxBatchSize, FIRESTORE_BATCH_LIMIT));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.capacity = new Semaphore(queueCapacity);
+
+        meterRegistry.gauge("whatsapp.firestore.write-behind.pending", queue, BlockingQueue::size);
+        meterRegistry.gauge("whatsapp.firestore.write-behind.retrying", retrying);
+        this.flushLatency = Timer.builder("whatsapp.firestore.write-behind.flush.latency")
+                .description("Time taken to commit one batch of messages to the message store")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("whatsapp.firestore.write-behind.batch.size")
+                .description("Number of messages committed per batch")
+                .register(meterRegistry);
+        this.flushFailures = Counter.builder("whatsapp.firestore.write-behind.flush.failures")
+                .description("Batch commits to the message store that failed")
+                .register(meterRegistry);
+        this.retried = Counter.builder("whatsapp.firestore.write-behind.retried")
+                .description("Messages queued for another attempt after a failed commit")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("whatsapp.firestore.write-behind.dropped")
+                .description("Messages given up on after max-attempts failed commits")
+                .register(meterRegistry);
+
+        this.flusher = new Thread(this::runFlusher, "firestore-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues a message for persistence. If the queue stays full for longer than
+     * {@code offer-timeout-ms} the returned future fails instead of blocking the caller.
+     */
+    public CompletableFuture<Void> submit(Message message) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Write-behind persistence is shut down"));
+        }
+        try {
+            if (!capacity.tryAcquire(offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warn("Write-behind queue is full, dropping message for {}", message.getPhoneNumber());
+                return CompletableFuture.failedFuture(new IllegalStateException("Write-behind queue is full"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        PendingWrite write = new PendingWrite(message, System.nanoTime());
+        queue.add(write);
+        return write.future;
+    }
+
+    public int getPendingCount() {
+        return queue.size() + retrying.get();
+    }
+
+    private void runFlusher() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty() || !retries.isEmpty()) {
+            try {
+                takeDueRetries(batch);
+                if (batch.isEmpty()) {
+                    PendingWrite first = queue.poll(nanosUntilNextRetry(), TimeUnit.NANOSECONDS);
+                    if (first == null || first == SHUTDOWN_SIGNAL) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                // A retried message waited long enough already, so it goes out with whatever is queued
+                long deadline = batch.get(0).enqueuedAt + flushIntervalNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 && running
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next != SHUTDOWN_SIGNAL) {
+                        batch.add(next);
+                    }
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+                retries.forEach(write -> giveUp(write, e));
+                retries.clear();
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Moves retries whose backoff has passed into the batch; on shutdown all of them get one
+     * last attempt.
+     */
+    private void takeDueRetries(List<PendingWrite> batch) {
+        long now = System.nanoTime();
+        PendingWrite next;
+        while (batch.size() < maxBatchSize && (next = retries.peek()) != null
+                && (!running || next.retryAt - now <= 0)) {
+            batch.add(retries.poll());
+        }
+    }
+
+    private long nanosUntilNextRetry() {
+        PendingWrite next = retries.peek();
+        long wait = next != null ? Math.min(flushIntervalNanos, next.retryAt - System.nanoTime()) : flushIntervalNanos;
+        return Math.max(0, wait);
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            messages.add(write.message);
+        }
+        long start = System.nanoTime();
+        Exception failure = null;
+        try {
+            messageStore.saveMessages(messages);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            failure = e;
+        }
+        flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        batchSize.record(messages.size());
+
+        if (failure == null) {
+            for (PendingWrite write : batch) {
+                settled(write);
+                write.future.complete(null);
+            }
+            return;
+        }
+        logger.error("Error saving batch of {} messages to the message store", messages.size(), failure);
+        long now = System.nanoTime();
+        for (PendingWrite write : batch) {
+            write.attempts++;
+            if (!running || write.attempts >= maxAttempts || Thread.currentThread().isInterrupted()) {
+                giveUp(write, failure);
+            } else {
+                write.retryAt = now + backoffNanos(write.attempts);
+                if (!write.retrying) {
+                    write.retrying = true;
+                    retrying.incrementAndGet();
+                }
+                retries.add(write);
+                retried.increment();
+            }
+        }
+        // Counted once the batch is accounted for, so pending counts are settled when it shows
+        flushFailures.increment();
+    }
+
+    private void giveUp(PendingWrite write, Exception failure) {
+        settled(write);
+        dropped.increment();
+        logger.error("Giving up on message {} for {} after {} failed attempts", write.message.getId(),
+                write.message.getPhoneNumber(), write.attempts);
+        write.future.completeExceptionally(failure);
+    }
+
+    private void settled(PendingWrite write) {
+        capacity.release();
+        if (write.retrying) {
+            write.retrying = false;
+            retrying.decrementAndGet();
+        }
+    }
+
+    private long backoffNanos(int attempt) {
+        long exponential = initialBackoffNanos << Math.min(attempt - 1, 20);
+        long capped = Math.min(exponential, maxBackoffNanos);
+        return capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Flushing {} pending messages before shutdown", queue.size());
+        running = false;
+        queue.offer(SHUTDOWN_SIGNAL);
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            logger.warn("Write-behind flusher did not finish in time, {} messages not persisted", queue.size());
+        }
+        PendingWrite stranded;
+        while (!flusher.isAlive() && (stranded = queue.poll()) != null) {
+            capacity.release();
+            stranded.future.completeExceptionally(new IllegalStateException("Write-behind persistence is shut down"));
+        }
+    }
+
+    private static class PendingWrite {
+        private final Message message;
+        private final long enqueuedAt;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private int attempts;
+        private long retryAt;
+        private boolean retrying;
+
+        private PendingWrite(Message message, long enqueuedAt) {
+            this.message = message;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Durable queue in front of {@link WhatsAppService} for every outbound message. A send is
+ * written to the {@link OutboxLog} before it is dispatched and marked done once the Graph API
+ * accepted it, so sends in flight during a crash or restart are replayed on the next start.
+ * <p>
+ * The {@link OutboundScheduler} already retries throttling and server errors for a few
+ * seconds. Sends that still fail that way are retried here with a much longer backoff, for
+ * outages measured in minutes; after {@code whatsapp.outbox.max-attempts}, or at once for
+ * errors that won't go away such as an invalid recipient, they are dead-lettered to
+ * {@code dead-letters.jsonl} next to the log.
+ * <p>
+ * Delivery is at least once: a send that reached WhatsApp just before a crash is sent again.
+ * Sent messages are recorded through {@link ConversationService} from here, whichever path
+ * queued them.
+ */
+@Service
+public class OutboundOutbox {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundOutbox.class);
+    static final String DEAD_LETTER_FILE = "dead-letters.jsonl";
+
+    private final WhatsAppService whatsappService;
+    private final ConversationService conversationService;
+    private final ObjectMapper objectMapper;
+    private final OutboxLog log;
+    private final Path deadLetterFile;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Duration shutdownGrace;
+    // Queued sends not yet sent or dead-lettered
+    private final Map<String, PendingSend> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ScheduledExecutorService retryTimer;
+    private final Counter retries;
+    private final Counter deadLettered;
+    private final Counter appendFailures;
+    private volatile boolean running = true;
+
+    public OutboundOutbox(WhatsAppService whatsappService, ConversationService conversationService,
+                          ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                          @Value("${whatsapp.outbox.path:data/outbox}") Path directory,
+                          @Value("${whatsapp.outbox.fsync:true}") boolean fsync,
+                          @Value("${whatsapp.outbox.max-batch-size:256}") int maxBatchSize,
+                          @Value("${whatsapp.outbox.compact-size:16MB}") DataSize compactSize,
+                          @Value("${whatsapp.outbox.max-attempts:10}") int maxAttempts,
+                          @Value("${whatsapp.outbox.initial-backoff:30s}") Duration initialBackoff,
+                          @Value("${whatsapp.outbox.max-backoff:10m}") Duration maxBackoff,
+                          @Value("${whatsapp.outbox.shutdown-grace:5s}") Duration shutdownGrace) {
+        this.whatsappService = whatsappService;
+        this.conversationService = conversationService;
+        this.objectMapper = objectMapper;
+        this.deadLetterFile = directory.resolve(DEAD_LETTER_FILE);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.shutdownGrace = shutdownGrace;
+
+        meterRegistry.gauge("whatsapp.outbox.depth", pending, Map::size);
+        this.retries = Counter.builder("whatsapp.outbox.retries")
+                .description("Sends retried by the outbox after the scheduler gave up")
+                .register(meterRegistry);
+        this.deadLettered = Counter.builder("whatsapp.outbox.dead-lettered")
+                .description("Sends given up on and written to the dead-letter file")
+                .register(meterRegistry);
+        this.appendFailures = Counter.builder("whatsapp.outbox.append.failures")
+                .description("Sends dispatched without a durable outbox entry because the write failed")
+                .register(meterRegistry);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(ExecutionThreads.factory("outbox-retry-", false));
+
+        long start = System.nanoTime();
+        try {
+            this.log = new OutboxLog(directory, fsync, maxBatchSize, compactSize.toBytes(), meterRegistry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open outbox in " + directory.toAbsolutePath(), e);
+        }
+        List<OutboxLog.Entry> recovered = log.recovered();
+        Timer.builder("whatsapp.outbox.replay")
+                .description("Time to read the outbox log and queue unsent messages on startup")
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        Counter.builder("whatsapp.outbox.replayed")
+                .description("Unsent messages found in the outbox log on startup")
+                .register(meterRegistry)
+                .increment(recovered.size());
+        if (!recovered.isEmpty()) {
+            logger.info("Replaying {} unsent messages from the outbox in {}", recovered.size(), directory.toAbsolutePath());
+        }
+        for (OutboxLog.Entry entry : recovered) {
+            PendingSend send = new PendingSend(entry);
+            pending.put(entry.id(), send);
+            dispatch(send);
+        }
+    }
+
+    /**
+     * Queues a text message. It is dispatched once its outbox entry is on disk.
+     */
+    public Delivery submit(String to, String text, OutboundScheduler.Priority priority) {
+        PendingSend send = new PendingSend(new OutboxLog.Entry(UUID.randomUUID().toString(), to, text, priority,
+                System.currentTimeMillis()));
+        if (to == null || to.isBlank() || !running) {
+            SendResult failure = SendResult.failed(0, running ? "Missing recipient" : "Outbox is shut down");
+            send.result.complete(failure);
+            send.firstAttempt.complete(failure);
+            return send.delivery();
+        }
+        pending.put(send.entry.id(), send);
+        log.append(send.entry).whenComplete((ignored, error) -> {
+            if (error != null) {
+                // Sending beats not sending; the message just won't survive a restart
+                appendFailures.increment();
+                logger.error("Could not write outbox entry for message to {}, sending it anyway", to, error);
+            }
+            dispatch(send);
+        });
+        return send.delivery();
+    }
+
+    public int getDepth() {
+        return pending.size();
+    }
+
+    private void dispatch(PendingSend send) {
+        OutboxLog.Entry entry = send.entry;
+        send.attempts++;
+        inFlight.incrementAndGet();
+        whatsappService.sendMessageAsync(entry.to(), entry.text(), entry.priority()).whenComplete((result, error) -> {
+            try {
+                SendResult outcome = result != null ? result : SendResult.failed(0, String.valueOf(error));
+                if (outcome.isSuccess()) {
+                    conversationService.record(Message.sent(entry.to(), entry.text(), outcome.getMessageId()));
+                    finish(send, outcome);
+                } else if (!running) {
+                    // Left in the log for the next start
+                    send.firstAttempt.complete(outcome);
+                } else if (isRetryable(outcome) && send.attempts < maxAttempts) {
+                    scheduleRetry(send, outcome);
+                } else {
+                    deadLetter(send, outcome);
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    private void scheduleRetry(PendingSend send, SendResult outcome) {
+        long backoff = backoffMillis(send.attempts);
+        logger.warn("Send {} to {} failed with status {}, retrying from the outbox in {} ms (attempt {} of {})",
+                send.entry.id(), send.entry.to(), outcome.getStatusCode(), backoff, send.attempts, maxAttempts);
+        retries.increment();
+        send.firstAttempt.complete(outcome);
+        try {
+            retryTimer.schedule(() -> dispatch(send), backoff, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; replayed on the next start
+        }
+    }
+
+    private void deadLetter(PendingSend send, SendResult outcome) {
+        OutboxLog.Entry entry = send.entry;
+        logger.warn("Giving up on send {} to {} after {} attempts: {} {}", entry.id(), entry.to(), send.attempts,
+                outcome.getStatusCode(), outcome.getError());
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("id", entry.id());
+        record.put("to", entry.to());
+        record.put("text", entry.text());
+        record.put("priority", entry.priority());
+        record.put("queuedAt", Instant.ofEpochMilli(entry.createdMillis()).toString());
+        record.put("deadLetteredAt", Instant.now().toString());
+        record.put("attempts", send.attempts);
+        record.put("statusCode", outcome.getStatusCode());
+        record.put("error", outcome.getError());
+        try {
+            appendDeadLetter(objectMapper.writeValueAsString(record) + "\n");
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Could not write dead letter for send {}", entry.id(), e);
+        }
+        deadLettered.increment();
+        finish(send, outcome);
+    }
+
+    private synchronized void appendDeadLetter(String line) throws IOException {
+        Files.writeString(deadLetterFile, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                StandardOpenOption.SYNC);
+    }
+
+    private void finish(PendingSend send, SendResult outcome) {
+        log.complete(send.entry.id());
+        pending.remove(send.entry.id());
+        // The final result first, so a first attempt that failed for good is seen as such
+        send.result.complete(outcome);
+        send.firstAttempt.complete(outcome);
+    }
+
+    private static boolean isRetryable(SendResult result) {
+        // Status 0 is a transport failure, which the scheduler doesn't retry
+        return result.getStatusCode() == 0 || OutboundScheduler.isRetryable(result);
+    }
+
+    private long backoffMillis(int attempt) {
+        long exponential = initialBackoffMillis << Math.min(attempt - 1, 20);
+        long capped = Math.min(exponential, maxBackoffMillis);
+        return capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        retryTimer.shutdownNow();
+        // Sends already with the Graph API get a moment to finish, so they aren't sent again on the next start
+        long deadline = System.nanoTime() + shutdownGrace.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.close();
+        if (!pending.isEmpty()) {
+            logger.info("Stopped outbox with {} unsent messages kept for the next start", pending.size());
+        }
+    }
+
+    /**
+     * @param firstAttempt completes with the outcome of the first attempt; a failure that will
+     *                     be retried leaves {@code result} incomplete
+     * @param result       completes once the message was sent or dead-lettered
+     */
+    public record Delivery(String id, CompletableFuture<SendResult> firstAttempt, CompletableFuture<SendResult> result) {
+
+        /**
+         * @return whether the first attempt failed and the message is queued for another
+         */
+        public boolean isRetrying() {
+            return firstAttempt.isDone() && !result.isDone();
+        }
+    }
+
+    private static final class PendingSend {
+        private final OutboxLog.Entry entry;
+        private final CompletableFuture<SendResult> firstAttempt = new CompletableFuture<>();
+        private final CompletableFuture<SendResult> result = new CompletableFuture<>();
+        private volatile int attempts;
+
+        private PendingSend(OutboxLog.Entry entry) {
+            this.entry = entry;
+        }
+
+        private Delivery delivery() {
+            return new Delivery(entry.id(), firstAttempt, result);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Schedules outbound sends within the WhatsApp Cloud API limits.
+ * <p>
+ * One token bucket caps throughput for our business phone number and one per recipient caps
+ * the pair rate. A send that has to wait for its recipient reserves the next token, so sends
+ * to the same recipient go out in the order they reached the dispatcher. Sends wait in a priority queue so {@link Priority#INTERACTIVE} replies
+ * overtake {@link Priority#BULK} traffic. Responses that indicate throttling or a server error
+ * are retried with exponential backoff and jitter.
+ */
+@Service
+public class OutboundScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundScheduler.class);
+    // Graph API error codes that mean "slow down" even when the HTTP status is 400
+    private static final Set<Integer> RATE_LIMIT_ERROR_CODES = Set.of(130429, 131056, 80007);
+
+    public enum Priority {
+        INTERACTIVE, BULK
+    }
+
+    private final GraphApiClient graphApiClient;
+    private final TokenBucket numberBucket;
+    private final Map<String, TokenBucket> recipientBuckets = new ConcurrentHashMap<>();
+    private final double recipientRatePerSecond;
+    private final double recipientBurst;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final PriorityBlockingQueue<OutboundTask> ready = new PriorityBlockingQueue<>();
+    // Tasks parked on the timer for a recipient token or a retry backoff
+    private final Set<OutboundTask> delayed = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ScheduledExecutorService timer;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    private final Map<Priority, Timer> queueWait = new EnumMap<>(Priority.class);
+    private final Timer sendLatencySuccess;
+    private final Timer sendLatencyFailure;
+    private final Counter retries;
+    private final MeterRegistry meterRegistry;
+
+    public OutboundScheduler(GraphApiClient graphApiClient,
+                             MeterRegistry meterRegistry,
+                             @Value("${whatsapp.outbound.messages-per-second:80}") double messagesPerSecond,
+                             @Value("${whatsapp.outbound.burst:80}") double burst,
+                             @Value("${whatsapp.outbound.recipient-messages-per-second:0.2}") double recipientRatePerSecond,
+                             @Value("${whatsapp.outbound.recipient-burst:5}") double recipientBurst,
+                             @Value("${whatsapp.outbound.max-attempts:5}") int maxAttempts,
+                             @Value("${whatsapp.outbound.initial-backoff-ms:500}") long initialBackoffMillis,
+                             @Value("${whatsapp.outbound.max-backoff-ms:30000}") long maxBackoffMillis) {
+        this.graphApiClient = graphApiClient;
+        this.meterRegistry = meterRegistry;
+        this.numberBucket = new TokenBucket(messagesPerSecond, burst);
+        this.recipientRatePerSecond = recipientRatePerSecond;
+        this.recipientBurst = recipientBurst;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+
+        for (Priority priority : Priority.values()) {
+            queueWait.put(priority, Timer.builder("whatsapp.outbound.queue.wait")
+                    .description("Time a send waited in the scheduler before being dispatched")
+                    .tag("priority", priority.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        this.sendLatencySuccess = sendLatencyTimer(meterRegistry, "success");
+        this.sendLatencyFailure = sendLatencyTimer(meterRegistry, "failure");
+        this.retries = Counter.builder("whatsapp.outbound.retries")
+                .description("Sends retried after throttling or a server error")
+                .register(meterRegistry);
+        meterRegistry.gauge("whatsapp.outbound.queue.depth", ready, PriorityBlockingQueue::size);
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbound-scheduler-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Idle recipient buckets are full again and carry no state worth keeping
+        this.timer.scheduleWithFixedDelay(() -> recipientBuckets.values().removeIf(TokenBucket::isFull),
+                1, 1, TimeUnit.MINUTES);
+
+        this.dispatcher = new Thread(this::runDispatcher, "outbound-scheduler");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues a text message for sending. The future completes with the final result after any
+     * retries and never completes exceptionally.
+     */
+    public CompletableFuture<SendResult> submit(String to, String text, Priority priority) {
+        OutboundTask task = new OutboundTask(to, text, priority, sequence.incrementAndGet());
+        if (to == null || to.isBlank()) {
+            task.future.complete(SendResult.failed(0, "Missing recipient"));
+            return task.future;
+        }
+        if (!running) {
+            task.future.complete(SendResult.failed(0, "Outbound scheduler is shut down"));
+            return task.future;
+        }
+        ready.add(task);
+        return task.future;
+    }
+
+    public int getQueueDepth() {
+        return ready.size();
+    }
+
+    private void runDispatcher() {
+        while (running || !ready.isEmpty()) {
+            OutboundTask task;
+            try {
+                task = ready.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task == null) {
+                continue;
+            }
+
+            if (!task.recipientTokenReserved) {
+                TokenBucket recipientBucket = recipientBuckets.computeIfAbsent(task.to,
+                        to -> new TokenBucket(recipientRatePerSecond, recipientBurst));
+                long recipientWait = recipientBucket.reserve();
+                if (recipientWait > 0) {
+                    // Don't hold up other recipients; come back once the reserved token has refilled
+                    task.recipientTokenReserved = true;
+                    requeueLater(task, recipientWait, TimeUnit.NANOSECONDS, false);
+                    continue;
+                }
+            }
+            // A retry has to wait for a token of its own
+            task.recipientTokenReserved = false;
+            long numberWait;
+            while ((numberWait = numberBucket.tryAcquire()) > 0) {
+                LockSupport.parkNanos(numberWait);
+            }
+            dispatch(task);
+        }
+    }
+
+    private void dispatch(OutboundTask task) {
+        long start = System.nanoTime();
+        queueWait.get(task.priority).record(start - task.readyAt, TimeUnit.NANOSECONDS);
+        task.attempts++;
+
+        graphApiClient.sendText(task.to, task.text).whenComplete((result, error) -> {
+            SendResult outcome = result != null ? result : SendResult.failed(0, String.valueOf(error));
+            (outcome.isSuccess() ? sendLatencySuccess : sendLatencyFailure)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            meterRegistry.counter("whatsapp.outbound.responses", "status", statusClass(outcome.getStatusCode()))
+                    .increment();
+
+            if (!outcome.isSuccess() && isRetryable(outcome) && task.attempts < maxAttempts && running) {
+                long backoff = backoffMillis(task.attempts);
+                logger.warn("Send to {} failed with status {}, retrying in {} ms (attempt {} of {})",
+                        task.to, outcome.getStatusCode(), backoff, task.attempts, maxAttempts);
+                retries.increment();
+                requeueLater(task, backoff, TimeUnit.MILLISECONDS, true);
+                return;
+            }
+            task.future.complete(outcome);
+        });
+    }
+
+    private void requeueLater(OutboundTask task, long delay, TimeUnit unit, boolean retry) {
+        delayed.add(task);
+        try {
+            timer.schedule(() -> {
+                if (delayed.remove(task)) {
+                    if (retry) {
+                        task.readyAt = System.nanoTime();
+                    }
+                    ready.add(task);
+                }
+            }, delay, unit);
+        } catch (RejectedExecutionException e) {
+            delayed.remove(task);
+            task.future.complete(SendResult.failed(0, "Outbound scheduler is shut down"));
+        }
+    }
+
+    static boolean isRetryable(SendResult result) {
+        int status = result.getStatusCode();
+        if (status == 429 || status >= 500) {
+            return true;
+        }
+        return status == 400 && result.getErrorCode() != null && RATE_LIMIT_ERROR_CODES.contains(result.getErrorCode());
+    }
+
+    /**
+     * Groups Graph API status codes for the error-rate counter, keeping 429 apart from other
+     * client errors. Transport failures carry status 0.
+     */
+    static String statusClass(int status) {
+        if (status == 0) {
+            return "error";
+        }
+        if (status == 429) {
+            return "429";
+        }
+        return (status / 100) + "xx";
+    }
+
+    private long backoffMillis(int attempt) {
+        long exponential = initialBackoffMillis << Math.min(attempt - 1, 20);
+        long capped = Math.min(exponential, maxBackoffMillis);
+        // Full jitter keeps retries from many senders from lining up
+        return capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+    }
+
+    private static Timer sendLatencyTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("whatsapp.outbound.send.latency")
+                .description("Graph API round trip per send attempt")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Stopping outbound scheduler with {} sends queued", ready.size());
+        running = false;
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timer.shutdownNow();
+        OutboundTask task;
+        while ((task = ready.poll()) != null) {
+            task.future.complete(SendResult.failed(0, "Outbound scheduler is shut down"));
+        }
+        for (OutboundTask parked : delayed) {
+            if (delayed.remove(parked)) {
+                parked.future.complete(SendResult.failed(0, "Outbound scheduler is shut down"));
+            }
+        }
+    }
+
+    private static class OutboundTask implements Comparable<OutboundTask> {
+        private final String to;
+        private final String text;
+        private final Priority priority;
+        private final long sequence;
+        private final CompletableFuture<SendResult> future = new CompletableFuture<>();
+        private volatile long readyAt = System.nanoTime();
+        private volatile int attempts;
+        private volatile boolean recipientTokenReserved;
+
+        private OutboundTask(String to, String text, Priority priority, long sequence) {
+            this.to = to;
+            this.text = text;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(OutboundTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.jaruratcare.whatsapp.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file behind the {@link OutboundOutbox}. An entry is written when a send is
+ * queued and a completion record once it was sent or dead-lettered; entries without one are
+ * returned by {@link #recovered()} on the next start.
+ * <p>
+ * One committer thread writes everything queued since its last write and forces it to disk
+ * with a single fsync, so concurrent senders share the cost of a sync. Records are framed
+ * like the {@link LocalMessageStore} log ({@code [length][crc32][payload]}).
+ * <p>
+ * A torn record at the end of the file is discarded on open. A batch that fails to write is
+ * truncated away, so it can't hide the records after it. Once the file is larger than
+ * {@code compactBytes} and mostly completed entries, it is rewritten with just the live ones.
+ */
+final class OutboxLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(OutboxLog.class);
+    static final String FILE_NAME = "outbox.log";
+    private static final byte ENTRY_RECORD = 1;
+    private static final byte DONE_RECORD = 2;
+    private static final int HEADER_BYTES = 8;
+    // Queued on close to wake the committer up
+    private static final PendingRecord SHUTDOWN_SIGNAL = new PendingRecord(null, null, new byte[0]);
+
+    record Entry(String id, String to, String text, OutboundScheduler.Priority priority, long createdMillis) {
+    }
+
+    private final Path file;
+    private final boolean fsync;
+    private final int maxBatchSize;
+    private final long compactBytes;
+    private final List<Entry> recovered;
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private final Timer commitLatency;
+    private final DistributionSummary batchSize;
+    // Only touched by the committer after open
+    private FileChannel channel;
+    // Entries on disk without a completion record, and the bytes their records take up
+    private final Map<String, Entry> live = new LinkedHashMap<>();
+    private long liveBytes;
+    private volatile boolean running = true;
+
+    OutboxLog(Path directory, boolean fsync, int maxBatchSize, long compactBytes, MeterRegistry meterRegistry)
+            throws IOException {
+        this.fsync = fsync;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.compactBytes = compactBytes;
+        Files.createDirectories(directory);
+        this.file = directory.resolve(FILE_NAME);
+        this.recovered = List.copyOf(read(file));
+        rewrite(file, recovered);
+        for (Entry entry : recovered) {
+            live.put(entry.id(), entry);
+            liveBytes += HEADER_BYTES + encodeEntry(entry).length;
+        }
+        this.channel = openForAppend(file);
+
+        this.commitLatency = Timer.builder("whatsapp.outbox.commit.latency")
+                .description("Time to write and sync one batch of outbox records")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("whatsapp.outbox.commit.batch.size")
+                .description("Outbox records written per sync")
+                .register(meterRegistry);
+        this.committer = new Thread(this::runCommitter, "outbox-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * @return entries that were queued but never completed, oldest first
+     */
+    List<Entry> recovered() {
+        return recovered;
+    }
+
+    /**
+     * @return a future that completes once the entry is on disk
+     */
+    CompletableFuture<Void> append(Entry entry) {
+        return submit(new PendingRecord(entry, entry.id(), encodeEntry(entry)));
+    }
+
+    /**
+     * Records that the entry was sent or dead-lettered. Nothing is written for an entry whose
+     * append failed, since it isn't in the file.
+     */
+    CompletableFuture<Void> complete(String id) {
+        return submit(new PendingRecord(null, id, encodeDone(id)));
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        queue.offer(SHUTDOWN_SIGNAL);
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Error closing outbox log: {}", e.toString());
+        }
+    }
+
+    private CompletableFuture<Void> submit(PendingRecord record) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Outbox log is closed"));
+        }
+        queue.add(record);
+        return record.future;
+    }
+
+    private void runCommitter() {
+        List<PendingRecord> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Everything that queued up during the previous sync goes out with this one
+                queue.drainTo(batch, maxBatchSize - 1);
+                batch.remove(SHUTDOWN_SIGNAL);
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingRecord> batch) {
+        long start = System.nanoTime();
+        // Completion records for entries that never made it to disk are dropped
+        List<PendingRecord> writes = new ArrayList<>(batch.size());
+        Set<String> appended = new HashSet<>();
+        int bytes = 0;
+        for (PendingRecord record : batch) {
+            if (record.entry != null) {
+                appended.add(record.id);
+            } else if (!live.containsKey(record.id) && !appended.remove(record.id)) {
+                record.future.complete(null);
+                continue;
+            }
+            writes.add(record);
+            bytes += HEADER_BYTES + record.payload.length;
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+        ByteBuffer out = ByteBuffer.allocate(bytes);
+        for (PendingRecord record : writes) {
+            CRC32 crc = new CRC32();
+            crc.update(record.payload);
+            out.putInt(record.payload.length);
+            out.putInt((int) crc.getValue());
+            out.put(record.payload);
+        }
+        out.flip();
+        long position = -1;
+        try {
+            position = channel.position();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            logger.error("Error writing {} outbox records", writes.size(), e);
+            discardFrom(position);
+            writes.forEach(record -> record.future.completeExceptionally(e));
+            return;
+        }
+        commitLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        batchSize.record(writes.size());
+        for (PendingRecord record : writes) {
+            if (record.entry != null) {
+                live.put(record.id, record.entry);
+                liveBytes += HEADER_BYTES + record.payload.length;
+            } else {
+                Entry done = live.remove(record.id);
+                if (done != null) {
+                    liveBytes -= HEADER_BYTES + encodeEntry(done).length;
+                }
+            }
+            record.future.complete(null);
+        }
+        compactIfMostlyDone();
+    }
+
+    /**
+     * Cuts off a partly written batch, so the next one doesn't land behind a torn record that
+     * would end {@link #read} early.
+     */
+    private void discardFrom(long position) {
+        if (position < 0) {
+            return;
+        }
+        try {
+            channel.truncate(position);
+            channel.position(position);
+        } catch (IOException e) {
+            logger.error("Could not cut off a failed outbox write at {}", position, e);
+        }
+    }
+
+    private void compactIfMostlyDone() {
+        try {
+            long size = channel.size();
+            if (size > compactBytes && size > 2 * liveBytes) {
+                // The committer is the only writer, so nothing is appended while the file is replaced
+                channel.close();
+                rewrite(file, live.values());
+                channel = openForAppend(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not compact outbox log: {}", e.toString());
+            try {
+                if (!channel.isOpen()) {
+                    channel = openForAppend(file);
+                }
+            } catch (IOException reopen) {
+                logger.error("Could not reopen outbox log", reopen);
+            }
+        }
+    }
+
+    private static FileChannel openForAppend(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    /**
+     * Reads intact records and returns the entries still outstanding, in the order they were
+     * queued.
+     */
+    private static List<Entry> read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        Map<String, Entry> outstanding = new LinkedHashMap<>();
+        long remaining = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (remaining >= HEADER_BYTES) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                remaining -= HEADER_BYTES;
+                if (length <= 0 || length > remaining) {
+                    logger.warn("Discarding torn record at the end of {}", file);
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                remaining -= length;
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum) {
+                    logger.warn("Discarding corrupt record at the end of {}", file);
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.wrap(bytes);
+                byte type = payload.get();
+                if (type == ENTRY_RECORD) {
+                    Entry entry = decodeEntry(payload);
+                    outstanding.put(entry.id(), entry);
+                } else if (type == DONE_RECORD) {
+                    outstanding.remove(readString(payload));
+                }
+            }
+        } catch (EOFException e) {
+            logger.warn("Discarding torn record at the end of {}", file);
+        }
+        return new ArrayList<>(outstanding.values());
+    }
+
+    /**
+     * Replaces the file with just the outstanding entries, which also drops a torn tail.
+     */
+    private static void rewrite(Path file, Iterable<Entry> outstanding) throws IOException {
+        Path temporary = file.resolveSibling(FILE_NAME + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Entry entry : outstanding) {
+                byte[] payload = encodeEntry(entry);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+                record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] encodeEntry(Entry entry) {
+        byte[] id = utf8(entry.id());
+        byte[] to = utf8(entry.to());
+        byte[] text = utf8(entry.text());
+        byte[] priority = utf8(entry.priority().name());
+        ByteBuffer out = ByteBuffer.allocate(1 + sizeOf(id) + sizeOf(to) + sizeOf(text) + sizeOf(priority) + 8);
+        out.put(ENTRY_RECORD);
+        putString(out, id);
+        putString(out, to);
+        putString(out, text);
+        putString(out, priority);
+        out.putLong(entry.createdMillis());
+        return out.array();
+    }
+
+    private static Entry decodeEntry(ByteBuffer in) {
+        String id = readString(in);
+        String to = readString(in);
+        String text = readString(in);
+        OutboundScheduler.Priority priority = OutboundScheduler.Priority.valueOf(readString(in));
+        return new Entry(id, to, text, priority, in.getLong());
+    }
+
+    private static byte[] encodeDone(String id) {
+        byte[] bytes = utf8(id);
+        ByteBuffer out = ByteBuffer.allocate(1 + sizeOf(bytes));
+        out.put(DONE_RECORD);
+        putString(out, bytes);
+        return out.array();
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int sizeOf(byte[] value) {
+        return 4 + (value != null ? value.length : 0);
+    }
+
+    private static void putString(ByteBuffer out, byte[] value) {
+        out.putInt(value != null ? value.length : -1);
+        if (value != null) {
+            out.put(value);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class PendingRecord {
+        // Null for a completion record
+        private final Entry entry;
+        private final String id;
+        private final byte[] payload;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingRecord(Entry entry, String id, byte[] payload) {
+            this.entry = entry;
+            this.id = id;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.jaruratcare.whatsapp.service;
+
+/**
+ * Token bucket refilled continuously at {@code ratePerSecond}, holding at most {@code capacity}
+ * tokens so short bursts are allowed.
+ */
+class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double ratePerSecond, double capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.tokens = this.capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes one token if available.
+     *
+     * @return 0 if a token was taken, otherwise the nanoseconds until one will be available
+     */
+    synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+
+    /**
+     * Takes one token even if none is available yet, going into debt so that later callers
+     * queue up behind this one.
+     *
+     * @return the nanoseconds until the reserved token is available, 0 if it already is
+     */
+    synchronized long reserve() {
+        refill();
+        tokens -= 1;
+        return tokens >= 0 ? 0 : Math.max(1, (long) Math.ceil(-tokens / tokensPerNano));
+    }
+
+    /**
+     * @return whether the bucket is full, i.e. has been idle long enough to be discarded
+     */
+    synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,249 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.jaruratcare.whatsapp.model.event.InboundMessageEvent;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes WhatsApp Cloud API webhook payloads with Jackson's streaming parser.
+ * <p>
+ * Every entry, change, message and status in the payload is visited in a single pass
+ * without building a {@code JsonNode} tree, so batched deliveries are handled in full.
+ * Fields we don't use are skipped.
+ */
+@Component
+public class WebhookDecoder {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Decodes the payload and emits one event per message and status found.
+     *
+     * @return the number of events emitted
+     */
+    public int decode(String payload, WebhookEventHandler handler) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Webhook payload must be a JSON object");
+            }
+            int events = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("entry".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (parser.currentToken() == JsonToken.START_OBJECT) {
+                            events += readEntry(parser, handler);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return events;
+        }
+    }
+
+    private int readEntry(JsonParser parser, WebhookEventHandler handler) throws IOException {
+        int events = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if ("changes".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        events += readChange(parser, handler);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return events;
+    }
+
+    private int readChange(JsonParser parser, WebhookEventHandler handler) throws IOException {
+        int events = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if ("value".equals(field) && token == JsonToken.START_OBJECT) {
+                events += readValue(parser, handler);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return events;
+    }
+
+    private int readValue(JsonParser parser, WebhookEventHandler handler) throws IOException {
+        // metadata may come after messages/statuses, so events are emitted once the value is closed
+        String phoneNumberId = null;
+        List<InboundMessageEvent> messages = null;
+        List<StatusEvent> statuses = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if ("metadata".equals(field) && token == JsonToken.START_OBJECT) {
+                phoneNumberId = readMetadata(parser);
+            } else if ("messages".equals(field) && token == JsonToken.START_ARRAY) {
+                messages = new ArrayList<>(4);
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        messages.add(readMessage(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("statuses".equals(field) && token == JsonToken.START_ARRAY) {
+                statuses = new ArrayList<>(4);
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        statuses.add(readStatus(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        int events = 0;
+        if (messages != null) {
+            for (InboundMessageEvent message : messages) {
+                message.setPhoneNumberId(phoneNumberId);
+                handler.onMessage(message);
+                events++;
+            }
+        }
+        if (statuses != null) {
+            for (StatusEvent status : statuses) {
+                status.setPhoneNumberId(phoneNumberId);
+                handler.onStatus(status);
+                events++;
+            }
+        }
+        return events;
+    }
+
+    private String readMetadata(JsonParser parser) throws IOException {
+        String phoneNumberId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("phone_number_id".equals(field)) {
+                phoneNumberId = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return phoneNumberId;
+    }
+
+    private InboundMessageEvent readMessage(JsonParser parser) throws IOException {
+        InboundMessageEvent event = new InboundMessageEvent();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "id" -> event.setMessageId(parser.getValueAsString());
+                case "from" -> event.setFrom(parser.getValueAsString());
+                case "type" -> event.setType(parser.getValueAsString());
+                case "timestamp" -> event.setTimestamp(parseTimestamp(parser.getValueAsString()));
+                case "text" -> {
+                    if (token == JsonToken.START_OBJECT) {
+                        event.setText(readTextBody(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return event;
+    }
+
+    private String readTextBody(JsonParser parser) throws IOException {
+        String body = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("body".equals(field)) {
+                body = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return body;
+    }
+
+    private StatusEvent readStatus(JsonParser parser) throws IOException {
+        StatusEvent event = new StatusEvent();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "id" -> event.setMessageId(parser.getValueAsString());
+                case "status" -> event.setStatus(parser.getValueAsString());
+                case "recipient_id" -> event.setRecipientId(parser.getValueAsString());
+                case "timestamp" -> event.setTimestamp(parseTimestamp(parser.getValueAsString()));
+                case "errors" -> {
+                    if (token == JsonToken.START_ARRAY) {
+                        readFirstError(parser, event);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return event;
+    }
+
+    private void readFirstError(JsonParser parser, StatusEvent event) throws IOException {
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (!first || parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("code".equals(field)) {
+                    event.setErrorCode(parser.getValueAsInt());
+                } else if ("title".equals(field)) {
+                    event.setErrorTitle(parser.getValueAsString());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static long parseTimestamp(String value) {
+        if (value == null || value.isEmpty()) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+}
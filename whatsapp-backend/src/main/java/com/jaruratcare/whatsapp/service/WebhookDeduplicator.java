@@ -0,0 +1,148 @@
+package com.jaruratcare.whatsapp.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Drops webhook events Meta has already delivered, keyed on the WhatsApp message id for
+ * messages and on message id plus status for status updates.
+ * <p>
+ * The seen-set is lock-free: a {@link ConcurrentHashMap} claimed with {@code putIfAbsent}, plus
+ * a FIFO of insertions used to expire entries after {@code ttl} and to evict the oldest once
+ * {@code max-entries} is exceeded. With {@code whatsapp.dedup.firestore.enabled} an id that is
+ * new locally is also claimed in the {@link MessageStore}, so redeliveries are caught across
+ * restarts (and, with Firestore, across instances).
+ */
+@Component
+public class WebhookDeduplicator {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookDeduplicator.class);
+
+    private final ConcurrentHashMap<String, Long> seen = new ConcurrentHashMap<>();
+    private final Queue<SeenEntry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final MessageStore messageStore;
+    private final Duration ttl;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final boolean firestoreEnabled;
+    private final Counter unique;
+    private final Counter duplicates;
+
+    public WebhookDeduplicator(MessageStore messageStore,
+                               MeterRegistry meterRegistry,
+                               @Value("${whatsapp.dedup.ttl:24h}") Duration ttl,
+                               @Value("${whatsapp.dedup.max-entries:200000}") int maxEntries,
+                               @Value("${whatsapp.dedup.firestore.enabled:false}") boolean firestoreEnabled) {
+        this.messageStore = messageStore;
+        this.ttl = ttl;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.firestoreEnabled = firestoreEnabled;
+        this.unique = Counter.builder("whatsapp.webhook.dedup").tag("result", "unique").register(meterRegistry);
+        this.duplicates = Counter.builder("whatsapp.webhook.dedup").tag("result", "duplicate").register(meterRegistry);
+        meterRegistry.gauge("whatsapp.webhook.dedup.size", seen, ConcurrentHashMap::size);
+    }
+
+    public boolean firstSeenMessage(String messageId) {
+        return messageId == null || firstSeen("msg:" + messageId);
+    }
+
+    public boolean firstSeenStatus(String messageId, String status) {
+        return messageId == null || firstSeen("status:" + messageId + ":" + status);
+    }
+
+    /**
+     * Claims an event for handling in a cluster, where it may reach a lane on more than one
+     * node: directly from Meta, forwarded by a peer, or on a sender that fell back after a
+     * forward timed out.
+     */
+    public boolean firstHandoffMessage(String messageId) {
+        return messageId == null || firstSeen("handoff:msg:" + messageId);
+    }
+
+    public boolean firstHandoffStatus(String messageId, String status) {
+        return messageId == null || firstSeen("handoff:status:" + messageId + ":" + status);
+    }
+
+    /**
+     * Atomically records the key.
+     *
+     * @return {@code true} exactly once per key within the TTL, {@code false} for duplicates
+     */
+    public boolean firstSeen(String key) {
+        long now = System.nanoTime();
+        expire(now);
+
+        long expiresAt = now + ttlNanos;
+        Long previous = seen.putIfAbsent(key, expiresAt);
+        if (previous != null && (previous - now > 0 || !seen.replace(key, previous, expiresAt))) {
+            duplicates.increment();
+            return false;
+        }
+        insertionOrder.add(new SeenEntry(key, expiresAt));
+        if (seen.size() > maxEntries) {
+            evictOldest();
+        }
+
+        if (firestoreEnabled && !claimInStore(key)) {
+            duplicates.increment();
+            return false;
+        }
+        unique.increment();
+        return true;
+    }
+
+    public int size() {
+        return seen.size();
+    }
+
+    private void expire(long now) {
+        SeenEntry head;
+        while ((head = insertionOrder.peek()) != null && head.expiresAt - now <= 0) {
+            if (insertionOrder.remove(head)) {
+                seen.remove(head.key, head.expiresAt);
+            }
+        }
+    }
+
+    // Entries for keys re-seen after expiring are stale and free nothing, so skip past them
+    private void evictOldest() {
+        SeenEntry eldest;
+        while ((eldest = insertionOrder.poll()) != null) {
+            if (seen.remove(eldest.key, eldest.expiresAt)) {
+                return;
+            }
+        }
+    }
+
+    private boolean claimInStore(String key) {
+        try {
+            return messageStore.claimWebhookEvent(key, ttl);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RuntimeException e) {
+            logger.warn("Could not check webhook event {} in the message store, processing it: {}", key, e.getMessage());
+        }
+        // Fail open: a rare duplicate is better than a dropped message
+        return true;
+    }
+
+    private static class SeenEntry {
+        private final String key;
+        private final long expiresAt;
+
+        private SeenEntry(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.model.event.InboundMessageEvent;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+
+/**
+ * Receives the typed events produced by {@link WebhookDecoder}, in payload order.
+ */
+public interface WebhookEventHandler {
+
+    void onMessage(InboundMessageEvent event);
+
+    void onStatus(StatusEvent event);
+}
@@ -0,0 +1,97 @@
+package com.jaruratcare.whatsapp.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accepts raw webhook payloads onto a bounded queue so the controller can acknowledge
+ * Meta immediately. A fixed pool of workers drains the queue into {@link WebhookProcessor}.
+ */
+@Service
+public class WebhookIngestionService {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookIngestionService.class);
+
+    private final WebhookProcessor webhookProcessor;
+    private final BlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor executor;
+    private final Timer queueLatency;
+    private final Counter rejected;
+
+    public WebhookIngestionService(WebhookProcessor webhookProcessor,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${whatsapp.webhook.queue-capacity:1000}") int queueCapacity,
+                                   @Value("${whatsapp.webhook.workers:4}") int workers,
+                                   @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.webhookProcessor = webhookProcessor;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        // The pool size still bounds concurrency on virtual threads; the queue keeps backpressure
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                queue, ExecutionThreads.factory("webhook-worker-", virtualThreads), new ThreadPoolExecutor.AbortPolicy());
+
+        meterRegistry.gauge("whatsapp.webhook.queue.depth", queue, BlockingQueue::size);
+        this.queueLatency = Timer.builder("whatsapp.webhook.queue.latency")
+                .description("Time from webhook enqueue until processing completes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejected = Counter.builder("whatsapp.webhook.rejected")
+                .description("Webhook payloads rejected because the ingestion queue was full")
+                .register(meterRegistry);
+
+        logger.info("Webhook ingestion started with {} {} workers and queue capacity {}",
+                workers, virtualThreads ? "virtual" : "platform", queueCapacity);
+    }
+
+    /**
+     * Queues a payload for asynchronous processing.
+     *
+     * @return {@code false} if the queue is full and the payload was not accepted
+     */
+    public boolean submit(String payload) {
+        long enqueuedAt = System.nanoTime();
+        try {
+            // Failures are logged and timed with outcome=failure by the processor itself
+            executor.execute(() -> {
+                try {
+                    webhookProcessor.process(payload);
+                } finally {
+                    queueLatency.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            logger.warn("Webhook ingestion queue is full ({} pending), rejecting payload", queue.size());
+            return false;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        logger.info("Draining webhook ingestion queue ({} pending)", queue.size());
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Webhook workers did not finish in time, {} payloads dropped", executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.autoreply.AutoReplyEngine;
+import com.jaruratcare.whatsapp.cluster.ClusterClient;
+import com.jaruratcare.whatsapp.cluster.ConversationRouter;
+import com.jaruratcare.whatsapp.logging.LogMarkers;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.event.InboundMessageEvent;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Handles a single webhook payload off the request thread. Invoked by
+ * {@link WebhookIngestionService} workers after the HTTP request has been acknowledged.
+ * <p>
+ * Redelivered events are dropped by the {@link WebhookDeduplicator} before they are routed.
+ * Events are handled on the {@link ConversationExecutor} lane of their conversation, so they
+ * are applied in the order they were decoded. In a cluster, events for conversations owned by
+ * another node are forwarded to it without blocking a lane, one at a time per conversation so
+ * they arrive in order; if the owner can't be reached the event is handled here instead.
+ */
+@Service
+public class WebhookProcessor implements WebhookEventHandler {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookProcessor.class);
+
+    private final OutboundOutbox outbox;
+    private final ConversationService conversationService;
+    private final WebhookDecoder webhookDecoder;
+    private final WebhookDeduplicator deduplicator;
+    private final AutoReplyEngine autoReplyEngine;
+    private final ConversationExecutor conversationExecutor;
+    private final ConversationRouter router;
+    private final ClusterClient clusterClient;
+    private final ConversationEventBus eventBus;
+    private final DeliveryStatusTracker deliveryTracker;
+    private final Timer processedTimer;
+    private final Timer failedTimer;
+    private final Counter messageEvents;
+    private final Counter statusEvents;
+    // Last forward queued per conversation; the next one for it starts once that has finished
+    private final Map<String, CompletableFuture<Void>> forwarding = new ConcurrentHashMap<>();
+
+    public WebhookProcessor(OutboundOutbox outbox, ConversationService conversationService,
+                            WebhookDecoder webhookDecoder, WebhookDeduplicator deduplicator,
+                            AutoReplyEngine autoReplyEngine, ConversationExecutor conversationExecutor,
+                            ConversationRouter router, ClusterClient clusterClient, ConversationEventBus eventBus,
+                            DeliveryStatusTracker deliveryTracker, MeterRegistry meterRegistry) {
+        this.outbox = outbox;
+        this.conversationService = conversationService;
+        this.webhookDecoder = webhookDecoder;
+        this.deduplicator = deduplicator;
+        this.autoReplyEngine = autoReplyEngine;
+        this.conversationExecutor = conversationExecutor;
+        this.router = router;
+        this.clusterClient = clusterClient;
+        this.eventBus = eventBus;
+        this.deliveryTracker = deliveryTracker;
+        this.processedTimer = processingTimer(meterRegistry, "success");
+        this.failedTimer = processingTimer(meterRegistry, "failure");
+        this.messageEvents = meterRegistry.counter("whatsapp.webhook.events", "type", "message");
+        this.statusEvents = meterRegistry.counter("whatsapp.webhook.events", "type", "status");
+    }
+
+    public void process(String payload) {
+        // Parameterized, so the payload is only rendered when TRACE is on (and is redacted then)
+        logger.trace("Webhook payload: {}", payload);
+
+        long start = System.nanoTime();
+        try {
+            int events = webhookDecoder.decode(payload, this);
+            if (events == 0) {
+                logger.debug("No message or status found in webhook payload");
+            } else {
+                logger.info(LogMarkers.SAMPLED, "Processed {} events from webhook payload", events);
+            }
+            processedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (Exception e) {
+            failedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            logger.error("Error processing webhook payload", e);
+        }
+    }
+
+    @Override
+    public void onMessage(InboundMessageEvent event) {
+        messageEvents.increment();
+        if (event.getFrom() == null || event.getText() == null) {
+            logger.debug("Ignoring non-text message {} of type {}", event.getMessageId(), event.getType());
+            return;
+        }
+        // Meta redelivers until it gets a 200; claimed before routing so a redelivery is never forwarded
+        if (!deduplicator.firstSeenMessage(event.getMessageId())) {
+            logger.info(LogMarkers.SAMPLED, "Skipping duplicate delivery of message {}", event.getMessageId());
+            return;
+        }
+        String owner = router.remoteOwnerOf(event.getFrom());
+        if (!forwardInOrder(event.getFrom(), owner, () -> clusterClient.forwardInbound(owner, event),
+                () -> handleMessageOnce(event))) {
+            conversationExecutor.execute(event.getFrom(), () -> handleMessageOnce(event));
+        }
+    }
+
+    @Override
+    public void onStatus(StatusEvent event) {
+        statusEvents.increment();
+        if (!deduplicator.firstSeenStatus(event.getMessageId(), event.getStatus())) {
+            logger.debug("Skipping duplicate {} status for message {}", event.getStatus(), event.getMessageId());
+            return;
+        }
+        String owner = router.remoteOwnerOf(event.getRecipientId());
+        if (!forwardInOrder(event.getRecipientId(), owner, () -> clusterClient.forwardStatus(owner, event),
+                () -> handleStatusOnce(event))) {
+            conversationExecutor.execute(event.getRecipientId(), () -> handleStatusOnce(event));
+        }
+    }
+
+    /**
+     * Forwards an event once the previous forward for its conversation has finished, and queues
+     * it on the local lane instead when the owner couldn't take it. An event without a remote
+     * owner queues behind forwards still in flight for its conversation. Decided atomically per
+     * conversation, so no event can slip past a forward that started before it.
+     *
+     * @return {@code false} if the event has no remote owner and nothing is in flight for its
+     * conversation, so the caller should queue it on the lane straight away
+     */
+    private boolean forwardInOrder(String phoneNumber, String owner, Supplier<CompletableFuture<Boolean>> forward,
+                                   Runnable handleLocally) {
+        CompletableFuture<Void> done = forwarding.compute(phoneNumber, (key, previous) -> {
+            boolean idle = previous == null || previous.isDone();
+            if (idle && owner == null) {
+                return null;
+            }
+            return (idle ? CompletableFuture.<Void>completedFuture(null) : previous)
+                    .thenCompose(ignored -> owner != null ? forward.get() : CompletableFuture.completedFuture(false))
+                    .thenAccept(forwarded -> {
+                        if (!forwarded) {
+                            conversationExecutor.execute(phoneNumber, handleLocally);
+                        }
+                    })
+                    .exceptionally(error -> {
+                        logger.error("Error forwarding webhook event for {}", phoneNumber, error);
+                        return null;
+                    });
+        });
+        if (done == null) {
+            return false;
+        }
+        done.whenComplete((ignored, error) -> forwarding.remove(phoneNumber, done));
+        return true;
+    }
+
+    /**
+     * Queues an event a peer forwarded because this node owns its conversation. It is never
+     * forwarded again, even if this node's view of the owner differs.
+     */
+    public void acceptForwarded(InboundMessageEvent event) {
+        conversationExecutor.execute(event.getFrom(), () -> handleMessageOnce(event));
+    }
+
+    public void acceptForwarded(StatusEvent event) {
+        conversationExecutor.execute(event.getRecipientId(), () -> handleStatusOnce(event));
+    }
+
+    // In a cluster the owner may get an event both from Meta and forwarded, or from a forward that
+    // timed out while the sender fell back to handling it, so handling is claimed once more
+    private void handleMessageOnce(InboundMessageEvent event) {
+        if (!router.isClustered() || deduplicator.firstHandoffMessage(event.getMessageId())) {
+            handleMessage(event);
+        }
+    }
+
+    private void handleStatusOnce(StatusEvent event) {
+        if (!router.isClustered() || deduplicator.firstHandoffStatus(event.getMessageId(), event.getStatus())) {
+            handleStatus(event);
+        }
+    }
+
+    private void handleMessage(InboundMessageEvent event) {
+        String from = event.getFrom();
+        String text = event.getText();
+        // Message text is patient data, so it stays out of INFO logs
+        logger.info(LogMarkers.SAMPLED, "Incoming message {} from {}", event.getMessageId(), from);
+        logger.debug("Message {} text: {}", event.getMessageId(), text);
+
+        // Queue incoming message for batched persistence to Firebase
+        Message inboundMessage = new Message(null, from, text, Timestamp.now(), Message.MessageDirection.INBOUND);
+        conversationService.recordLocally(inboundMessage);
+
+        autoReplyEngine.reply(from, text).ifPresent(rule -> {
+            logger.debug("Sending auto-reply {} to {}", rule.getId(), from);
+            outbox.submit(from, rule.getReply(), OutboundScheduler.Priority.INTERACTIVE);
+        });
+    }
+
+    private void handleStatus(StatusEvent event) {
+        if (event.getErrorCode() != null) {
+            logger.warn("Message {} to {} is {}: error {} {}", event.getMessageId(), event.getRecipientId(),
+                    event.getStatus(), event.getErrorCode(), event.getErrorTitle());
+        } else {
+            logger.info(LogMarkers.SAMPLED, "Message {} to {} is {}", event.getMessageId(), event.getRecipientId(),
+                    event.getStatus());
+        }
+        deliveryTracker.apply(event);
+        eventBus.publishStatus(event);
+    }
+
+    private static Timer processingTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("whatsapp.webhook.processing")
+                .description("Time to decode a webhook payload and handle its events")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -1,67 +1,64 @@
 package com.jaruratcare.whatsapp.service;
 
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class WhatsAppService {
     private static final Logger logger = LoggerFactory.getLogger(WhatsAppService.class);
 
-    @Value("${whatsapp.api-url}")
-    private String whatsappApiUrl;
-
-    @Value("${whatsapp.token}")
-    private String whatsappToken;
-
-    @Value("${whatsapp.phone-number-id}")
-    private String phoneNumberId;
-
     @Value("${whatsapp.webhook-verify-token}")
     private String webhookVerifyToken;
 
-    private final RestTemplate restTemplate = new RestTemplate();
-
-    public boolean sendMessage(String to, String text) {
-        String url = whatsappApiUrl + "/" + phoneNumberId + "/messages";
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setBearerAuth(whatsappToken);
-        headers.setContentType(MediaType.APPLICATION_JSON);
+    private final OutboundScheduler outboundScheduler;
+    private final Map<OutboundScheduler.Priority, Timer> sendSuccess = new EnumMap<>(OutboundScheduler.Priority.class);
+    private final Map<OutboundScheduler.Priority, Timer> sendFailure = new EnumMap<>(OutboundScheduler.Priority.class);
 
-        Map<String, Object> body = new HashMap<>();
-        body.put("messaging_product", "whatsapp");
-        body.put("to", to);
-        Map<String, String> textMap = new HashMap<>();
-        textMap.put("body", text);
-        body.put("text", textMap);
+    public WhatsAppService(OutboundScheduler outboundScheduler, MeterRegistry meterRegistry) {
+        this.outboundScheduler = outboundScheduler;
+        for (OutboundScheduler.Priority priority : OutboundScheduler.Priority.values()) {
+            sendSuccess.put(priority, sendTimer(meterRegistry, priority, "success"));
+            sendFailure.put(priority, sendTimer(meterRegistry, priority, "failure"));
+        }
+    }
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
+    /**
+     * Queues a text message on the rate-limited {@link OutboundScheduler}. The future completes
+     * once the message was accepted by the Graph API or retries were exhausted.
+     */
+    public CompletableFuture<SendResult> sendMessageAsync(String to, String text, OutboundScheduler.Priority priority) {
+        long start = System.nanoTime();
+        return outboundScheduler.submit(to, text, priority).whenComplete((result, error) -> {
+            boolean success = result != null && result.isSuccess();
+            (success ? sendSuccess : sendFailure).get(priority).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (success) {
+                logger.debug("Sent message {} to {}", result.getMessageId(), to);
+            } else if (result != null) {
+                logger.error("Failed to send message to {}: {} {}", to, result.getStatusCode(), result.getError());
+            }
+        });
+    }
 
-        try {
-            restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
-            logger.info("Successfully sent message to {}", to);
-            return true;
-        } catch (Exception e) {
-            logger.error("Failed to send message to {}: {}", to, e.getMessage());
-            return false;
-        }
+    private static Timer sendTimer(MeterRegistry meterRegistry, OutboundScheduler.Priority priority, String outcome) {
+        return Timer.builder("whatsapp.send")
+                .description("Time from queueing a message until it was sent or retries were exhausted")
+                .tag("priority", priority.name().toLowerCase())
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
     }
 
     public boolean verifyWebhook(String mode, String token, String challenge) {
-        logger.debug("Webhook verification - Mode: {}, Token: {}, Expected Token: {}", mode, token, webhookVerifyToken);
-        logger.debug("Token comparison - Received: '{}', Expected: '{}', Length: {} vs {}", 
-                    token, webhookVerifyToken, token.length(), webhookVerifyToken.length());
-        
         boolean modeMatch = "subscribe".equals(mode);
         boolean tokenMatch = webhookVerifyToken.equals(token);
         
@@ -1,13 +1,37 @@
 package com.jaruratcare.whatsapp;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.CompositeHealth;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.health.Status;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "whatsapp.outbox.path=target/test-outbox")
 class WhatsappBackendApplicationTests {
 
+	@Autowired
+	private HealthEndpoint healthEndpoint;
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void remoteDependenciesAreReportedOutsideTheProbes() {
+		// No Firebase credentials in tests, so Firestore is down
+		CompositeHealth dependencies = (CompositeHealth) healthEndpoint.healthForPath("dependencies");
+		assertThat(dependencies.getComponents()).containsKeys("firestore", "graphApi");
+		assertThat(dependencies.getComponents().get("firestore").getStatus()).isEqualTo(Status.DOWN);
+		assertThat(dependencies.getStatus()).isEqualTo(Status.DOWN);
+
+		for (String probe : new String[] {"liveness", "readiness"}) {
+			CompositeHealth health = (CompositeHealth) healthEndpoint.healthForPath(probe);
+			assertThat(health.getComponents()).doesNotContainKeys("firestore", "graphApi");
+			assertThat(health.getStatus()).isEqualTo(Status.UP);
+		}
+	}
+
 }
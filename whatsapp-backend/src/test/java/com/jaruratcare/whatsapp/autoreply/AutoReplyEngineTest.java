@@ -0,0 +1,135 @@
+package com.jaruratcare.whatsapp.autoreply;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AutoReplyEngineTest {
+
+	private static final String MENU_RULES = """
+			rules:
+			  - id: welcome
+			    match: exact
+			    patterns: [hey, hi]
+			    reply: Hi welcome to JaruratCare.
+			  - id: emergency
+			    match: regex
+			    patterns: ['chest\\s+pain', '\\bbleeding\\b']
+			    reply: Please call 108 now.
+			  - id: intake-start
+			    match: keyword
+			    patterns: [appointment, book a visit]
+			    reply: Reply 1 for a doctor or 2 for a lab test.
+			    next-state: intake
+			  - id: intake-doctor
+			    state: intake
+			    match: exact
+			    patterns: ["1"]
+			    reply: Please share the patient's name.
+			  - id: intake-invalid
+			    state: intake
+			    match: any
+			    reply: Please reply 1 or 2.
+			    next-state: intake
+			""";
+
+	@TempDir
+	Path directory;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void defaultRulesAnswerHeyOnly() {
+		AutoReplyEngine engine = new AutoReplyEngine(new DefaultResourceLoader(), meterRegistry,
+				"classpath:auto-reply-rules.yml", Duration.ZERO, Duration.ofMinutes(30), 100);
+
+		assertThat(engine.reply("911", "  Hey ")).map(AutoReplyRule::getReply).contains("Hi welcome to JaruratCare.");
+		assertThat(engine.reply("911", "hey there")).isEmpty();
+	}
+
+	@Test
+	void firstRuleInFileOrderWins() throws Exception {
+		AutoReplyEngine engine = engine(MENU_RULES);
+
+		assertThat(engine.reply("911", "HI")).map(AutoReplyRule::getId).contains("welcome");
+		assertThat(engine.reply("911", "I want to  BOOK a   visit")).map(AutoReplyRule::getId).contains("intake-start");
+		// Both match; the regex rule comes first
+		assertThat(engine.reply("922", "appointment, chest   pain since morning")).map(AutoReplyRule::getId)
+				.contains("emergency");
+		assertThat(engine.reply("933", "bookkeeping appointments")).isEmpty();
+	}
+
+	@Test
+	void menuStateIsTrackedPerConversation() throws Exception {
+		AutoReplyEngine engine = engine(MENU_RULES);
+
+		assertThat(engine.reply("911", "appointment please")).map(AutoReplyRule::getId).contains("intake-start");
+		assertThat(engine.reply("922", "1")).isEmpty();
+		assertThat(engine.reply("911", "3")).map(AutoReplyRule::getId).contains("intake-invalid");
+		assertThat(engine.reply("911", "1")).map(AutoReplyRule::getId).contains("intake-doctor");
+		// intake-doctor has no next state, so the menu is over
+		assertThat(engine.reply("911", "1")).isEmpty();
+	}
+
+	@Test
+	void reloadsChangedFileAndKeepsRulesWhenChangeIsInvalid() throws Exception {
+		Path file = directory.resolve("rules.yml");
+		AutoReplyEngine engine = engine(file, MENU_RULES);
+
+		write(file, MENU_RULES.replace("[hey, hi]", "[hello]"), 1);
+		engine.reloadIfChanged();
+		assertThat(engine.reply("911", "hi")).isEmpty();
+		assertThat(engine.reply("911", "hello")).isPresent();
+
+		write(file, MENU_RULES.replace("match: regex", "match: regex\n    bogus: true"), 2);
+		engine.reloadIfChanged();
+		assertThat(engine.reply("911", "hello")).isPresent();
+		assertThat(meterRegistry.get("whatsapp.autoreply.reload.failures").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void rejectsInvalidRules() {
+		assertThatThrownBy(() -> engine(MENU_RULES.replace("'chest\\s+pain'", "'chest(pain'")))
+				.hasRootCauseInstanceOf(PatternSyntaxException.class);
+		assertThatThrownBy(() -> engine(MENU_RULES.replace("id: emergency", "id: welcome")))
+				.hasRootCauseMessage("Duplicate auto-reply rule id welcome");
+	}
+
+	@Test
+	void keywordMatcherPicksLowestRuleAmongWholeWordMatches() {
+		KeywordMatcher matcher = new KeywordMatcher(List.of("he", "she", "his", "hers"), List.of(3, 2, 1, 0));
+
+		assertThat(matcher.firstMatch("ushers")).isEqualTo(-1);
+		assertThat(matcher.firstMatch("is it hers or his")).isEqualTo(0);
+		assertThat(matcher.firstMatch("she said")).isEqualTo(2);
+		assertThat(matcher.firstMatch("")).isEqualTo(-1);
+	}
+
+	private AutoReplyEngine engine(String rules) throws Exception {
+		return engine(directory.resolve("rules.yml"), rules);
+	}
+
+	private AutoReplyEngine engine(Path file, String rules) throws Exception {
+		write(file, rules, 0);
+		return new AutoReplyEngine(new DefaultResourceLoader(), meterRegistry, file.toUri().toString(),
+				Duration.ZERO, Duration.ofMinutes(30), 100);
+	}
+
+	private static void write(Path file, String content, int version) throws Exception {
+		Files.writeString(file, content);
+		// Distinct modification times even when the writes land within the same clock tick
+		Files.setLastModifiedTime(file, FileTime.from(Instant.parse("2024-01-01T00:00:00Z").plusSeconds(version)));
+	}
+}
@@ -0,0 +1,326 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jaruratcare.whatsapp.WhatsappBackendApplication;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs three nodes with static membership on localhost, each with its own local message store,
+ * and checks that conversations end up whole and in order on their owner whichever node Meta
+ * or a client happens to reach.
+ */
+class ClusterIntegrationTest {
+
+	private static final int NODES = 3;
+	private static final String SECRET = "cluster-test-secret";
+
+	@TempDir
+	static Path directory;
+
+	private static final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+	private static final List<String> urls = new ArrayList<>();
+	private static final HttpClient http = HttpClient.newHttpClient();
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+	private static HttpServer graphApi;
+
+	@BeforeAll
+	static void startCluster() throws Exception {
+		graphApi = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		graphApi.createContext("/", exchange -> {
+			exchange.getRequestBody().readAllBytes();
+			byte[] response = "{\"messages\":[{\"id\":\"wamid.SENT\"}]}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+		graphApi.start();
+
+		List<Integer> ports = new ArrayList<>();
+		StringJoiner peers = new StringJoiner(",");
+		for (int i = 0; i < NODES; i++) {
+			try (ServerSocket socket = new ServerSocket(0)) {
+				ports.add(socket.getLocalPort());
+			}
+			urls.add("http://127.0.0.1:" + ports.get(i));
+			peers.add(urls.get(i));
+		}
+		for (int i = 0; i < NODES; i++) {
+			contexts.add(new SpringApplicationBuilder(WhatsappBackendApplication.class).run(
+					"--server.port=" + ports.get(i),
+					"--whatsapp.store.type=local",
+					"--whatsapp.store.local.path=" + directory.resolve("node-" + i),
+					"--whatsapp.store.local.fsync=false",
+					"--whatsapp.outbox.path=" + directory.resolve("outbox-" + i),
+					"--whatsapp.outbox.fsync=false",
+					"--whatsapp.cluster.mode=static",
+					"--whatsapp.cluster.self=" + urls.get(i),
+					"--whatsapp.cluster.peers=" + peers,
+					"--whatsapp.cluster.secret=" + SECRET,
+					"--whatsapp.dedup.firestore.enabled=true",
+					"--whatsapp.api-url=http://127.0.0.1:" + graphApi.getAddress().getPort() + "/v19.0",
+					"--whatsapp.phone-number-id=12345",
+					"--whatsapp.outbound.recipient-burst=100"));
+		}
+	}
+
+	@AfterAll
+	static void stopCluster() {
+		contexts.forEach(ConfigurableApplicationContext::close);
+		if (graphApi != null) {
+			graphApi.stop(0);
+		}
+	}
+
+	@Test
+	void conversationsAreReadableInOrderFromAnyNode() throws Exception {
+		List<String> phoneNumbers = List.of("919800000001", "919800000002", "919800000003", "919800000004",
+				"919800000005", "919800000006");
+		for (int p = 0; p < phoneNumbers.size(); p++) {
+			String phoneNumber = phoneNumbers.get(p);
+			List<String> texts = new ArrayList<>();
+			for (int m = 1; m <= 5; m++) {
+				texts.add("message " + m);
+			}
+			assertThat(post(urls.get(p % NODES), "/webhook", webhook(phoneNumber, texts))).isEqualTo(200);
+		}
+
+		for (String phoneNumber : phoneNumbers) {
+			for (String url : urls) {
+				assertThat(contents(awaitMessages(url, phoneNumber, 5)))
+						.containsExactly("message 1", "message 2", "message 3", "message 4", "message 5");
+			}
+		}
+		// Each owner holds its conversations only because peers forwarded them
+		assertThat(forwards("inbound", "success")).isPositive();
+		assertThat(forwards("read", "success")).isPositive();
+		assertThat(forwards("inbound", "failure")).isZero();
+	}
+
+	@Test
+	void redeliveryToAnotherNodeIsRecordedOnce() throws Exception {
+		String payload = webhook("919800000099", List.of("only once"));
+		assertThat(post(urls.get(0), "/webhook", payload)).isEqualTo(200);
+		assertThat(post(urls.get(1), "/webhook", payload)).isEqualTo(200);
+		awaitMessages(urls.get(2), "919800000099", 1);
+		assertThat(post(urls.get(2), "/webhook", webhook("919800000099", List.of("afterwards")))).isEqualTo(200);
+
+		JsonNode messages = awaitMessages(urls.get(1), "919800000099", 2);
+		assertThat(contents(messages)).containsExactly("only once", "afterwards");
+	}
+
+	@Test
+	void redeliveryToTheSameNodeIsForwardedOnce() throws Exception {
+		ConversationRouter router = contexts.get(0).getBean(ConversationRouter.class);
+		String phoneNumber = Stream.iterate(919800000100L, n -> n + 1).map(String::valueOf)
+				.filter(candidate -> router.remoteOwnerOf(candidate) != null)
+				.findFirst().orElseThrow();
+		var duplicates = contexts.get(0).getBean(MeterRegistry.class).get("whatsapp.webhook.dedup")
+				.tag("result", "duplicate").counter();
+		double duplicatesBefore = duplicates.count();
+		double forwardsBefore = forwards("inbound", "success");
+
+		String payload = webhook(phoneNumber, List.of("forwarded once"));
+		assertThat(post(urls.get(0), "/webhook", payload)).isEqualTo(200);
+		assertThat(post(urls.get(0), "/webhook", payload)).isEqualTo(200);
+		awaitMessages(urls.get(0), phoneNumber, 1);
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (duplicates.count() == duplicatesBefore && System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+
+		assertThat(duplicates.count()).isGreaterThan(duplicatesBefore);
+		assertThat(forwards("inbound", "success") - forwardsBefore).isEqualTo(1);
+	}
+
+	@Test
+	void repliesSentThroughAnyNodeJoinTheConversation() throws Exception {
+		for (String url : urls) {
+			assertThat(post(url, "/send", "{\"to\":\"919800000042\",\"text\":\"via " + url + "\"}")).isEqualTo(200);
+		}
+
+		JsonNode messages = awaitMessages(urls.get(0), "919800000042", NODES);
+		assertThat(messages).allSatisfy(message -> assertThat(message.get("direction").asText()).isEqualTo("OUTBOUND"));
+	}
+
+	@Test
+	void streamsNewMessagesFromEveryNodeAndResumesAfterReconnect() throws Exception {
+		String phoneNumber = "919800000077";
+		List<EventStream> streams = new ArrayList<>();
+		for (String url : urls) {
+			streams.add(EventStream.open(url + "/messages/" + phoneNumber + "/stream", null));
+		}
+		assertThat(post(urls.get(0), "/webhook", webhook(phoneNumber, List.of("first")))).isEqualTo(200);
+
+		String lastEventId = null;
+		for (EventStream stream : streams) {
+			EventStream.Event event = stream.next("message");
+			assertThat(objectMapper.readTree(event.data()).get("content").asText()).isEqualTo("first");
+			lastEventId = event.id();
+			stream.close();
+		}
+
+		assertThat(post(urls.get(1), "/webhook", webhook(phoneNumber, List.of("while away")))).isEqualTo(200);
+		awaitMessages(urls.get(2), phoneNumber, 2);
+		try (EventStream resumed = EventStream.open(urls.get(2) + "/messages/" + phoneNumber + "/stream", lastEventId)) {
+			assertThat(objectMapper.readTree(resumed.next("message").data()).get("content").asText()).isEqualTo("while away");
+		}
+	}
+
+	@Test
+	void internalEndpointsRequireTheSecret() throws Exception {
+		HttpResponse<Void> response = http.send(HttpRequest.newBuilder(URI.create(urls.get(0) + ClusterClient.MESSAGES_PATH))
+				.header("Content-Type", "application/json")
+				.header(ClusterClient.TOKEN_HEADER, "wrong")
+				.POST(HttpRequest.BodyPublishers.ofString("{\"phoneNumber\":\"911\",\"content\":\"spoofed\"}"))
+				.build(), HttpResponse.BodyHandlers.discarding());
+		assertThat(response.statusCode()).isEqualTo(403);
+
+		response = http.send(HttpRequest.newBuilder(URI.create(urls.get(0) + "/messages/911"))
+				.header(ClusterClient.FORWARDED_HEADER, "http://evil")
+				.GET()
+				.build(), HttpResponse.BodyHandlers.discarding());
+		assertThat(response.statusCode()).isEqualTo(403);
+	}
+
+	private static JsonNode awaitMessages(String url, String phoneNumber, int expected) throws Exception {
+		long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+		JsonNode messages;
+		do {
+			HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(url + "/messages/" + phoneNumber))
+					.GET().build(), HttpResponse.BodyHandlers.ofString());
+			assertThat(response.statusCode()).isEqualTo(200);
+			messages = objectMapper.readTree(response.body());
+			if (messages.size() >= expected) {
+				break;
+			}
+			Thread.sleep(50);
+		} while (System.nanoTime() < deadline);
+		assertThat(messages).hasSize(expected);
+		return messages;
+	}
+
+	private static double forwards(String kind, String outcome) {
+		double total = 0;
+		for (ConfigurableApplicationContext context : contexts) {
+			var counter = context.getBean(MeterRegistry.class).find("whatsapp.cluster.forwards")
+					.tags("kind", kind, "outcome", outcome).counter();
+			total += counter != null ? counter.count() : 0;
+		}
+		return total;
+	}
+
+	private static List<String> contents(JsonNode messages) {
+		List<String> contents = new ArrayList<>();
+		messages.forEach(message -> contents.add(message.get("content").asText()));
+		return contents;
+	}
+
+	private static int post(String url, String path, String body) throws Exception {
+		return http.send(HttpRequest.newBuilder(URI.create(url + path))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(body))
+				.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+	}
+
+	/**
+	 * Minimal Server-Sent Events reader; lines are read on a background thread so a missing
+	 * event fails the test instead of hanging it.
+	 */
+	private record EventStream(HttpResponse<Stream<String>> response, BlockingQueue<String> lines)
+			implements AutoCloseable {
+
+		record Event(String name, String id, String data) {
+		}
+
+		static EventStream open(String url, String lastEventId) throws Exception {
+			HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).header("Accept", "text/event-stream");
+			if (lastEventId != null) {
+				request.header("Last-Event-ID", lastEventId);
+			}
+			HttpResponse<Stream<String>> response = http.send(request.build(),
+					HttpResponse.BodyHandlers.ofLines());
+			assertThat(response.statusCode()).isEqualTo(200);
+			BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+			Thread.ofVirtual().start(() -> {
+				try {
+					response.body().forEach(lines::add);
+				} catch (RuntimeException e) {
+					// Closed by the test
+				}
+			});
+			return new EventStream(response, lines);
+		}
+
+		Event next(String name) throws InterruptedException {
+			String eventName = null;
+			String id = null;
+			StringBuilder data = new StringBuilder();
+			long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+			while (System.nanoTime() < deadline) {
+				String line = lines.poll(100, TimeUnit.MILLISECONDS);
+				if (line == null) {
+					continue;
+				}
+				if (line.isEmpty()) {
+					if (name.equals(eventName)) {
+						return new Event(eventName, id, data.toString());
+					}
+					eventName = null;
+					data.setLength(0);
+				} else if (line.startsWith("event:")) {
+					eventName = line.substring(6);
+				} else if (line.startsWith("id:")) {
+					id = line.substring(3);
+				} else if (line.startsWith("data:")) {
+					data.append(line.substring(5));
+				}
+			}
+			throw new AssertionError("No " + name + " event within 20 s");
+		}
+
+		@Override
+		public void close() {
+			response.body().close();
+		}
+	}
+
+	private static String webhook(String from, List<String> texts) {
+		StringJoiner messages = new StringJoiner(",");
+		for (String text : texts) {
+			messages.add("{\"from\":\"" + from + "\",\"id\":\"wamid." + from + "." + text.replace(' ', '_')
+					+ "\",\"timestamp\":\"1718000000\",\"text\":{\"body\":\"" + text + "\"},\"type\":\"text\"}");
+		}
+		return "{\"object\":\"whatsapp_business_account\",\"entry\":[{\"id\":\"102290129340398\",\"changes\":[{\"value\":"
+				+ "{\"messaging_product\":\"whatsapp\",\"metadata\":{\"phone_number_id\":\"12345\"},\"messages\":["
+				+ messages + "]},\"field\":\"messages\"}]}]}";
+	}
+}
@@ -0,0 +1,51 @@
+package com.jaruratcare.whatsapp.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashRingTest {
+
+	private static final int KEYS = 30_000;
+
+	@Test
+	void spreadsConversationsEvenly() {
+		List<String> members = List.of("http://10.0.0.1:8082", "http://10.0.0.2:8082", "http://10.0.0.3:8082");
+		HashRing ring = new HashRing(members, 128);
+
+		Map<String, Integer> owned = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			owned.merge(ring.ownerOf(phoneNumber(i)), 1, Integer::sum);
+		}
+		assertThat(owned).containsOnlyKeys(members);
+		assertThat(owned.values()).allSatisfy(count -> assertThat(count).isBetween(KEYS / 4, KEYS * 5 / 12));
+	}
+
+	@Test
+	void addingNodeOnlyMovesConversationsToIt() {
+		List<String> members = List.of("http://10.0.0.1:8082", "http://10.0.0.2:8082", "http://10.0.0.3:8082");
+		HashRing before = new HashRing(members, 128);
+		HashRing after = new HashRing(List.of("http://10.0.0.1:8082", "http://10.0.0.2:8082", "http://10.0.0.3:8082",
+				"http://10.0.0.4:8082"), 128);
+
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String owner = after.ownerOf(phoneNumber(i));
+			if (!owner.equals(before.ownerOf(phoneNumber(i)))) {
+				assertThat(owner).isEqualTo("http://10.0.0.4:8082");
+				moved++;
+			}
+		}
+		// A quarter would move with a perfect spread
+		assertThat(moved).isBetween(KEYS / 6, KEYS / 3);
+		assertThat(new HashRing(List.of(), 128).ownerOf("919876543210")).isNull();
+	}
+
+	private static String phoneNumber(int i) {
+		return String.valueOf(919_800_000_000L + i);
+	}
+}
@@ -0,0 +1,37 @@
+package com.jaruratcare.whatsapp.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+class FirestoreProviderTest {
+
+	@Test
+	void failsOnFirstUseAndRepeatsTheFailureUntilTheRetryInterval() {
+		FirestoreProvider provider = new FirestoreProvider("missing-service-account.json", "", false, Duration.ofHours(1));
+		assertThat(provider.isInitialized()).isFalse();
+
+		Throwable first = catchThrowable(provider::get);
+		Throwable second = catchThrowable(provider::get);
+
+		assertThat(first).isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("Firebase is not available")
+				.hasRootCauseMessage("class path resource [missing-service-account.json] cannot be opened because it does not exist");
+		// Not tried again within the interval
+		assertThat(second).isSameAs(first);
+		assertThat(provider.isInitialized()).isFalse();
+	}
+
+	@Test
+	void triesAgainOnceTheRetryIntervalPassed() {
+		FirestoreProvider provider = new FirestoreProvider("missing-service-account.json", "", false, Duration.ZERO);
+
+		Throwable first = catchThrowable(provider::get);
+		Throwable second = catchThrowable(provider::get);
+
+		assertThat(second).isInstanceOf(IllegalStateException.class).isNotSameAs(first);
+	}
+}
@@ -0,0 +1,44 @@
+package com.jaruratcare.whatsapp.health;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VirtualThreadPinningMonitorTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final VirtualThreadPinningMonitor monitor = new VirtualThreadPinningMonitor(meterRegistry, Duration.ofMillis(10));
+
+	@AfterEach
+	void tearDown() {
+		monitor.stop();
+	}
+
+	@Test
+	void countsVirtualThreadsBlockingInsideSynchronized() throws Exception {
+		monitor.start();
+		Object lock = new Object();
+
+		Thread.ofVirtual().start(() -> {
+			synchronized (lock) {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}).join();
+
+		// JFR streams events in chunks, roughly once a second
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (monitor.getPinnedCount() == 0 && System.nanoTime() < deadline) {
+			Thread.sleep(100);
+		}
+		assertThat(monitor.getPinnedCount()).isEqualTo(1);
+		assertThat(meterRegistry.get("whatsapp.virtual-threads.pinned").counter().count()).isEqualTo(1);
+	}
+}
@@ -0,0 +1,35 @@
+package com.jaruratcare.whatsapp.logging;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LogRedactorTest {
+
+	@Test
+	void masksPhoneNumbersKeepingLastFourDigits() {
+		assertThat(LogRedactor.redact("Incoming message wamid.A1 from 919876543210"))
+				.isEqualTo("Incoming message wamid.A1 from ********3210");
+		assertThat(LogRedactor.redact("Send to +14155550123 failed"))
+				.isEqualTo("Send to +*******0123 failed");
+	}
+
+	@Test
+	void leavesShortNumbersAndIdentifiersAlone() {
+		String text = "Processed 3 events in 1200 ms for wamid.HBgMOTE5ODc2NTQzMjEwFQIAEhgg";
+
+		assertThat(LogRedactor.redact(text)).isSameAs(text);
+	}
+
+	@Test
+	void masksTokens() {
+		assertThat(LogRedactor.redact("Authorization: Bearer abc.def-123"))
+				.isEqualTo("Authorization: Bearer [REDACTED]");
+		assertThat(LogRedactor.redact("GET /webhook?hub.mode=subscribe&hub.verify_token=s3cret&hub.challenge=42"))
+				.isEqualTo("GET /webhook?hub.mode=subscribe&hub.verify_token=[REDACTED]&hub.challenge=42");
+		assertThat(LogRedactor.redact("{\"token\":\"s3cret\"}"))
+				.isEqualTo("{\"token\":\"[REDACTED]\"}");
+		assertThat(LogRedactor.redact("using EAAGm0PX4ZCpsBAKZCxyz1234567890abc"))
+				.isEqualTo("using [REDACTED]");
+	}
+}
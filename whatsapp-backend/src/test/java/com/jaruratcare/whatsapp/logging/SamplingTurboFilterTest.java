@@ -0,0 +1,48 @@
+package com.jaruratcare.whatsapp.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SamplingTurboFilterTest {
+
+	private final Logger logger = new LoggerContext().getLogger("test");
+	private final SamplingTurboFilter filter = new SamplingTurboFilter();
+
+	@Test
+	void logsOneInRatePerMessageFormat() {
+		filter.setRate(10);
+
+		int messages = 0;
+		int statuses = 0;
+		for (int i = 0; i < 100; i++) {
+			if (decide(Level.INFO, "Incoming message {} from {}") == FilterReply.NEUTRAL) {
+				messages++;
+			}
+			if (i < 20 && decide(Level.INFO, "Message {} to {} is {}") == FilterReply.NEUTRAL) {
+				statuses++;
+			}
+		}
+
+		assertThat(messages).isEqualTo(10);
+		assertThat(statuses).isEqualTo(2);
+	}
+
+	@Test
+	void neverSamplesWarningsOrUnmarkedEvents() {
+		filter.setRate(1000);
+
+		for (int i = 0; i < 5; i++) {
+			assertThat(decide(Level.WARN, "Message {} failed")).isEqualTo(FilterReply.NEUTRAL);
+			assertThat(filter.decide(null, logger, Level.INFO, "Unmarked {}", null, null)).isEqualTo(FilterReply.NEUTRAL);
+		}
+	}
+
+	private FilterReply decide(Level level, String format) {
+		return filter.decide(LogMarkers.SAMPLED, logger, level, format, null, null);
+	}
+}
@@ -0,0 +1,109 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jaruratcare.whatsapp.cluster.ConversationRouter;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.dto.BulkSendJobStatus;
+import com.jaruratcare.whatsapp.model.dto.SendMessageRequest;
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BulkSendServiceTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private final MessageWriteBehindService writer = new MessageWriteBehindService(store, meterRegistry, 50, 20, 1000, 1000, 3, 10, 100);
+	private final ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+	private final DeliveryStatusTracker deliveryTracker = new DeliveryStatusTracker(cache, writer, store, meterRegistry,
+			Duration.ofMillis(50), 1000, Duration.ofMinutes(1), Duration.ofDays(1));
+	private final OutboundScheduler scheduler = new OutboundScheduler(new OutboundSchedulerTest.StubGraphApiClient() {
+		@Override
+		public CompletableFuture<SendResult> sendText(String to, String text) {
+			if (to.startsWith("bad")) {
+				return CompletableFuture.completedFuture(SendResult.failed(400, "Invalid recipient"));
+			}
+			return super.sendText(to, text);
+		}
+	}, meterRegistry, 1000, 1000, 10, 10, 1, 10, 100);
+	@TempDir
+	Path directory;
+	private OutboundOutbox outbox;
+	private BulkSendService bulkSendService;
+
+	@BeforeEach
+	void setUp() {
+		ConversationService conversationService = new ConversationService(store, writer, cache,
+				new ConversationRouter(Optional.empty(), meterRegistry, 128), null,
+				new ConversationEventBus(meterRegistry, 16, 100, Duration.ofSeconds(15), false), deliveryTracker);
+		outbox = new OutboundOutbox(new WhatsAppService(scheduler, meterRegistry), conversationService, new ObjectMapper(),
+				meterRegistry, directory, false, 64, DataSize.ofMegabytes(1), 1, Duration.ofSeconds(1),
+				Duration.ofSeconds(1), Duration.ofSeconds(1));
+		bulkSendService = new BulkSendService(outbox, 4, 10, 10, false);
+	}
+
+	@AfterEach
+	void tearDown() {
+		bulkSendService.shutdown();
+		outbox.shutdown();
+		scheduler.shutdown();
+		deliveryTracker.shutdown();
+		writer.shutdown();
+	}
+
+	@Test
+	void sendsAllMessagesAndReportsProgress() throws Exception {
+		List<SendMessageRequest> messages = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			messages.add(request((i % 10 == 0 ? "bad-" : "91") + i, "Clinic reminder"));
+		}
+
+		String jobId = bulkSendService.submit(messages);
+		BulkSendJobStatus status = awaitCompletion(jobId);
+
+		assertThat(status.getTotal()).isEqualTo(50);
+		assertThat(status.getSent()).isEqualTo(45);
+		assertThat(status.getFailed()).isEqualTo(5);
+		assertThat(status.getPending()).isZero();
+		assertThat(status.getFailures()).hasSize(5).allMatch(failure -> failure.getTo().startsWith("bad-"));
+		assertThat(status.getMessagesPerSecond()).isPositive();
+
+		writer.shutdown();
+		assertThat(store.saved()).hasSize(45).allMatch(message -> message.getDirection() == Message.MessageDirection.OUTBOUND);
+	}
+
+	@Test
+	void returnsNullForUnknownJobs() {
+		assertThat(bulkSendService.getStatus("missing")).isNull();
+	}
+
+	private BulkSendJobStatus awaitCompletion(String jobId) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		BulkSendJobStatus status = bulkSendService.getStatus(jobId);
+		while (!"COMPLETED".equals(status.getState()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+			status = bulkSendService.getStatus(jobId);
+		}
+		return status;
+	}
+
+	private static SendMessageRequest request(String to, String text) {
+		SendMessageRequest request = new SendMessageRequest();
+		request.setTo(to);
+		request.setText(text);
+		return request;
+	}
+}
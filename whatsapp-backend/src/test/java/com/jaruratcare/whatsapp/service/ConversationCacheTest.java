@@ -0,0 +1,100 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConversationCacheTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void servesLoadedConversationAndAppendsNewMessages() {
+		ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+
+		assertThat(cache.get("911")).isNull();
+		assertThat(cache.beginLoad("911")).isTrue();
+		cache.completeLoad("911", List.of(message("a", "911", 1)));
+		cache.append(message("b", "911", 2));
+
+		assertThat(cache.get("911")).extracting(Message::getId).containsExactly("a", "b");
+		assertThat(meterRegistry.get("whatsapp.cache.conversations.requests").tag("result", "hit").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("whatsapp.cache.conversations.requests").tag("result", "miss").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void keepsMessagesAppendedWhileLoading() {
+		ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+
+		cache.beginLoad("911");
+		assertThat(cache.get("911")).isNull();
+		cache.append(message("c", "911", 3));
+		// The load raced with the write and already contains "c"
+		List<Message> cached = cache.completeLoad("911", List.of(message("a", "911", 1), message("c", "911", 3)));
+
+		assertThat(cached).extracting(Message::getId).containsExactly("a", "c");
+	}
+
+	@Test
+	void ignoresAppendsForUncachedConversations() {
+		ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+
+		cache.append(message("a", "911", 1));
+
+		assertThat(cache.size()).isZero();
+		assertThat(cache.estimatedBytes()).isZero();
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedConversationsPastMemoryCeiling() {
+		// Room for roughly two single-message conversations
+		ConversationCache cache = new ConversationCache(meterRegistry, 400);
+		load(cache, "911");
+		load(cache, "922");
+		cache.get("911");
+		load(cache, "933");
+
+		assertThat(cache.get("922")).isNull();
+		assertThat(cache.get("911")).isNotNull();
+		assertThat(cache.get("933")).isNotNull();
+		assertThat(cache.estimatedBytes()).isLessThanOrEqualTo(400);
+		assertThat(meterRegistry.get("whatsapp.cache.conversations.evictions").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void pagesFromCursorWithoutCopyingTheConversation() {
+		ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+		cache.beginLoad("911");
+		// Ties on the timestamp are broken by id, whatever order the store returned them in
+		cache.completeLoad("911", List.of(message("a", "911", 1), message("c", "911", 2), message("b", "911", 2),
+				message("d", "911", 3), message("e", "911", 4)));
+
+		MessagePage first = cache.page("911", null, null, 2);
+		MessagePage second = cache.page("911", null, MessageCursor.decode(first.getNextCursor()), 2);
+		MessagePage last = cache.page("911", null, MessageCursor.decode(second.getNextCursor()), 2);
+		MessagePage since = cache.page("911", Timestamp.ofTimeSecondsAndNanos(2, 0), null, 10);
+
+		assertThat(first.getMessages()).extracting(Message::getId).containsExactly("a", "b");
+		assertThat(second.getMessages()).extracting(Message::getId).containsExactly("c", "d");
+		assertThat(last.getMessages()).extracting(Message::getId).containsExactly("e");
+		assertThat(last.getNextCursor()).isNull();
+		assertThat(since.getMessages()).extracting(Message::getId).containsExactly("d", "e");
+		assertThat(cache.page("922", null, null, 2)).isNull();
+	}
+
+	private static void load(ConversationCache cache, String phoneNumber) {
+		cache.beginLoad(phoneNumber);
+		cache.completeLoad(phoneNumber, List.of(message(phoneNumber + "-1", phoneNumber, 1)));
+	}
+
+	private static Message message(String id, String phoneNumber, long seconds) {
+		return new Message(id, phoneNumber, "hello", Timestamp.ofTimeSecondsAndNanos(seconds, 0), Message.MessageDirection.INBOUND);
+	}
+}
@@ -0,0 +1,111 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConversationEventBusTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final ConversationEventBus bus = new ConversationEventBus(meterRegistry, 4, 10, Duration.ofMinutes(1), false);
+
+	@AfterEach
+	void tearDown() {
+		bus.shutdown();
+	}
+
+	@Test
+	void dropsSlowSubscriberWithoutHoldingUpOthers() throws Exception {
+		CountDownLatch unblock = new CountDownLatch(1);
+		RecordingSink slow = new RecordingSink(unblock);
+		RecordingSink fast = new RecordingSink(null);
+		bus.subscribe("911", slow).start(null);
+		bus.subscribe("911", fast).start(null);
+
+		long start = System.nanoTime();
+		for (int i = 1; i <= 20; i++) {
+			bus.publishMessage(message("m" + i, i));
+			// Give the fast subscriber's writer a chance, so only the slow one falls behind
+			awaitCount(fast, i);
+		}
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(10));
+
+		assertThat(fast.ids()).hasSize(20);
+		assertThat(slow.closedReason).isNotNull();
+		assertThat(bus.getSubscriberCount()).isEqualTo(1);
+		assertThat(meterRegistry.get("whatsapp.stream.dropped").counter().count()).isEqualTo(1);
+		unblock.countDown();
+	}
+
+	@Test
+	void deliversEventsPublishedDuringReplayExceptReplayedMessages() throws Exception {
+		RecordingSink sink = new RecordingSink(null);
+		ConversationEventBus.Subscription subscription = bus.subscribe("911", sink);
+		bus.publishMessage(message("m1", 1));
+		bus.publishMessage(message("m2", 2));
+		bus.publishMessage(new Message("x1", "922", "other conversation", Timestamp.ofTimeSecondsAndNanos(2, 0),
+				Message.MessageDirection.INBOUND));
+
+		subscription.start(MessageCursor.of(message("m1", 1)));
+		bus.publishMessage(message("m3", 3));
+
+		awaitCount(sink, 2);
+		assertThat(sink.ids()).containsExactly("m2", "m3");
+		subscription.cancel();
+		assertThat(bus.getSubscriberCount()).isZero();
+	}
+
+	private static void awaitCount(RecordingSink sink, int count) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (sink.events.size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	private static Message message(String id, long seconds) {
+		return new Message(id, "911", "message " + id, Timestamp.ofTimeSecondsAndNanos(seconds, 0),
+				Message.MessageDirection.INBOUND);
+	}
+
+	private static final class RecordingSink implements ConversationEventBus.EventSink {
+		private final CountDownLatch blockUntil;
+		private final List<ConversationEventBus.Event> events = new CopyOnWriteArrayList<>();
+		private volatile String closedReason;
+
+		private RecordingSink(CountDownLatch blockUntil) {
+			this.blockUntil = blockUntil;
+		}
+
+		@Override
+		public void send(ConversationEventBus.Event event) {
+			events.add(event);
+			if (blockUntil != null) {
+				try {
+					blockUntil.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void close(String reason) {
+			closedReason = reason;
+		}
+
+		private List<String> ids() {
+			return events.stream().map(event -> ((Message) event.data()).getId()).toList();
+		}
+	}
+}
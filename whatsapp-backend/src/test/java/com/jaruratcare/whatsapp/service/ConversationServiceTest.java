@@ -0,0 +1,104 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.cluster.ConversationRouter;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConversationServiceTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private final MessageWriteBehindService writer = new MessageWriteBehindService(store, meterRegistry, 100, 10, 1000, 1000, 3, 10, 100);
+	private final ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+	private final DeliveryStatusTracker deliveryTracker = new DeliveryStatusTracker(cache, writer, store, meterRegistry,
+			Duration.ofMillis(50), 1000, Duration.ofMinutes(1), Duration.ofDays(1));
+	private final ConversationService service =
+			new ConversationService(store, writer, cache,
+					new ConversationRouter(Optional.empty(), meterRegistry, 128), null,
+					new ConversationEventBus(meterRegistry, 16, 100, Duration.ofSeconds(15), false), deliveryTracker);
+
+	@AfterEach
+	void tearDown() {
+		deliveryTracker.shutdown();
+		writer.shutdown();
+	}
+
+	@Test
+	void readsHotConversationsWithoutQueryingFirestore() throws Exception {
+		service.record(message("911", 1)).get(5, TimeUnit.SECONDS);
+
+		assertThat(service.getMessages("911")).hasSize(1);
+		service.record(message("911", 2));
+		assertThat(service.getMessages("911")).hasSize(2);
+		assertThat(store.queries).hasValue(1);
+	}
+
+	@Test
+	void includesMessagesNotYetCommitted() {
+		service.record(message("911", 1));
+
+		assertThat(service.getMessages("911")).hasSize(1);
+	}
+
+	@Test
+	void pagesThroughConversationWithCursors() throws Exception {
+		for (int i = 1; i <= 5; i++) {
+			service.record(message("911", i)).get(5, TimeUnit.SECONDS);
+		}
+
+		List<Message> all = new ArrayList<>();
+		MessageCursor cursor = null;
+		int pages = 0;
+		do {
+			MessagePage page = service.getMessagesPage("911", null, cursor, 2);
+			all.addAll(page.getMessages());
+			cursor = page.getNextCursor() != null ? MessageCursor.decode(page.getNextCursor()) : null;
+			pages++;
+		} while (cursor != null);
+
+		assertThat(pages).isEqualTo(3);
+		assertThat(all).extracting(m -> m.getTimestamp().getSeconds()).containsExactly(1L, 2L, 3L, 4L, 5L);
+	}
+
+	@Test
+	void returnsOnlyMessagesSinceTimestamp() throws Exception {
+		for (int i = 1; i <= 5; i++) {
+			service.record(message("911", i)).get(5, TimeUnit.SECONDS);
+		}
+
+		MessagePage page = service.getMessagesPage("911", Timestamp.ofTimeSecondsAndNanos(3, 0), null, 10);
+
+		assertThat(page.getMessages()).extracting(m -> m.getTimestamp().getSeconds()).containsExactly(4L, 5L);
+		assertThat(page.getNextCursor()).isNull();
+	}
+
+	@Test
+	void exportsWholeConversationPageByPage() throws Exception {
+		for (int i = 1; i <= 7; i++) {
+			service.record(message("911", i)).get(5, TimeUnit.SECONDS);
+		}
+		List<Integer> pageSizes = new ArrayList<>();
+
+		service.exportMessages("911", 3, page -> pageSizes.add(page.size()));
+
+		assertThat(pageSizes).containsExactly(3, 3, 1);
+	}
+
+	private static Message message(String phoneNumber, long seconds) {
+		return new Message(null, phoneNumber, "message " + seconds, Timestamp.ofTimeSecondsAndNanos(seconds, 0),
+				Message.MessageDirection.INBOUND);
+	}
+}
@@ -0,0 +1,111 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.Message.DeliveryStatus;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeliveryStatusTrackerTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private final MessageWriteBehindService writer = new MessageWriteBehindService(store, meterRegistry, 100, 10, 1000, 1000, 3, 10, 100);
+	private final ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+	// Flushed by the tests themselves
+	private final DeliveryStatusTracker tracker = new DeliveryStatusTracker(cache, writer, store, meterRegistry,
+			Duration.ofHours(1), 1000, Duration.ofMinutes(5), Duration.ofDays(7));
+
+	@AfterEach
+	void tearDown() {
+		tracker.shutdown();
+		writer.shutdown();
+	}
+
+	@Test
+	void coalescesStatusBurstIntoOneWritePerMessage() throws Exception {
+		Message message = sent("m1", "wamid.1", 10);
+		cache.beginLoad("911");
+		cache.completeLoad("911", List.of(message));
+		tracker.track(message);
+
+		tracker.apply(status("wamid.1", "sent", 11));
+		tracker.apply(status("wamid.1", "delivered", 12));
+		tracker.apply(status("wamid.1", "read", 13));
+		// Arrives late and must not move the message back
+		tracker.apply(status("wamid.1", "delivered", 12));
+		tracker.flush();
+		awaitSaved(1);
+
+		Message written = store.saved().get(0);
+		assertThat(written.getId()).isEqualTo("m1");
+		assertThat(written.getDeliveryStatus()).isEqualTo(DeliveryStatus.READ);
+		assertThat(written.getStatusUpdatedAt()).isEqualTo(Timestamp.ofTimeSecondsAndNanos(13, 0));
+		assertThat(cache.get("911")).singleElement().extracting(Message::getDeliveryStatus).isEqualTo(DeliveryStatus.READ);
+		assertThat(meterRegistry.get("whatsapp.delivery.updates").counter().count()).isEqualTo(3);
+		assertThat(meterRegistry.get("whatsapp.delivery.writes").counter().count()).isEqualTo(1);
+		// The original message object is left untouched for readers holding it
+		assertThat(message.getDeliveryStatus()).isEqualTo(DeliveryStatus.ACCEPTED);
+	}
+
+	@Test
+	void findsUndeliveredAndFailedMessagesIncludingStatusesThatArrivedFirst() throws Exception {
+		tracker.apply(new StatusEvent("wamid.2", "pn", "911", "failed", 21, 131047, "Re-engagement message"));
+		tracker.track(sent("m1", "wamid.1", 10));
+		tracker.track(sent("m2", "wamid.2", 20));
+		tracker.track(sent("m3", "wamid.3", 30));
+		tracker.apply(status("wamid.3", "delivered", 31));
+		tracker.flush();
+		awaitSaved(2);
+
+		assertThat(tracker.find(List.of(DeliveryStatus.FAILED), null, 10)).singleElement().satisfies(failed -> {
+			assertThat(failed.getId()).isEqualTo("m2");
+			assertThat(failed.getDeliveryError()).isEqualTo("131047 Re-engagement message");
+		});
+		List<DeliveryStatus> undelivered = List.of(DeliveryStatus.ACCEPTED, DeliveryStatus.SENT, DeliveryStatus.FAILED);
+		assertThat(tracker.find(undelivered, null, 10)).extracting(Message::getId).containsExactly("m1", "m2");
+		assertThat(tracker.find(undelivered, Instant.ofEpochSecond(15), 10)).extracting(Message::getId).containsExactly("m1");
+		assertThat(tracker.find(undelivered, null, 1)).extracting(Message::getId).containsExactly("m1");
+	}
+
+	@Test
+	void findsStoredMessagesWithStatusChangesNotWrittenYet() throws Exception {
+		// Recorded before a restart, so not tracked by this instance
+		store.saveMessages(List.of(sent("m1", "wamid.1", 10), sent("m2", "wamid.2", 20)));
+		Message tracked = sent("m3", "wamid.3", 30);
+		store.saveMessages(List.of(tracked));
+		tracker.track(tracked);
+		tracker.apply(status("wamid.3", "delivered", 31));
+
+		List<DeliveryStatus> undelivered = List.of(DeliveryStatus.ACCEPTED, DeliveryStatus.SENT, DeliveryStatus.FAILED);
+		assertThat(tracker.find(undelivered, null, 10)).extracting(Message::getId).containsExactly("m1", "m2");
+		assertThat(tracker.find(List.of(DeliveryStatus.DELIVERED), null, 10)).extracting(Message::getId).containsExactly("m3");
+	}
+
+	private void awaitSaved(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (store.saved().size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(store.saved()).hasSize(count);
+	}
+
+	private static Message sent(String id, String wamid, long seconds) {
+		Message message = Message.sent("911", "message " + id, wamid);
+		message.setId(id);
+		message.setTimestamp(Timestamp.ofTimeSecondsAndNanos(seconds, 0));
+		return message;
+	}
+
+	private static StatusEvent status(String wamid, String status, long seconds) {
+		return new StatusEvent(wamid, "pn", "911", status, seconds, null, null);
+	}
+}
@@ -0,0 +1,115 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the client against a local stub standing in for graph.facebook.com.
+ */
+class GraphApiClientTest {
+
+	private HttpServer server;
+	private GraphApiClient client;
+	private final AtomicReference<String> lastBody = new AtomicReference<>();
+	private final AtomicReference<String> lastAuthorization = new AtomicReference<>();
+	private final AtomicInteger responseStatus = new AtomicInteger(200);
+	private volatile long responseDelayMillis;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v19.0/12345/messages", exchange -> {
+			lastAuthorization.set(exchange.getRequestHeaders().getFirst("Authorization"));
+			lastBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+			try {
+				Thread.sleep(responseDelayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] response = (responseStatus.get() == 200
+					? "{\"messaging_product\":\"whatsapp\",\"contacts\":[{\"input\":\"911\",\"wa_id\":\"911\"}],\"messages\":[{\"id\":\"wamid.TEST\"}]}"
+					: "{\"error\":{\"message\":\"Rate limit hit\",\"code\":130429}}").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(responseStatus.get(), response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+		server.createContext("/v19.0/12345", exchange -> {
+			lastAuthorization.set(exchange.getRequestHeaders().getFirst("Authorization"));
+			byte[] response = "{\"id\":\"12345\"}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(responseStatus.get(), response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+		server.start();
+		String apiUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/v19.0";
+		client = new GraphApiClient(apiUrl, "secret-token", "12345", 1000, 1000);
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	void sendsPreSerializedBodyAndReturnsMessageId() throws Exception {
+		SendResult result = client.sendText("911", "Hi \"there\"\nline two").get(5, TimeUnit.SECONDS);
+
+		assertThat(result.isSuccess()).isTrue();
+		assertThat(result.getMessageId()).isEqualTo("wamid.TEST");
+		assertThat(lastAuthorization.get()).isEqualTo("Bearer secret-token");
+		JsonNode body = new ObjectMapper().readTree(lastBody.get());
+		assertThat(body.get("messaging_product").asText()).isEqualTo("whatsapp");
+		assertThat(body.get("to").asText()).isEqualTo("911");
+		assertThat(body.at("/text/body").asText()).isEqualTo("Hi \"there\"\nline two");
+	}
+
+	@Test
+	void reportsErrorStatusWithoutThrowing() throws Exception {
+		responseStatus.set(429);
+
+		SendResult result = client.sendText("911", "hello").get(5, TimeUnit.SECONDS);
+
+		assertThat(result.isSuccess()).isFalse();
+		assertThat(result.getStatusCode()).isEqualTo(429);
+		assertThat(result.getError()).contains("Rate limit hit");
+		assertThat(result.getErrorCode()).isEqualTo(130429);
+	}
+
+	@Test
+	void reportsTimeoutAsFailedResult() throws Exception {
+		responseDelayMillis = 2000;
+
+		SendResult result = client.sendText("911", "hello").get(5, TimeUnit.SECONDS);
+
+		assertThat(result.isSuccess()).isFalse();
+		assertThat(result.getStatusCode()).isZero();
+	}
+
+	@Test
+	void probesPhoneNumberWithoutSending() throws Exception {
+		assertThat(client.probe().get(5, TimeUnit.SECONDS)).isEqualTo(200);
+		assertThat(lastAuthorization.get()).isEqualTo("Bearer secret-token");
+		assertThat(lastBody.get()).isNull();
+
+		responseStatus.set(401);
+		assertThat(client.probe().get(5, TimeUnit.SECONDS)).isEqualTo(401);
+	}
+}
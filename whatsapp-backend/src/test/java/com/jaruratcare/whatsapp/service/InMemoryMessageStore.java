@@ -0,0 +1,93 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory {@link MessageStore} that records committed batches.
+ */
+class InMemoryMessageStore implements MessageStore {
+	final List<List<Message>> batches = new CopyOnWriteArrayList<>();
+	final AtomicInteger queries = new AtomicInteger();
+	final Set<String> claims = ConcurrentHashMap.newKeySet();
+	volatile boolean failing;
+
+	@Override
+	public void saveMessages(List<Message> messages) throws ExecutionException {
+		if (failing) {
+			throw new ExecutionException(new IllegalStateException("Firestore unavailable"));
+		}
+		batches.add(List.copyOf(messages));
+	}
+
+	@Override
+	public List<Message> findMessagesByPhoneNumber(String phoneNumber) {
+		queries.incrementAndGet();
+		List<Message> messages = new ArrayList<>();
+		for (Message message : saved()) {
+			if (phoneNumber.equals(message.getPhoneNumber())) {
+				messages.add(message);
+			}
+		}
+		messages.sort(MessageCursor.ORDER);
+		return messages;
+	}
+
+	@Override
+	public MessagePage findMessagesPage(String phoneNumber, Timestamp since, MessageCursor startAfter, int limit) {
+		List<Message> matching = new ArrayList<>();
+		for (Message message : findMessagesByPhoneNumber(phoneNumber)) {
+			if ((since == null || message.getTimestamp().compareTo(since) > 0)
+					&& (startAfter == null || startAfter.isBefore(message))) {
+				matching.add(message);
+			}
+		}
+		if (matching.size() > limit) {
+			List<Message> page = new ArrayList<>(matching.subList(0, limit));
+			return new MessagePage(page, MessageCursor.of(page.get(limit - 1)).encode());
+		}
+		return new MessagePage(matching, null);
+	}
+
+	@Override
+	public List<Message> findMessagesByDeliveryStatus(Collection<Message.DeliveryStatus> statuses, Timestamp sentBefore,
+			int limit) {
+		// Later saves of a message replace earlier ones
+		Map<String, Message> latest = new LinkedHashMap<>();
+		for (Message message : saved()) {
+			latest.put(message.getId(), message);
+		}
+		List<Message> matching = new ArrayList<>();
+		for (Message message : latest.values()) {
+			if (statuses.contains(message.getDeliveryStatus())
+					&& (sentBefore == null || message.getTimestamp().compareTo(sentBefore) < 0)) {
+				matching.add(message);
+			}
+		}
+		matching.sort(MessageCursor.ORDER);
+		return matching.size() > limit ? new ArrayList<>(matching.subList(0, limit)) : matching;
+	}
+
+	@Override
+	public boolean claimWebhookEvent(String key, Duration ttl) {
+		return claims.add(key);
+	}
+
+	List<Message> saved() {
+		return batches.stream().flatMap(List::stream).toList();
+	}
+}
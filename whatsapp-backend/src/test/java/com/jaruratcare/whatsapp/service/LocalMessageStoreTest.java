@@ -0,0 +1,175 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.MessageCursor;
+import com.jaruratcare.whatsapp.model.MessagePage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalMessageStoreTest {
+
+	private static final Duration CLAIM_TTL = Duration.ofHours(1);
+
+	@TempDir
+	Path directory;
+
+	private final List<LocalMessageStore> opened = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		opened.forEach(LocalMessageStore::close);
+	}
+
+	@Test
+	void pagesConversationsInTimestampOrder() throws Exception {
+		LocalMessageStore store = open(DataSize.ofMegabytes(1));
+		store.saveMessages(List.of(message("m3", "911", 3), message("m1", "911", 1), message("x1", "922", 2)));
+		store.saveMessages(List.of(message("m2", "911", 2), message("m4", "911", 4)));
+
+		assertThat(store.findMessagesByPhoneNumber("911")).extracting(Message::getId).containsExactly("m1", "m2", "m3", "m4");
+		MessagePage first = store.findMessagesPage("911", null, null, 3);
+		assertThat(first.getMessages()).extracting(Message::getId).containsExactly("m1", "m2", "m3");
+		MessagePage second = store.findMessagesPage("911", null, MessageCursor.decode(first.getNextCursor()), 3);
+		assertThat(second.getMessages()).extracting(Message::getId).containsExactly("m4");
+		assertThat(second.getNextCursor()).isNull();
+		assertThat(store.findMessagesPage("911", Timestamp.ofTimeSecondsAndNanos(2, 0), null, 10).getMessages())
+				.extracting(Message::getId).containsExactly("m3", "m4");
+		assertThat(store.findMessagesByPhoneNumber("933")).isEmpty();
+	}
+
+	@Test
+	void rebuildsIndexAndClaimsFromLogOnRestart() throws Exception {
+		// Small segments, so the log rolls over several files
+		LocalMessageStore store = open(DataSize.ofBytes(256));
+		for (int i = 1; i <= 20; i++) {
+			store.saveMessages(List.of(message("m" + i, "911", i)));
+		}
+		store.saveMessages(List.of(new Message("m5", "911", "edited", Timestamp.ofTimeSecondsAndNanos(5, 0),
+				Message.MessageDirection.OUTBOUND, "wamid.5", Message.DeliveryStatus.FAILED,
+				Timestamp.ofTimeSecondsAndNanos(6, 0), "131026 Message undeliverable")));
+		assertThat(store.claimWebhookEvent("msg:wamid.1", CLAIM_TTL)).isTrue();
+		store.close();
+
+		LocalMessageStore reopened = open(DataSize.ofBytes(256));
+
+		List<Message> messages = reopened.findMessagesByPhoneNumber("911");
+		assertThat(messages).hasSize(20);
+		assertThat(messages.get(4).getContent()).isEqualTo("edited");
+		assertThat(messages.get(4).getDirection()).isEqualTo(Message.MessageDirection.OUTBOUND);
+		assertThat(messages.get(4).getWaMessageId()).isEqualTo("wamid.5");
+		assertThat(messages.get(4).getDeliveryStatus()).isEqualTo(Message.DeliveryStatus.FAILED);
+		assertThat(messages.get(4).getStatusUpdatedAt()).isEqualTo(Timestamp.ofTimeSecondsAndNanos(6, 0));
+		assertThat(messages.get(4).getDeliveryError()).isEqualTo("131026 Message undeliverable");
+		assertThat(messages.get(3).getDeliveryStatus()).isNull();
+		assertThat(reopened.claimWebhookEvent("msg:wamid.1", CLAIM_TTL)).isFalse();
+		assertThat(reopened.claimWebhookEvent("msg:wamid.2", CLAIM_TTL)).isTrue();
+		try (var segments = Files.list(directory)) {
+			assertThat(segments.count()).isGreaterThan(1);
+		}
+	}
+
+	@Test
+	void findsMessagesByDeliveryStatusAfterStatusChangesAndRestart() throws Exception {
+		LocalMessageStore store = open(DataSize.ofKilobytes(4));
+		store.saveMessages(List.of(sent("m1", "911", 1, Message.DeliveryStatus.SENT),
+				sent("m2", "922", 2, Message.DeliveryStatus.ACCEPTED), sent("m3", "911", 3, Message.DeliveryStatus.SENT),
+				message("x1", "911", 4)));
+		// Moves m3 out of SENT
+		store.saveMessages(List.of(sent("m3", "911", 3, Message.DeliveryStatus.READ)));
+
+		List<Message.DeliveryStatus> pending = List.of(Message.DeliveryStatus.ACCEPTED, Message.DeliveryStatus.SENT);
+		assertThat(store.findMessagesByDeliveryStatus(pending, null, 10)).extracting(Message::getId).containsExactly("m1", "m2");
+		assertThat(store.findMessagesByDeliveryStatus(pending, null, 1)).extracting(Message::getId).containsExactly("m1");
+		assertThat(store.findMessagesByDeliveryStatus(pending, Timestamp.ofTimeSecondsAndNanos(2, 0), 10))
+				.extracting(Message::getId).containsExactly("m1");
+		store.close();
+
+		LocalMessageStore reopened = open(DataSize.ofKilobytes(4));
+		assertThat(reopened.findMessagesByDeliveryStatus(pending, null, 10)).extracting(Message::getId).containsExactly("m1", "m2");
+		assertThat(reopened.findMessagesByDeliveryStatus(List.of(Message.DeliveryStatus.READ), null, 10))
+				.extracting(Message::getId).containsExactly("m3");
+	}
+
+	@Test
+	void expiresClaimsAfterTheirTtlAndSkipsThemOnReplay() throws Exception {
+		LocalMessageStore store = open(DataSize.ofKilobytes(4));
+		assertThat(store.claimWebhookEvent("msg:short", Duration.ofMillis(20))).isTrue();
+		assertThat(store.claimWebhookEvent("msg:long", CLAIM_TTL)).isTrue();
+		assertThat(store.claimWebhookEvent("msg:short", Duration.ofMillis(20))).isFalse();
+		Thread.sleep(50);
+
+		assertThat(store.claimWebhookEvent("msg:short", Duration.ofMillis(20))).isTrue();
+		store.close();
+		Thread.sleep(50);
+
+		LocalMessageStore reopened = open(DataSize.ofKilobytes(4));
+		assertThat(reopened.claimWebhookEvent("msg:short", CLAIM_TTL)).isTrue();
+		assertThat(reopened.claimWebhookEvent("msg:long", CLAIM_TTL)).isFalse();
+	}
+
+	@Test
+	void discardsTornRecordAtEndOfLog() throws Exception {
+		LocalMessageStore store = open(DataSize.ofKilobytes(4));
+		store.saveMessages(List.of(message("m1", "911", 1)));
+		store.saveMessages(List.of(message("m2", "911", 2)));
+		store.close();
+		Path segment = directory.resolve("messages-00000.log");
+		// Corrupt the last byte of the second record's payload, as a partial write would
+		int firstLength = readInt(segment, 0);
+		int secondOffset = 8 + firstLength;
+		int secondLength = readInt(segment, secondOffset);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			long position = secondOffset + 8 + secondLength - 1;
+			channel.read(last, position);
+			channel.write(ByteBuffer.wrap(new byte[] {(byte) ~last.get(0)}), position);
+		}
+
+		LocalMessageStore reopened = open(DataSize.ofKilobytes(4));
+		assertThat(reopened.findMessagesByPhoneNumber("911")).extracting(Message::getId).containsExactly("m1");
+
+		reopened.saveMessages(List.of(message("m3", "911", 3)));
+		reopened.close();
+		assertThat(open(DataSize.ofKilobytes(4)).findMessagesByPhoneNumber("911"))
+				.extracting(Message::getId).containsExactly("m1", "m3");
+	}
+
+	private LocalMessageStore open(DataSize segmentSize) {
+		LocalMessageStore store = new LocalMessageStore(new SimpleMeterRegistry(), directory, segmentSize, true);
+		opened.add(store);
+		return store;
+	}
+
+	private static int readInt(Path file, int offset) throws Exception {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(4);
+			channel.read(buffer, offset);
+			return buffer.flip().getInt();
+		}
+	}
+
+	private static Message sent(String id, String phoneNumber, long seconds, Message.DeliveryStatus status) {
+		return new Message(id, phoneNumber, "message " + seconds, Timestamp.ofTimeSecondsAndNanos(seconds, 0),
+				Message.MessageDirection.OUTBOUND, "wamid." + id, status, null, null);
+	}
+
+	private static Message message(String id, String phoneNumber, long seconds) {
+		return new Message(id, phoneNumber, "message " + seconds, Timestamp.ofTimeSecondsAndNanos(seconds, 0),
+				Message.MessageDirection.INBOUND);
+	}
+}
@@ -0,0 +1,39 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageDocumentsTest {
+
+	@Test
+	void roundTripsEveryField() {
+		Message message = new Message("m1", "919876543210", "hello", Timestamp.ofTimeSecondsAndNanos(1718000000L, 5),
+				Message.MessageDirection.OUTBOUND, "wamid.1", Message.DeliveryStatus.FAILED,
+				Timestamp.ofTimeSecondsAndNanos(1718000009L, 0), "131026: undeliverable");
+
+		Map<String, Object> fields = MessageDocuments.toFields(message);
+
+		assertThat(fields).containsEntry("direction", "OUTBOUND").containsEntry("deliveryStatus", "FAILED");
+		assertThat(MessageDocuments.fromFields("m1", fields)).isEqualTo(message);
+	}
+
+	@Test
+	void fallsBackToTheDocumentIdForOlderDocuments() {
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("phoneNumber", "919876543210");
+		fields.put("content", "hi");
+		fields.put("direction", "INBOUND");
+
+		Message message = MessageDocuments.fromFields("doc-1", fields);
+
+		assertThat(message.getId()).isEqualTo("doc-1");
+		assertThat(message.getDirection()).isEqualTo(Message.MessageDirection.INBOUND);
+		assertThat(message.getDeliveryStatus()).isNull();
+	}
+}
@@ -0,0 +1,126 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.google.cloud.Timestamp;
+import com.jaruratcare.whatsapp.model.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MessageWriteBehindServiceTest {
+
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private MessageWriteBehindService writer;
+
+	@AfterEach
+	void tearDown() {
+		if (writer != null) {
+			writer.shutdown();
+		}
+	}
+
+	@Test
+	void flushesFullBatchesWithoutWaitingForTheWindow() throws Exception {
+		writer = new MessageWriteBehindService(store, meterRegistry, 10, 60_000, 1000, 1000, 3, 10, 100);
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			futures.add(writer.submit(message(i)));
+		}
+		CompletableFuture.allOf(futures.subList(0, 20).toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+		assertThat(store.batches).hasSizeGreaterThanOrEqualTo(2);
+		assertThat(store.batches.get(0)).hasSize(10);
+		assertThat(store.batches.get(1)).hasSize(10);
+	}
+
+	@Test
+	void flushesPartialBatchWhenWindowElapses() throws Exception {
+		writer = new MessageWriteBehindService(store, meterRegistry, 100, 50, 1000, 1000, 3, 10, 100);
+
+		writer.submit(message(1));
+		writer.submit(message(2)).get(5, TimeUnit.SECONDS);
+
+		assertThat(store.saved()).hasSize(2);
+		assertThat(meterRegistry.get("whatsapp.firestore.write-behind.batch.size").summary().count()).isGreaterThanOrEqualTo(1);
+	}
+
+	@Test
+	void drainsPendingMessagesOnShutdown() {
+		writer = new MessageWriteBehindService(store, meterRegistry, 100, 60_000, 1000, 1000, 3, 10, 100);
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			futures.add(writer.submit(message(i)));
+		}
+
+		writer.shutdown();
+
+		assertThat(futures).allMatch(future -> future.isDone() && !future.isCompletedExceptionally());
+		assertThat(store.saved()).hasSize(5);
+		assertThat(writer.submit(message(6))).isCompletedExceptionally();
+	}
+
+	@Test
+	void retriesFailedBatchUntilTheStoreRecovers() throws Exception {
+		store.failing = true;
+		writer = new MessageWriteBehindService(store, meterRegistry, 100, 10, 1000, 1000, 5, 50, 50);
+
+		CompletableFuture<Void> future = writer.submit(message(1));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (meterRegistry.get("whatsapp.firestore.write-behind.flush.failures").counter().count() < 1
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(future).isNotDone();
+		assertThat(writer.getPendingCount()).isEqualTo(1);
+		store.failing = false;
+
+		future.get(5, TimeUnit.SECONDS);
+		assertThat(store.saved()).hasSize(1);
+		assertThat(writer.getPendingCount()).isZero();
+		assertThat(meterRegistry.get("whatsapp.firestore.write-behind.retried").counter().count()).isGreaterThanOrEqualTo(1);
+	}
+
+	@Test
+	void failsFuturesOnceAttemptsAreExhausted() {
+		store.failing = true;
+		writer = new MessageWriteBehindService(store, meterRegistry, 100, 10, 1000, 1000, 3, 10, 100);
+
+		assertThatThrownBy(() -> writer.submit(message(1)).get(5, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class);
+		assertThat(meterRegistry.get("whatsapp.firestore.write-behind.flush.failures").counter().count()).isEqualTo(3);
+		assertThat(meterRegistry.get("whatsapp.firestore.write-behind.dropped").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void rejectsNewMessagesWhileRetriesFillTheQueue() throws Exception {
+		store.failing = true;
+		writer = new MessageWriteBehindService(store, meterRegistry, 100, 10, 1, 50, 5, 200, 200);
+
+		CompletableFuture<Void> retried = writer.submit(message(1));
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (meterRegistry.get("whatsapp.firestore.write-behind.flush.failures").counter().count() < 1
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(writer.submit(message(2))).isCompletedExceptionally();
+		store.failing = false;
+
+		retried.get(5, TimeUnit.SECONDS);
+		writer.submit(message(3)).get(5, TimeUnit.SECONDS);
+		assertThat(store.saved()).hasSize(2);
+	}
+
+	private static Message message(int i) {
+		return new Message(null, "9198765432" + i, "message " + i, Timestamp.now(), Message.MessageDirection.INBOUND);
+	}
+}
@@ -0,0 +1,137 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jaruratcare.whatsapp.cluster.ConversationRouter;
+import com.jaruratcare.whatsapp.model.Message;
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OutboundOutboxTest {
+
+	@TempDir
+	Path directory;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryMessageStore store = new InMemoryMessageStore();
+	private final MessageWriteBehindService writer = new MessageWriteBehindService(store, meterRegistry, 100, 10, 1000, 1000, 3, 10, 100);
+	private final ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+	private final DeliveryStatusTracker deliveryTracker = new DeliveryStatusTracker(cache, writer, store, meterRegistry,
+			Duration.ofMillis(50), 1000, Duration.ofMinutes(1), Duration.ofDays(1));
+	private final ConversationService conversationService = new ConversationService(store, writer, cache,
+			new ConversationRouter(Optional.empty(), meterRegistry, 128), null,
+			new ConversationEventBus(meterRegistry, 16, 100, Duration.ofSeconds(15), false), deliveryTracker);
+	private final OutboundSchedulerTest.StubGraphApiClient graphApi = new OutboundSchedulerTest.StubGraphApiClient();
+	// No retries in the scheduler, so every failure reaches the outbox
+	private final OutboundScheduler scheduler = new OutboundScheduler(graphApi, meterRegistry, 1000, 1000, 100, 100, 1, 10, 100);
+	private final WhatsAppService whatsappService = new WhatsAppService(scheduler, meterRegistry);
+	private final List<OutboundOutbox> opened = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		opened.forEach(OutboundOutbox::shutdown);
+		scheduler.shutdown();
+		deliveryTracker.shutdown();
+		writer.shutdown();
+	}
+
+	@Test
+	void replaysUnsentMessagesAfterRestart() throws Exception {
+		graphApi.responses.add(SendResult.failed(503, "Service unavailable"));
+		OutboundOutbox outbox = open(new SimpleMeterRegistry());
+
+		OutboundOutbox.Delivery delivery = outbox.submit("911", "Your appointment is confirmed", OutboundScheduler.Priority.INTERACTIVE);
+		assertThat(delivery.firstAttempt().get(5, TimeUnit.SECONDS).getStatusCode()).isEqualTo(503);
+		assertThat(delivery.isRetrying()).isTrue();
+		assertThat(outbox.getDepth()).isEqualTo(1);
+		outbox.shutdown();
+
+		SimpleMeterRegistry restartMetrics = new SimpleMeterRegistry();
+		OutboundOutbox restarted = open(restartMetrics);
+		assertThat(restartMetrics.get("whatsapp.outbox.replayed").counter().count()).isEqualTo(1);
+		assertThat(restartMetrics.get("whatsapp.outbox.replay").timer().count()).isEqualTo(1);
+		awaitDepth(restarted, 0);
+		assertThat(graphApi.sent).containsExactly("911", "911");
+		restarted.shutdown();
+
+		// Marked done, so a second restart has nothing left to send
+		SimpleMeterRegistry secondRestart = new SimpleMeterRegistry();
+		open(secondRestart);
+		assertThat(secondRestart.get("whatsapp.outbox.replayed").counter().count()).isZero();
+		writer.shutdown();
+		assertThat(store.saved()).singleElement().satisfies(message -> {
+			assertThat(message.getDirection()).isEqualTo(Message.MessageDirection.OUTBOUND);
+			assertThat(message.getWaMessageId()).isEqualTo("wamid.2");
+		});
+	}
+
+	@Test
+	void deadLettersPermanentFailuresAtOnce() throws Exception {
+		graphApi.responses.add(SendResult.failed(400, "Invalid recipient"));
+		SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+		OutboundOutbox outbox = open(metrics);
+
+		OutboundOutbox.Delivery delivery = outbox.submit("911", "Reminder", OutboundScheduler.Priority.BULK);
+
+		assertThat(delivery.result().get(5, TimeUnit.SECONDS).isSuccess()).isFalse();
+		assertThat(delivery.isRetrying()).isFalse();
+		assertThat(outbox.getDepth()).isZero();
+		assertThat(metrics.get("whatsapp.outbox.dead-lettered").counter().count()).isEqualTo(1);
+		assertThat(Files.readAllLines(directory.resolve(OutboundOutbox.DEAD_LETTER_FILE))).singleElement()
+				.satisfies(line -> assertThat(line).contains(delivery.id(), "Invalid recipient"));
+	}
+
+	@Test
+	void compactsTheLogAroundEntriesStillPending() throws Exception {
+		OutboxLog log = new OutboxLog(directory, false, 64, 1024, new SimpleMeterRegistry());
+		OutboxLog.Entry pending = entry("pending");
+		log.append(pending).get(5, TimeUnit.SECONDS);
+		for (int i = 0; i < 200; i++) {
+			OutboxLog.Entry sent = entry("sent-" + i);
+			log.append(sent).get(5, TimeUnit.SECONDS);
+			log.complete(sent.id()).get(5, TimeUnit.SECONDS);
+		}
+		// Never written, so completing it must not count against the pending entry
+		log.complete("never-appended").get(5, TimeUnit.SECONDS);
+		log.close();
+
+		assertThat(Files.size(directory.resolve(OutboxLog.FILE_NAME))).isLessThan(2048);
+		OutboxLog reopened = new OutboxLog(directory, false, 64, 1024, new SimpleMeterRegistry());
+		assertThat(reopened.recovered()).containsExactly(pending);
+		reopened.close();
+	}
+
+	private static OutboxLog.Entry entry(String id) {
+		return new OutboxLog.Entry(id, "911", "Your appointment is confirmed", OutboundScheduler.Priority.INTERACTIVE, 1L);
+	}
+
+	private OutboundOutbox open(SimpleMeterRegistry metrics) {
+		// Retries are an hour out, so a retried send stays pending for the whole test
+		OutboundOutbox outbox = new OutboundOutbox(whatsappService, conversationService, new ObjectMapper(), metrics,
+				directory, true, 64, DataSize.ofKilobytes(1), 5, Duration.ofHours(1), Duration.ofHours(1),
+				Duration.ofSeconds(1));
+		opened.add(outbox);
+		return outbox;
+	}
+
+	private static void awaitDepth(OutboundOutbox outbox, int depth) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (outbox.getDepth() != depth && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(outbox.getDepth()).isEqualTo(depth);
+	}
+}
@@ -0,0 +1,129 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.model.dto.SendResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OutboundSchedulerTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final StubGraphApiClient client = new StubGraphApiClient();
+	private OutboundScheduler scheduler;
+
+	@AfterEach
+	void tearDown() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	void retriesThrottledSendsWithBackoff() throws Exception {
+		scheduler = new OutboundScheduler(client, meterRegistry, 100, 100, 100, 100, 5, 10, 100);
+		client.responses.add(SendResult.failed(429, 130429, "{\"error\":{\"code\":130429}}"));
+		client.responses.add(SendResult.failed(503, "unavailable"));
+
+		SendResult result = scheduler.submit("911", "hello", OutboundScheduler.Priority.INTERACTIVE).get(5, TimeUnit.SECONDS);
+
+		assertThat(result.isSuccess()).isTrue();
+		assertThat(client.sent).hasSize(3);
+		assertThat(meterRegistry.get("whatsapp.outbound.retries").counter().count()).isEqualTo(2);
+		assertThat(meterRegistry.get("whatsapp.outbound.responses").tag("status", "429").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("whatsapp.outbound.responses").tag("status", "5xx").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("whatsapp.outbound.responses").tag("status", "2xx").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void doesNotRetryClientErrors() throws Exception {
+		scheduler = new OutboundScheduler(client, meterRegistry, 100, 100, 100, 100, 5, 10, 100);
+		client.responses.add(SendResult.failed(400, 131030, "{\"error\":{\"code\":131030}}"));
+
+		SendResult result = scheduler.submit("911", "hello", OutboundScheduler.Priority.INTERACTIVE).get(5, TimeUnit.SECONDS);
+
+		assertThat(result.isSuccess()).isFalse();
+		assertThat(client.sent).hasSize(1);
+	}
+
+	@Test
+	void retriesBadRequestsOnlyForRateLimitErrorCodes() {
+		assertThat(OutboundScheduler.isRetryable(SendResult.failed(400, 131056, "{\"error\":{\"code\":131056}}"))).isTrue();
+		// The digits of a rate-limit code elsewhere in the body don't count
+		assertThat(OutboundScheduler.isRetryable(SendResult.failed(400, 131030,
+				"{\"error\":{\"code\":131030,\"fbtrace_id\":\"A130429B\"}}"))).isFalse();
+		assertThat(OutboundScheduler.isRetryable(SendResult.failed(400, "130429"))).isFalse();
+	}
+
+	@Test
+	void interactiveRepliesOvertakeQueuedBulkSends() throws Exception {
+		// Five sends per second with no burst, so the queue builds up behind the first send
+		scheduler = new OutboundScheduler(client, meterRegistry, 5, 1, 100, 100, 1, 10, 100);
+		List<CompletableFuture<SendResult>> futures = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			futures.add(scheduler.submit("bulk-" + i, "broadcast", OutboundScheduler.Priority.BULK));
+		}
+		futures.add(scheduler.submit("patient", "reply", OutboundScheduler.Priority.INTERACTIVE));
+
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+		assertThat(client.sent.indexOf("patient")).isLessThanOrEqualTo(2);
+	}
+
+	@Test
+	void limitsSendsPerRecipient() throws Exception {
+		// One message every 200 ms per recipient
+		scheduler = new OutboundScheduler(client, meterRegistry, 100, 100, 5, 1, 1, 10, 100);
+		long start = System.nanoTime();
+
+		CompletableFuture.allOf(
+				scheduler.submit("911", "one", OutboundScheduler.Priority.INTERACTIVE),
+				scheduler.submit("911", "two", OutboundScheduler.Priority.INTERACTIVE),
+				scheduler.submit("922", "other", OutboundScheduler.Priority.INTERACTIVE)
+		).get(5, TimeUnit.SECONDS);
+
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(150);
+		assertThat(client.sent.indexOf("922")).isLessThan(client.sent.lastIndexOf("911"));
+	}
+
+	@Test
+	void keepsSendsToAThrottledRecipientInOrder() throws Exception {
+		// One message every 100 ms per recipient
+		scheduler = new OutboundScheduler(client, meterRegistry, 100, 100, 10, 1, 1, 10, 100);
+
+		CompletableFuture.allOf(
+				scheduler.submit("911", "first", OutboundScheduler.Priority.INTERACTIVE),
+				scheduler.submit("911", "second", OutboundScheduler.Priority.INTERACTIVE),
+				scheduler.submit("911", "third", OutboundScheduler.Priority.INTERACTIVE)
+		).get(5, TimeUnit.SECONDS);
+
+		assertThat(client.texts).containsExactly("first", "second", "third");
+	}
+
+	static class StubGraphApiClient extends GraphApiClient {
+		final Queue<SendResult> responses = new ConcurrentLinkedQueue<>();
+		final List<String> sent = new CopyOnWriteArrayList<>();
+		final List<String> texts = new CopyOnWriteArrayList<>();
+
+		StubGraphApiClient() {
+			super("http://localhost", "token", "12345", 1000, 1000);
+		}
+
+		@Override
+		public CompletableFuture<SendResult> sendText(String to, String text) {
+			sent.add(to);
+			texts.add(text);
+			SendResult response = responses.poll();
+			return CompletableFuture.completedFuture(response != null ? response : SendResult.sent(200, "wamid." + sent.size()));
+		}
+	}
+}
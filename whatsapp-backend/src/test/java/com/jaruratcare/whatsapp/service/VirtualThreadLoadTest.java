@@ -0,0 +1,89 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.cluster.ConversationRouter;
+import com.jaruratcare.whatsapp.model.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load comparison for the two execution modes: a burst of conversation reads that each block on
+ * a slow Firestore query, served by a Tomcat-sized platform pool versus one virtual thread per
+ * request.
+ */
+class VirtualThreadLoadTest {
+
+	// Tomcat's default server.tomcat.threads.max
+	private static final int PLATFORM_POOL_SIZE = 200;
+	private static final int REQUESTS = 2_000;
+	private static final long QUERY_MILLIS = 100;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryMessageStore store = new InMemoryMessageStore() {
+		@Override
+		public List<Message> findMessagesByPhoneNumber(String phoneNumber) {
+			try {
+				Thread.sleep(QUERY_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.findMessagesByPhoneNumber(phoneNumber);
+		}
+	};
+	private final MessageWriteBehindService writer = new MessageWriteBehindService(store, meterRegistry, 100, 10, 1000, 1000, 3, 10, 100);
+	private final ConversationCache cache = new ConversationCache(meterRegistry, 1_000_000);
+	private final DeliveryStatusTracker deliveryTracker = new DeliveryStatusTracker(cache, writer, store, meterRegistry,
+			Duration.ofMillis(50), 1000, Duration.ofMinutes(1), Duration.ofDays(1));
+	private final ConversationService service =
+			new ConversationService(store, writer, cache,
+					new ConversationRouter(Optional.empty(), meterRegistry, 128), null,
+					new ConversationEventBus(meterRegistry, 16, 100, Duration.ofSeconds(15), false), deliveryTracker);
+
+	@AfterEach
+	void tearDown() {
+		deliveryTracker.shutdown();
+		writer.shutdown();
+	}
+
+	@Test
+	void virtualThreadsServeBlockingBurstFasterThanPlatformPool() throws Exception {
+		long platformMillis;
+		try (ExecutorService platform = Executors.newFixedThreadPool(PLATFORM_POOL_SIZE,
+				ExecutionThreads.factory("load-platform-", false))) {
+			platformMillis = runBurst(platform, "platform-");
+		}
+		long virtualMillis;
+		try (ExecutorService virtual = Executors.newThreadPerTaskExecutor(ExecutionThreads.factory("load-virtual-", true))) {
+			virtualMillis = runBurst(virtual, "virtual-");
+		}
+
+		// The platform pool needs REQUESTS / PLATFORM_POOL_SIZE rounds of blocking queries
+		assertThat(platformMillis).isGreaterThanOrEqualTo(REQUESTS / PLATFORM_POOL_SIZE * QUERY_MILLIS);
+		assertThat(virtualMillis).isLessThan(platformMillis);
+	}
+
+	private long runBurst(ExecutorService executor, String phonePrefix) throws Exception {
+		long start = System.nanoTime();
+		List<Future<List<Message>>> responses = new ArrayList<>(REQUESTS);
+		for (int i = 0; i < REQUESTS; i++) {
+			// Distinct conversations, so every request misses the cache and queries the store
+			String phoneNumber = phonePrefix + i;
+			responses.add(executor.submit(() -> service.getMessages(phoneNumber)));
+		}
+		for (Future<List<Message>> response : responses) {
+			response.get(30, TimeUnit.SECONDS);
+		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}
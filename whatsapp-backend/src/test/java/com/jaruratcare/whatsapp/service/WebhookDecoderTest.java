@@ -0,0 +1,81 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.model.event.InboundMessageEvent;
+import com.jaruratcare.whatsapp.model.event.StatusEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WebhookDecoderTest {
+
+	private final WebhookDecoder decoder = new WebhookDecoder();
+	private final List<InboundMessageEvent> messages = new ArrayList<>();
+	private final List<StatusEvent> statuses = new ArrayList<>();
+	private final WebhookEventHandler handler = new WebhookEventHandler() {
+		@Override
+		public void onMessage(InboundMessageEvent event) {
+			messages.add(event);
+		}
+
+		@Override
+		public void onStatus(StatusEvent event) {
+			statuses.add(event);
+		}
+	};
+
+	@Test
+	void decodesSingleTextMessage() throws IOException {
+		int events = decoder.decode(fixture("single-message.json"), handler);
+
+		assertThat(events).isEqualTo(1);
+		assertThat(messages).singleElement().satisfies(message -> {
+			assertThat(message.getFrom()).isEqualTo("919876543210");
+			assertThat(message.getText()).isEqualTo("hey");
+			assertThat(message.getType()).isEqualTo("text");
+			assertThat(message.getTimestamp()).isEqualTo(1718000000L);
+			assertThat(message.getPhoneNumberId()).isEqualTo("106540352242922");
+		});
+		assertThat(statuses).isEmpty();
+	}
+
+	@Test
+	void decodesEveryEntryChangeMessageAndStatusInBatch() throws IOException {
+		int events = decoder.decode(fixture("batch.json"), handler);
+
+		assertThat(events).isEqualTo(6);
+		assertThat(messages).extracting(InboundMessageEvent::getMessageId)
+				.containsExactly("wamid.A1", "wamid.A2", "wamid.A3", "wamid.C1");
+		assertThat(messages.get(1).getType()).isEqualTo("image");
+		assertThat(messages.get(1).getText()).isNull();
+		// metadata after the messages array is still applied
+		assertThat(messages.get(0).getPhoneNumberId()).isEqualTo("106540352242922");
+		assertThat(messages.get(3).getPhoneNumberId()).isEqualTo("106540352242923");
+
+		assertThat(statuses).extracting(StatusEvent::getStatus).containsExactly("delivered", "failed");
+		assertThat(statuses.get(1).getErrorCode()).isEqualTo(131047);
+		assertThat(statuses.get(1).getErrorTitle()).isEqualTo("Re-engagement message");
+	}
+
+	@Test
+	void ignoresPayloadsWithoutEntries() throws IOException {
+		assertThat(decoder.decode("{\"object\":\"whatsapp_business_account\"}", handler)).isZero();
+	}
+
+	@Test
+	void rejectsNonObjectPayload() {
+		assertThatThrownBy(() -> decoder.decode("[1,2,3]", handler)).isInstanceOf(IOException.class);
+	}
+
+	static String fixture(String name) throws IOException {
+		try (InputStream in = WebhookDecoderTest.class.getResourceAsStream("/webhooks/" + name)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
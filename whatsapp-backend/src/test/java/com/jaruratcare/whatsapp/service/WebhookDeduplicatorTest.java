@@ -0,0 +1,122 @@
+package com.jaruratcare.whatsapp.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WebhookDeduplicatorTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void dropsRedeliveredMessagesAndStatuses() {
+		WebhookDeduplicator deduplicator = new WebhookDeduplicator(null, meterRegistry, Duration.ofHours(1), 100, false);
+
+		assertThat(deduplicator.firstSeenMessage("wamid.1")).isTrue();
+		assertThat(deduplicator.firstSeenMessage("wamid.1")).isFalse();
+		assertThat(deduplicator.firstSeenStatus("wamid.1", "sent")).isTrue();
+		assertThat(deduplicator.firstSeenStatus("wamid.1", "delivered")).isTrue();
+		assertThat(deduplicator.firstSeenStatus("wamid.1", "delivered")).isFalse();
+
+		assertThat(meterRegistry.get("whatsapp.webhook.dedup").tag("result", "unique").counter().count()).isEqualTo(3);
+		assertThat(meterRegistry.get("whatsapp.webhook.dedup").tag("result", "duplicate").counter().count()).isEqualTo(2);
+	}
+
+	@Test
+	void forgetsKeysAfterTtl() throws Exception {
+		WebhookDeduplicator deduplicator = new WebhookDeduplicator(null, meterRegistry, Duration.ofMillis(20), 100, false);
+
+		assertThat(deduplicator.firstSeen("msg:a")).isTrue();
+		Thread.sleep(50);
+
+		assertThat(deduplicator.firstSeen("msg:b")).isTrue();
+		assertThat(deduplicator.size()).isEqualTo(1);
+		assertThat(deduplicator.firstSeen("msg:a")).isTrue();
+	}
+
+	@Test
+	void evictsOldestKeysPastMaxEntries() {
+		WebhookDeduplicator deduplicator = new WebhookDeduplicator(null, meterRegistry, Duration.ofHours(1), 3, false);
+
+		for (int i = 0; i < 5; i++) {
+			deduplicator.firstSeen("msg:" + i);
+		}
+
+		assertThat(deduplicator.size()).isEqualTo(3);
+		assertThat(deduplicator.firstSeen("msg:4")).isFalse();
+		assertThat(deduplicator.firstSeen("msg:0")).isTrue();
+	}
+
+	@Test
+	void dropsKeysAlreadyClaimedInFirestore() {
+		InMemoryMessageStore store = new InMemoryMessageStore();
+		store.claims.add("msg:before-restart");
+		WebhookDeduplicator deduplicator = new WebhookDeduplicator(store, meterRegistry, Duration.ofHours(1), 100, true);
+
+		assertThat(deduplicator.firstSeenMessage("before-restart")).isFalse();
+		assertThat(deduplicator.firstSeenMessage("new")).isTrue();
+		assertThat(store.claims).contains("msg:new");
+	}
+
+	@Test
+	void processesEventsWhenFirestoreIsUnavailable() {
+		MessageStore store = new InMemoryMessageStore() {
+			@Override
+			public boolean claimWebhookEvent(String key, Duration ttl) {
+				throw new IllegalStateException("FirebaseApp not initialized");
+			}
+		};
+		WebhookDeduplicator deduplicator = new WebhookDeduplicator(store, meterRegistry, Duration.ofHours(1), 100, true);
+
+		assertThat(deduplicator.firstSeenMessage("wamid.1")).isTrue();
+		assertThat(deduplicator.firstSeenMessage("wamid.1")).isFalse();
+	}
+
+	@Test
+	void admitsEachKeyExactlyOnceUnderConcurrentRedelivery() throws Exception {
+		int threads = 16;
+		int keys = 5_000;
+		WebhookDeduplicator deduplicator = new WebhookDeduplicator(null, meterRegistry, Duration.ofHours(1), keys * 2, false);
+		AtomicInteger admitted = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		List<Future<?>> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int offset = t;
+			workers.add(pool.submit(() -> {
+				start.await();
+				// Every thread delivers every key, starting at a different point so deliveries collide
+				for (int i = 0; i < keys; i++) {
+					if (deduplicator.firstSeen("msg:" + (i + offset * 997) % keys)) {
+						admitted.incrementAndGet();
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> worker : workers) {
+			worker.get(30, TimeUnit.SECONDS);
+		}
+		pool.shutdown();
+
+		assertThat(admitted.get()).isEqualTo(keys);
+		assertThat(deduplicator.size()).isEqualTo(keys);
+		double unique = meterRegistry.get("whatsapp.webhook.dedup").tag("result", "unique").counter().count();
+		double duplicate = meterRegistry.get("whatsapp.webhook.dedup").tag("result", "duplicate").counter().count();
+		assertThat(unique).isEqualTo(keys);
+		assertThat(unique + duplicate).isEqualTo((double) threads * keys);
+	}
+}
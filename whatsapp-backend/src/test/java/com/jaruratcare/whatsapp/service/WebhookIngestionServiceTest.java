@@ -0,0 +1,73 @@
+package com.jaruratcare.whatsapp.service;
+
+import com.jaruratcare.whatsapp.controller.WhatsAppController;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WebhookIngestionServiceTest {
+
+	private static final String PAYLOAD = "{\"object\":\"whatsapp_business_account\"}";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private WebhookIngestionService ingestion;
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		if (ingestion != null) {
+			ingestion.shutdown();
+		}
+	}
+
+	@Test
+	void rejectsPayloadsOnceTheQueueIsFull() throws InterruptedException {
+		ingestion = new WebhookIngestionService(new BlockingProcessor(), meterRegistry, 1, 1, false);
+
+		assertThat(ingestion.submit(PAYLOAD)).isTrue();
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(ingestion.submit(PAYLOAD)).isTrue();
+		assertThat(ingestion.submit(PAYLOAD)).isFalse();
+
+		assertThat(ingestion.getQueueDepth()).isEqualTo(1);
+		assertThat(meterRegistry.get("whatsapp.webhook.rejected").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void webhookAnswers503WhenTheQueueIsFull() throws InterruptedException {
+		ingestion = new WebhookIngestionService(new BlockingProcessor(), meterRegistry, 1, 1, false);
+		WhatsAppController controller = new WhatsAppController(null, null, null, null, null, ingestion, null, null, null);
+
+		assertThat(controller.handleWebhookNotification(PAYLOAD).getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(controller.handleWebhookNotification(PAYLOAD).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+		assertThat(controller.handleWebhookNotification(PAYLOAD).getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+	}
+
+	// Holds the only worker until the test releases it, so later payloads stay queued
+	private class BlockingProcessor extends WebhookProcessor {
+
+		BlockingProcessor() {
+			super(null, null, null, null, null, null, null, null, null, null, meterRegistry);
+		}
+
+		@Override
+		public void process(String payload) {
+			started.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}